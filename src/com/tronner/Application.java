@@ -54,6 +54,12 @@ public class Application {
      */
     public Configuration config;
 
+    /**
+     * The configuration last read by an Application,
+     * shared so server plugins can read their settings.
+     */
+    private static Configuration current = new Configuration();
+
     /**
      * The path to the configuration file
      */
@@ -114,6 +120,16 @@ public class Application {
      */
     public void readConfig() throws IOException {
         config = JsonManager.loadFromJson(configurationFile, Configuration.class);
+        current = config;
+    }
+
+    /**
+     * Gets the configuration of the running server.
+     * Falls back to the defaults if no configuration was read.
+     * @return the configuration
+     */
+    public static Configuration getConfig() {
+        return current;
     }
 
     /**
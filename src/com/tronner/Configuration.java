@@ -25,6 +25,8 @@
 package com.tronner;
 
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -58,6 +60,89 @@ public class Configuration {
      */
     public String db_pass;
 
+    /**
+     * Where the game keeps its map resources, relative to
+     * the scripts folder. Map paths are looked up in here.
+     */
+    public String resource_path = "../resource/";
+
+    /**
+     * The most map logs the Logger keeps in memory, the current map
+     * is always kept on top of this.
+     */
+    public int maplog_cache_entries = 64;
+
+    /**
+     * The most estimated bytes of map logs the Logger keeps in memory.
+     */
+    public long maplog_cache_bytes = 32L * 1024 * 1024;
+
+    /**
+     * Minutes between folding the record journal into the times files.
+     */
+    public int journal_compact_minutes = 10;
+
+    /**
+     * Minutes between writing the checkpoint restarts load from, 0 turns it off.
+     */
+    public int checkpoint_minutes = 5;
+
+    /**
+     * The distance a racer travels between ghost splits.
+     * 0 turns distance splits off.
+     */
+    public float split_distance = 150f;
+
+    /**
+     * Fixed split zones by map name, each zone is {x, y, radius}.
+     * Maps listed here split on their zones instead of distance.
+     */
+    public Map<String, List<float[]>> split_zones = new HashMap<>();
+
+    /**
+     * How many leaders the live standings show.
+     */
+    public int standings_top = 3;
+
+    /**
+     * Game seconds between live standings messages.
+     */
+    public int standings_period = 2;
+
+    /**
+     * Racers moving faster than this many units per second are flagged.
+     */
+    public float anomaly_max_speed = 300f;
+
+    /**
+     * Racers jumping further than this between two positions are flagged,
+     * when it is also further than anomaly_max_speed allows for the time.
+     */
+    public float anomaly_teleport = 300f;
+
+    /**
+     * Finishes faster than this fraction of the record are held for review.
+     */
+    public float anomaly_record_ratio = 0.75f;
+
+    /**
+     * Days a leaderboard season lasts, 0 only ends seasons by /season end.
+     */
+    public int season_days = 91;
+
+    /**
+     * Extra ranking formulas by name, scored for every ranked player
+     * when the rankings are published. See RankingFormulas for the syntax.
+     * Example. "average": "avg(ranked ? rank : count)"
+     */
+    public Map<String, String> ranking_formulas = new LinkedHashMap<>();
+
+    /**
+     * The formula players are ranked by, lowest first.
+     * Empty ranks by the sum of map ranks.
+     */
+    public String ranking_order = "";
+
     public Map<String, Double> times = new HashMap<String, Double>() {{
         put("Tristan", 10.324d);
     }};
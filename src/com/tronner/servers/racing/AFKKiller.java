@@ -31,6 +31,7 @@ import com.tronner.servers.racing.players.PlayerTracker;
 import com.tronner.util.TronLocation;
 
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
 
 /**
@@ -43,10 +44,16 @@ public class AFKKiller extends ServerEventListener {
     public static final int STRIKES = 5;
     public static final int MIN_DISTANCE = 5;
 
+    /**
+     * Game seconds between checks
+     */
+    public static final int CHECK_PERIOD = 1;
+
     private static class AFK {
 
         private String player;
         private TronLocation loc;
+        private TronLocation latest;
         private int strikes;
 
         public AFK(String playerID, TronLocation location) {
@@ -56,13 +63,14 @@ public class AFKKiller extends ServerEventListener {
         }
 
         /**
-         * Ticks the afk check,
+         * Ticks the afk check against the latest location seen,
          * if they are killed returns true to let the killer remove them from the list so they arent updated again.
          *
-         * @param location the location to tick to
          * @return if the player receives a strike
          */
-        public boolean tick(TronLocation location) {
+        public boolean tick() {
+            TronLocation location = latest;
+            latest = null;
             if (!location.atLeastDist(loc, MIN_DISTANCE)) {
                 strikes++;
                 loc = location;
@@ -75,6 +83,14 @@ public class AFKKiller extends ServerEventListener {
             }
         }
 
+        /**
+         * Has a position arrived since the last check
+         * @return true if there is something to check
+         */
+        public boolean hasMoved() {
+            return latest != null;
+        }
+
         public boolean struckOut() {
             return (strikes > STRIKES);
         }
@@ -85,43 +101,61 @@ public class AFKKiller extends ServerEventListener {
 
     }
 
-    private RaceTimer raceTimer;
+    private RoundClock clock;
 
     private Map<String, AFK> afkMap = new HashMap<>();
 
-    public AFKKiller(PlayerTracker playerTracker, RaceTimer rt) {
+    public AFKKiller(PlayerTracker playerTracker, RoundClock clock) {
         Parser.getInstance().reflectListeners(this);
-        this.raceTimer = rt;
+        this.clock = clock;
     }
 
     // PLAYER_GRIDPOS [alekzander@forums, -112.423, -2.79337, -0.707107, 0.707107, |ek]
 
     @Override
     public void PLAYER_GRIDPOS(String player, float xPos, float yPos, float xDir, float yDir, String display) {
-        if (raceTimer.getGameTime() < 1)
+        if (clock.getGameTime() < 1)
             return;
 
-        TronLocation newLoc = new TronLocation(xPos, yPos);
-
         AFK afkPlayer = afkMap.get(player);
+        if(afkPlayer != null)
+            afkPlayer.latest = new TronLocation(xPos, yPos);
+    }
 
-        boolean receivedTick = afkPlayer.tick(newLoc);
-        boolean hasStruck = afkPlayer.struckOut();
-
-        if(receivedTick) {
-            Commands.PLAYER_MESSAGE(player, "Move faster! Strike " + afkPlayer.getStrikes() );
-        }
+    /**
+     * Strikes everyone who has not moved far enough since the last check
+     */
+    public void check() {
+        Iterator<AFK> it = afkMap.values().iterator();
+        while(it.hasNext()) {
+            AFK afkPlayer = it.next();
+            if(!afkPlayer.hasMoved())
+                continue;
+
+            boolean receivedTick = afkPlayer.tick();
+            boolean hasStruck = afkPlayer.struckOut();
+
+            if(receivedTick) {
+                Commands.PLAYER_MESSAGE(afkPlayer.player, "Move faster! Strike " + afkPlayer.getStrikes() );
+            }
 
-        if(hasStruck) {
-            Commands.KILL(player);
-            Commands.CONSOLE_MESSAGE(player + " was killed for not racing.");
-            afkMap.remove(player);
+            if(hasStruck) {
+                Commands.KILL(afkPlayer.player);
+                Commands.CONSOLE_MESSAGE(afkPlayer.player + " was killed for not racing.");
+                it.remove();
+            }
         }
     }
 
     @Override
     public void ROUND_COMMENCING() {
         afkMap.clear();
+        clock.every(1 + CHECK_PERIOD, CHECK_PERIOD, new Runnable() {
+            @Override
+            public void run() {
+                check();
+            }
+        });
     }
 
     @Override
@@ -0,0 +1,471 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014. Tristan John Whitcher
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.tronner.servers.racing;
+
+import com.tronner.Application;
+import com.tronner.parser.Parser;
+import com.tronner.parser.ServerEventListener;
+import com.tronner.servers.racing.logs.Logger;
+import com.tronner.servers.racing.logs.MapLog;
+import com.tronner.servers.racing.logs.PlayerTime;
+import com.tronner.servers.racing.logs.RecordListener;
+import com.tronner.servers.racing.maps.MapManager;
+import com.tronner.servers.racing.maps.Queue;
+import com.tronner.servers.racing.maps.RacingMap;
+import com.tronner.servers.racing.rankings.RankedPlayer;
+import com.tronner.servers.racing.rankings.Rankings;
+import com.tronner.util.JsonManager;
+import com.tronner.util.PersistenceService;
+import com.tronner.util.StorageWriter;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Tronner - Checkpoint
+ *
+ * Keeps the racing state in one binary file so a restart reads a single
+ * file instead of parsing every times file and recaching the rankings.
+ * Holds every map's times, the rankings, where the rotation is and the
+ * queue. Players and maps are written once in a string table and
+ * referred to by index after that. The checkpoint is written every
+ * checkpoint_minutes at the start of a round and last thing at shutdown.
+ * It is only used when it was copied after the last change to every file
+ * it stands in for, otherwise the JSON files are read as before.
+ *
+ * Format, big endian, version 2:
+ * <pre>
+ * int magic, short version, long written millis
+ * int strings, then a UTF string each
+ * int maps, then for each: int map, int records, then int player, int centiseconds, long date fastest first
+ * int ranked, then for each: int player, int rank, int sum, double average
+ * int current rotation map, -1 for none
+ * boolean queue enabled, boolean queue active, int queued, then int map each
+ * long CRC32 of everything before it
+ * </pre>
+ *
+ * @author TJohnW
+ */
+public class Checkpoint extends ServerEventListener {
+
+    public static final int MAGIC = 0x54434B50; // TCKP
+
+    public static final short VERSION = 2;
+
+    /**
+     * The times on one map, never changed once made
+     */
+    private static class Times {
+
+        private final String[] players;
+        private final int[] times;
+        private final long[] dates;
+
+        public Times(String[] players, int[] times, long[] dates) {
+            this.players = players;
+            this.times = times;
+            this.dates = dates;
+        }
+
+        public Times(MapLog log) {
+            List<PlayerTime> records = log.getRecords();
+            players = new String[records.size()];
+            times = new int[records.size()];
+            dates = new long[records.size()];
+            int i = 0;
+            for(PlayerTime pt: records) {
+                players[i] = pt.getPlayer();
+                dates[i] = pt.getDate();
+                times[i++] = pt.getTime();
+            }
+        }
+
+        public MapLog toMapLog(String map) {
+            MapLog log = new MapLog(map);
+            for(int i = 0; i < players.length; i++) {
+                PlayerTime pt = new PlayerTime(players[i], 0);
+                pt.setTime(times[i]);
+                pt.setDate(dates[i]);
+                log.updateRecord(pt);
+            }
+            return log;
+        }
+    }
+
+    /**
+     * The state read from a checkpoint file
+     */
+    public static class State {
+
+        /**
+         * When the state was copied, not when the file was written
+         */
+        private long written;
+        private Map<String, Times> times = new HashMap<>();
+        private List<RankedPlayer> rankings = new ArrayList<>();
+        private String currentMap;
+        private boolean queueEnabled;
+        private boolean queueActive;
+        private List<String> queue = new ArrayList<>();
+    }
+
+    private String path;
+
+    private MapManager mapManager;
+
+    private Rankings rankings;
+
+    /**
+     * The times on every map, kept current by the record listener
+     */
+    private Map<String, Times> times = new ConcurrentHashMap<>();
+
+    private boolean restored;
+
+    /**
+     * Holds every map's times, so it is worth writing
+     */
+    private volatile boolean complete;
+
+    private long lastWritten = System.currentTimeMillis();
+
+    /**
+     * Keeps the times current as records are set
+     */
+    private RecordListener recordListener = new RecordListener() {
+        @Override
+        public void recordImproved(MapLog log, PlayerTime record, int oldRank, int newRank) {
+            times.put(log.getMapName(), new Times(log));
+        }
+    };
+
+    /**
+     * Creates the Checkpoint, putting the racing state back from the
+     * state given
+     * @param path where the checkpoint is written
+     * @param logger the Logger, told about the checkpoint
+     * @param mapManager the MapManager
+     * @param rankings the Rankings
+     * @param state the state read at startup, null if there was none to use
+     */
+    public Checkpoint(String path, Logger logger, MapManager mapManager, Rankings rankings, State state) {
+        Parser.getInstance().reflectListeners(this);
+        this.path = path;
+        this.mapManager = mapManager;
+        this.rankings = rankings;
+        logger.setCheckpoint(this);
+        logger.addRecordListener(recordListener);
+        if(state != null)
+            restore(state);
+        PersistenceService.getInstance().atShutdown(new Runnable() {
+            @Override
+            public void run() {
+                if(complete)
+                    write(capture());
+            }
+        });
+    }
+
+    /**
+     * Reads a checkpoint if it can stand in for the data files
+     * @param path the checkpoint path
+     * @return the state, or null if it is missing, broken or older than the data
+     */
+    public static State read(String path) {
+        File file = new File(JsonManager.PATH + path);
+        if(!file.exists())
+            return null;
+        long start = System.nanoTime();
+        try {
+            byte[] bytes = Files.readAllBytes(file.toPath());
+            if(bytes.length < 8)
+                throw new IOException("Checkpoint cut short");
+            CRC32 crc = new CRC32();
+            crc.update(bytes, 0, bytes.length - 8);
+            if(crc.getValue() != ByteBuffer.wrap(bytes, bytes.length - 8, 8).getLong())
+                throw new IOException("Checkpoint checksum does not match");
+            State state = decode(new DataInputStream(new ByteArrayInputStream(bytes, 0, bytes.length - 8)));
+            // anything written since the state was copied is not in it
+            if(newestData() >= state.written) {
+                System.out.println("# Checkpoint is older than the data files, reading them instead.");
+                return null;
+            }
+            System.out.println("# Read checkpoint written " + (System.currentTimeMillis() - state.written) / 60000
+                    + " minutes ago in " + (System.nanoTime() - start) / 1000000 + " ms, " + bytes.length / 1024 + "k.");
+            return state;
+        } catch (IOException e) {
+            System.out.println("# Unable to read checkpoint, reading the data files: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * The newest change to a file the checkpoint stands in for
+     */
+    private static long newestData() {
+        long newest = 0;
+        String data = JsonManager.PATH + "data/";
+        for(String name: new String[] { "maps.JSON", "rankings.JSON", Racing.JOURNAL, Racing.JOURNAL + ".old",
+                Racing.TIMES_DATABASE })
+            newest = Math.max(newest, new File(data + name).lastModified());
+        File[] logs = new File(data + Racing.PATH_TIMES).listFiles();
+        if(logs != null)
+            for(File f: logs)
+                newest = Math.max(newest, f.lastModified());
+        return newest;
+    }
+
+    private static State decode(DataInputStream in) throws IOException {
+        if(in.readInt() != MAGIC)
+            throw new IOException("Not a checkpoint");
+        short version = in.readShort();
+        if(version != VERSION)
+            throw new IOException("Checkpoint version " + version + ", expected " + VERSION);
+        State state = new State();
+        state.written = in.readLong();
+
+        String[] strings = new String[in.readInt()];
+        for(int i = 0; i < strings.length; i++)
+            strings[i] = in.readUTF();
+
+        int maps = in.readInt();
+        for(int m = 0; m < maps; m++) {
+            String map = strings[in.readInt()];
+            String[] players = new String[in.readInt()];
+            int[] times = new int[players.length];
+            long[] dates = new long[players.length];
+            for(int i = 0; i < players.length; i++) {
+                players[i] = strings[in.readInt()];
+                times[i] = in.readInt();
+                dates[i] = in.readLong();
+            }
+            state.times.put(map, new Times(players, times, dates));
+        }
+
+        int ranked = in.readInt();
+        for(int i = 0; i < ranked; i++) {
+            RankedPlayer rp = new RankedPlayer(strings[in.readInt()]);
+            rp.setRank(in.readInt());
+            rp.setSum(in.readInt());
+            rp.setAverage(in.readDouble());
+            state.rankings.add(rp);
+        }
+
+        int current = in.readInt();
+        state.currentMap = current == -1 ? null : strings[current];
+        state.queueEnabled = in.readBoolean();
+        state.queueActive = in.readBoolean();
+        int queued = in.readInt();
+        for(int i = 0; i < queued; i++)
+            state.queue.add(strings[in.readInt()]);
+        return state;
+    }
+
+    /**
+     * Puts the times, rankings, rotation and queue back
+     */
+    private void restore(State state) {
+        times.putAll(state.times);
+        Map<String, List<String>> ranked = new HashMap<>();
+        for(Map.Entry<String, Times> e: state.times.entrySet())
+            ranked.put(e.getKey(), Arrays.asList(e.getValue().players));
+        rankings.restore(state.rankings, ranked);
+        RacingMap current = state.currentMap == null ? null : mapManager.getMap(state.currentMap);
+        if(current != null)
+            mapManager.getRotation().resumeAfter(current);
+        List<RacingMap> queued = new ArrayList<>();
+        for(String map: state.queue) {
+            if(mapManager.validMap(map))
+                queued.add(mapManager.getMap(map));
+        }
+        mapManager.getQueue().restore(queued, state.queueEnabled, state.queueActive);
+        restored = true;
+        complete = true;
+        lastWritten = state.written;
+    }
+
+    /**
+     * Was the state put back from a checkpoint
+     * @return true if restored
+     */
+    public boolean isRestored() {
+        return restored;
+    }
+
+    /**
+     * Fills in the times of maps read at startup, for when there was no
+     * checkpoint. Maps with records set since are already current.
+     * @param logs map logs by map
+     */
+    public void fill(Map<String, MapLog> logs) {
+        for(Map.Entry<String, MapLog> e: logs.entrySet()) {
+            if(!times.containsKey(e.getKey()))
+                times.put(e.getKey(), new Times(e.getValue()));
+        }
+        complete = true;
+    }
+
+    /**
+     * Builds a MapLog from the times held, safe from any thread
+     * @param map the map
+     * @return the MapLog, or null if the checkpoint does not have it
+     */
+    public MapLog readMapLog(String map) {
+        Times t = times.get(map);
+        return t == null ? null : t.toMapLog(map);
+    }
+
+    /**
+     * Copies what is only safe to read on the dispatch thread
+     */
+    private State capture() {
+        State state = new State();
+        state.written = System.currentTimeMillis();
+        state.times = new HashMap<>(times);
+        RacingMap current = mapManager.getRotation().current();
+        state.currentMap = current == null ? null : current.getName();
+        Queue queue = mapManager.getQueue();
+        state.queueEnabled = queue.isEnabled();
+        state.queueActive = queue.isActive();
+        for(RacingMap rm: queue.getMaps())
+            state.queue.add(rm.getName());
+        return state;
+    }
+
+    /**
+     * Writes a checkpoint, the rankings are copied here
+     */
+    private void write(final State state) {
+        long start = System.nanoTime();
+        state.rankings = rankings.snapshot();
+        try {
+            StorageWriter.write(JsonManager.PATH + path, new StorageWriter.Content() {
+                @Override
+                public void writeTo(OutputStream out) throws IOException {
+                    CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(out), new CRC32());
+                    DataOutputStream data = new DataOutputStream(checked);
+                    encode(state, data);
+                    data.flush();
+                    data.writeLong(checked.getChecksum().getValue());
+                    data.flush();
+                }
+            });
+            System.out.println("# Checkpoint written in " + (System.nanoTime() - start) / 1000000 + " ms, "
+                    + state.times.size() + " maps.");
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.out.println("# Unable to write checkpoint: " + path);
+        }
+    }
+
+    private static void encode(State state, DataOutputStream out) throws IOException {
+        Map<String, Integer> ids = new HashMap<>();
+        List<String> strings = new ArrayList<>();
+        for(Map.Entry<String, Times> e: state.times.entrySet()) {
+            intern(e.getKey(), ids, strings);
+            for(String player: e.getValue().players)
+                intern(player, ids, strings);
+        }
+        for(RankedPlayer rp: state.rankings)
+            intern(rp.getName(), ids, strings);
+        intern(state.currentMap, ids, strings);
+        for(String map: state.queue)
+            intern(map, ids, strings);
+
+        out.writeInt(MAGIC);
+        out.writeShort(VERSION);
+        out.writeLong(state.written);
+
+        out.writeInt(strings.size());
+        for(String s: strings)
+            out.writeUTF(s);
+
+        out.writeInt(state.times.size());
+        for(Map.Entry<String, Times> e: state.times.entrySet()) {
+            Times t = e.getValue();
+            out.writeInt(ids.get(e.getKey()));
+            out.writeInt(t.players.length);
+            for(int i = 0; i < t.players.length; i++) {
+                out.writeInt(ids.get(t.players[i]));
+                out.writeInt(t.times[i]);
+                out.writeLong(t.dates[i]);
+            }
+        }
+
+        out.writeInt(state.rankings.size());
+        for(RankedPlayer rp: state.rankings) {
+            out.writeInt(ids.get(rp.getName()));
+            out.writeInt(rp.getRank());
+            out.writeInt(rp.getSum());
+            out.writeDouble(rp.getAverage());
+        }
+
+        out.writeInt(state.currentMap == null ? -1 : ids.get(state.currentMap));
+        out.writeBoolean(state.queueEnabled);
+        out.writeBoolean(state.queueActive);
+        out.writeInt(state.queue.size());
+        for(String map: state.queue)
+            out.writeInt(ids.get(map));
+    }
+
+    private static void intern(String s, Map<String, Integer> ids, List<String> strings) {
+        if(s != null && !ids.containsKey(s)) {
+            ids.put(s, strings.size());
+            strings.add(s);
+        }
+    }
+
+    @Override
+    public void ROUND_COMMENCING() {
+        int minutes = Application.getConfig().checkpoint_minutes;
+        if(!complete || minutes <= 0 || System.currentTimeMillis() - lastWritten < minutes * 60000L)
+            return;
+        lastWritten = System.currentTimeMillis();
+        final State state = capture();
+        PersistenceService.getInstance().submit(new Runnable() {
+            @Override
+            public void run() {
+                write(state);
+            }
+        });
+    }
+
+}
@@ -0,0 +1,254 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014. Tristan John Whitcher
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.tronner.servers.racing;
+
+import com.tronner.Application;
+import com.tronner.dispatcher.Commands;
+import com.tronner.parser.Parser;
+import com.tronner.parser.ServerEventListener;
+import com.tronner.servers.racing.lang.LRace;
+import com.tronner.servers.racing.maps.MapManager;
+import com.tronner.servers.racing.maps.RacingMap;
+import com.tronner.servers.racing.maps.geometry.DistanceField;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Tronner - LiveStandings
+ *
+ * Shows who is leading while the race is on. Every racer is placed
+ * by the path length left to the finish, read from the distance
+ * field of the map on each PLAYER_GRIDPOS. The order is repaired
+ * around the racer that moved, and the leaders are put in a center
+ * message every few seconds.
+ *
+ * @author TJohnW
+ */
+public class LiveStandings extends ServerEventListener {
+
+    private static class Racer {
+
+        private String player;
+        private float remaining;
+        private int position;
+
+        /**
+         * The order it finished in, -1 while still racing
+         */
+        private int finish = -1;
+
+        public Racer(String player, float remaining) {
+            this.player = player;
+            this.remaining = remaining;
+        }
+    }
+
+    private MapManager mapManager;
+
+    private RaceTimer raceTimer;
+
+    private RoundClock clock;
+
+    private DistanceField field;
+
+    private Map<String, Racer> racers = new HashMap<>();
+
+    /**
+     * The racers from first to last
+     */
+    private Racer[] order = new Racer[32];
+
+    private int size;
+
+    private int finished;
+
+    public LiveStandings(MapManager mapManager, RaceTimer raceTimer, RoundClock clock) {
+        Parser.getInstance().reflectListeners(this);
+        this.mapManager = mapManager;
+        this.raceTimer = raceTimer;
+        this.clock = clock;
+    }
+
+    @Override
+    public void ROUND_COMMENCING() {
+        racers.clear();
+        Arrays.fill(order, 0, size, null);
+        size = 0;
+        finished = 0;
+
+        // the map manager loads the field with the geometry, no standings until it has
+        RacingMap map = mapManager.getCurrentMap();
+        field = map == null || map.getGeometry() == null ? null : map.getGeometry().getDistanceField();
+        if(field == null)
+            return;
+
+        int period = Math.max(1, Application.getConfig().standings_period);
+        clock.every(period, period, new Runnable() {
+            @Override
+            public void run() {
+                publish();
+            }
+        });
+    }
+
+    /**
+     * Puts the leaders in a center message
+     */
+    public void publish() {
+        if(size < 2 || raceTimer.isCountingDown())
+            return;
+        String out = "";
+        for(int i = 0; i < Math.min(size, Application.getConfig().standings_top); i++)
+            out += LRace.STANDINGS_PLACE.parse(i + 1, order[i].player);
+        Commands.CENTER_MESSAGE(out);
+    }
+
+    /**
+     * Finished racers are ahead of everyone still racing, in finish order
+     * @return true if a is ahead of b
+     */
+    private static boolean ahead(Racer a, Racer b) {
+        if(a.finish >= 0 || b.finish >= 0)
+            return b.finish < 0 || (a.finish >= 0 && a.finish < b.finish);
+        return a.remaining < b.remaining;
+    }
+
+    /**
+     * Moves a racer until the racers around it are in order again,
+     * racers rarely pass more than one other per update.
+     * @param r the racer whose distance changed
+     */
+    private void reorder(Racer r) {
+        int i = r.position;
+        while(i > 0 && ahead(r, order[i - 1])) {
+            order[i] = order[i - 1];
+            order[i].position = i;
+            i--;
+        }
+        while(i < size - 1 && ahead(order[i + 1], r)) {
+            order[i] = order[i + 1];
+            order[i].position = i;
+            i++;
+        }
+        order[i] = r;
+        r.position = i;
+    }
+
+    private void remove(String player) {
+        Racer r = racers.remove(player);
+        if(r == null)
+            return;
+        for(int i = r.position; i < size - 1; i++) {
+            order[i] = order[i + 1];
+            order[i].position = i;
+        }
+        order[--size] = null;
+    }
+
+    /**
+     * Gets the place of a racer in the race right now
+     * @param player the player
+     * @return the place, or -1 if not racing
+     */
+    public int getPlace(String player) {
+        Racer r = racers.get(player);
+        return r == null ? -1 : r.position + 1;
+    }
+
+    @Override
+    public void CYCLE_CREATED(String playerId, float xPosition, float yPosition, float xDir, float yDir) {
+        if(field == null || racers.containsKey(playerId))
+            return;
+        Racer r = new Racer(playerId, field.distanceAt(xPosition, yPosition));
+        if(size == order.length)
+            order = Arrays.copyOf(order, size * 2);
+        r.position = size;
+        order[size++] = r;
+        racers.put(playerId, r);
+        reorder(r);
+    }
+
+    @Override
+    public void PLAYER_GRIDPOS(String player, float xPos, float yPos, float xDir, float yDir, String display) {
+        Racer r = racers.get(player);
+        if(r == null || r.finish >= 0)
+            return;
+        r.remaining = field.distanceAt(xPos, yPos);
+        reorder(r);
+    }
+
+    @Override
+    public void TARGETZONE_PLAYER_ENTER(int globalID, float zoneX, float zoneY,
+                                        String playerId, float playerX, float playerY, float playerXDir,
+                                        float playerYDir, float time) {
+        Racer r = racers.get(playerId);
+        if(r == null || r.finish >= 0)
+            return;
+        r.finish = finished++;
+        reorder(r);
+    }
+
+    /**
+     * Drops a racer that died before finishing
+     */
+    private void death(String player) {
+        Racer r = racers.get(player);
+        if(r != null && r.finish < 0)
+            remove(player);
+    }
+
+    @Override
+    public void DEATH_SUICIDE(String player) {
+        death(player);
+    }
+
+    @Override
+    public void DEATH_FRAG(String playerKilled, String killer) {
+        death(playerKilled);
+    }
+
+    @Override
+    public void DEATH_DEATHZONE(String player) {
+        death(player);
+    }
+
+    @Override
+    public void DEATH_RUBBERZONE(String player) {
+        death(player);
+    }
+
+    @Override
+    public void PLAYER_KILLED(String player, String ip, float x, float y, float xDir, float yDir) {
+        death(player);
+    }
+
+    @Override
+    public void PLAYER_LEFT(String player, String ip) {
+        remove(player);
+    }
+
+}
@@ -28,24 +28,34 @@ import com.tronner.dispatcher.Commands;
 import com.tronner.parser.Parser;
 import com.tronner.parser.ServerEventListener;
 import com.tronner.servers.racing.players.PlayerTracker;
+import com.tronner.util.TimerWheel;
 
 /**
  * Tronner - RaceTimer
  *
+ * Ends the round. The countdown is armed once someone finishes or
+ * only one racer is left, and the round ends when it runs out or
+ * nobody is racing anymore. Both are checked when racers finish or
+ * die instead of on every tick.
+ *
  * @author Tristan on 8/7/2014.
  */
 public class RaceTimer extends ServerEventListener {
 
-    private int gameTime = -1;
-
     private int timeLeft = 60;
 
     private PlayerTracker playerTracker;
+
+    private RoundClock clock;
+
     private boolean roundOver = false;
 
-    public RaceTimer(PlayerTracker pm) {
+    private TimerWheel.Timeout countdown;
+
+    public RaceTimer(PlayerTracker pm, RoundClock clock) {
         Parser.getInstance().reflectListeners(this);
         playerTracker = pm;
+        this.clock = clock;
     }
 
     public int getTimeLeft() {
@@ -56,31 +66,106 @@ public class RaceTimer extends ServerEventListener {
         this.timeLeft = timeLeft;
     }
 
+    /**
+     * Is the countdown showing in the center right now
+     * @return true while counting down
+     */
+    public boolean isCountingDown() {
+        return countdown != null && !roundOver;
+    }
+
     @Override
     public void ROUND_COMMENCING() {
         timeLeft = 60;
         roundOver = false;
+        countdown = null;
+        clock.at(0, new Runnable() {
+            @Override
+            public void run() {
+                update();
+            }
+        });
     }
 
-    @Override
-    public void GAME_TIME(int time) {
-        gameTime = time;
-        if(roundOver)
+    /**
+     * Arms the countdown or ends the round when
+     * the racers call for it.
+     */
+    public void update() {
+        if(roundOver || !clock.isRunning())
             return;
 
-        if((playerTracker.playersFinished() > 0 || playerTracker.playersRacing() < 2) && playerTracker.playersRacing() > 0 && playerTracker.playersStarted() > 1) {
-            timeLeft--;
-            Commands.CENTER_MESSAGE(timeLeft + "                 ");
+        if(countdown == null && (playerTracker.playersFinished() > 0 || playerTracker.playersRacing() < 2)
+                && playerTracker.playersRacing() > 0 && playerTracker.playersStarted() > 1) {
+            countdown = clock.every(clock.getGameTime() + 1, 1, new Runnable() {
+                @Override
+                public void run() {
+                    tick();
+                }
+            });
         }
 
-        if(timeLeft <= 0 || playerTracker.playersRacing() < 1) {
-            if(playerTracker.playersFinished() > 0)
-                playerTracker.declareWinner();
-            else
-                playerTracker.endRound();
-            roundOver = true;
-        }
+        if(playerTracker.playersRacing() < 1)
+            endRound();
+    }
+
+    /**
+     * One second of the countdown
+     */
+    private void tick() {
+        if(roundOver)
+            return;
+        timeLeft--;
+        Commands.CENTER_MESSAGE(timeLeft + "                 ");
+        if(timeLeft <= 0)
+            endRound();
+    }
 
+    private void endRound() {
+        if(countdown != null)
+            countdown.cancel();
+        if(playerTracker.playersFinished() > 0)
+            playerTracker.declareWinner();
+        else
+            playerTracker.endRound();
+        roundOver = true;
+    }
+
+    @Override
+    public void TARGETZONE_PLAYER_ENTER(int globalID, float zoneX, float zoneY,
+                                        String playerId, float playerX, float playerY, float playerXDir,
+                                        float playerYDir, float time) {
+        update();
+    }
+
+    @Override
+    public void DEATH_SUICIDE(String player) {
+        update();
+    }
+
+    @Override
+    public void DEATH_FRAG(String playerKilled, String killer) {
+        update();
+    }
+
+    @Override
+    public void DEATH_DEATHZONE(String player) {
+        update();
+    }
+
+    @Override
+    public void DEATH_RUBBERZONE(String player) {
+        update();
+    }
+
+    @Override
+    public void PLAYER_KILLED(String player, String ip, float x, float y, float xDir, float yDir) {
+        update();
+    }
+
+    @Override
+    public void PLAYER_LEFT(String player, String ip) {
+        update();
     }
 
     /**
@@ -88,6 +173,6 @@ public class RaceTimer extends ServerEventListener {
      * @return the game time
      */
     public int getGameTime() {
-        return gameTime;
+        return clock.getGameTime();
     }
 }
@@ -24,20 +24,36 @@
 
 package com.tronner.servers.racing;
 
+import com.google.gson.JsonParseException;
 import com.tronner.Application;
 import com.tronner.dispatcher.Commands;
 import com.tronner.parser.Parser;
 import com.tronner.parser.ServerEventListener;
+import com.tronner.servers.racing.anomaly.AnomalyDetector;
+import com.tronner.servers.racing.anomaly.QuarantineCommands;
+import com.tronner.servers.racing.ghosts.GhostSplits;
 import com.tronner.servers.racing.lang.LColors;
+import com.tronner.servers.racing.leaderboards.Leaderboards;
 import com.tronner.servers.racing.logs.Logger;
+import com.tronner.servers.racing.logs.RecordJournal;
+import com.tronner.servers.racing.logs.TimesDatabase;
 import com.tronner.servers.racing.maps.MapManager;
 import com.tronner.servers.racing.players.PlayerTracker;
 import com.tronner.servers.racing.rankings.Rankings;
+import com.tronner.servers.racing.rankings.RankingsCommands;
+import com.tronner.servers.racing.rankings.RankingsHistory;
+import com.tronner.servers.racing.ratings.Ratings;
+import com.tronner.servers.racing.ratings.RatingsTracker;
 import com.tronner.util.Crayola;
+import com.tronner.util.JsonManager;
+import com.tronner.util.PersistenceService;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Tronner - Racing
@@ -49,10 +65,22 @@ public class Racing extends ServerEventListener {
 
     public static final String PATH_TIMES = "times/";
 
+    public static final String PATH_GHOSTS = "ghosts/";
+
+    public static final String JOURNAL = "records.journal";
+
+    public static final String TIMES_DATABASE = "times.db";
+
+    public static final String CHECKPOINT = "racing.checkpoint";
+
+    public static final String RANKINGS_HISTORY = "rankings.history";
+
     public static final int MAP_PLAYS = 2;
 
     private PlayerTracker playerTracker;
 
+    private RoundClock clock;
+
     private RaceTimer timer;
 
     private Logger logger;
@@ -82,18 +110,118 @@ public class Racing extends ServerEventListener {
 
         playerTracker = new PlayerTracker(); // Plan to make this PlayerManager and RacerManager extends PlayerManager
 
-        timer = new RaceTimer(playerTracker);
+        clock = new RoundClock();
+
+        AnomalyDetector anomalyDetector = new AnomalyDetector(clock);
+
+        // read before the journal opens, opening it can write to the data files
+        boolean checkpoints = Application.getConfig().checkpoint_minutes > 0;
+        Checkpoint.State state = checkpoints ? Checkpoint.read("data/" + CHECKPOINT) : null;
+
+        RecordJournal journal = openJournal();
+
+        logger = new Logger(playerTracker, anomalyDetector);
+        if(journal != null) {
+            logger.setJournal(journal);
+            logger.addRecordListener(journal);
+        }
+
+        TimesDatabase database = openTimesDatabase(journal);
+        if(database != null)
+            logger.addRecordListener(database);
+
+        timer = new RaceTimer(playerTracker, clock);
+
+        mapManager = new MapManager(playerTracker, logger, timer, clock);
+        anomalyDetector.setMapManager(mapManager);
+
+        rankings = new Rankings(playerTracker, mapManager, journal, database);
+        rankings.setHistory(openRankingsHistory());
+        logger.addRecordListener(rankings);
+
+        Checkpoint checkpoint = null;
+        if(checkpoints)
+            checkpoint = new Checkpoint("data/" + CHECKPOINT, logger, mapManager, rankings, state);
+
+        new AFKKiller(playerTracker, clock);
 
-        logger = new Logger(playerTracker);
+        new GhostSplits(logger, clock);
 
-        mapManager = new MapManager(playerTracker, logger, timer);
+        new LiveStandings(mapManager, timer, clock);
 
-        rankings = new Rankings(playerTracker, mapManager);
+        new RankingsCommands(rankings);
 
-        new AFKKiller(playerTracker, timer);
+        new QuarantineCommands(logger);
+
+        Ratings ratings = new Ratings();
+        ratings.loadRatings();
+        new RatingsTracker(ratings);
+
+        new Leaderboards(logger, mapManager);
 
         Parser.getInstance().reflectListeners(this);
 
+        new StartupLoader(logger, mapManager, rankings, checkpoint).start();
+
+    }
+
+    /**
+     * Opens the record journal and starts its compactor
+     * @return the journal, or null to save times files directly
+     */
+    private RecordJournal openJournal() {
+        try {
+            RecordJournal journal = new RecordJournal("data/" + JOURNAL);
+            journal.start(Application.getConfig().journal_compact_minutes);
+            return journal;
+        } catch (IOException | JsonParseException e) {
+            // a times file folded on open may not parse
+            e.printStackTrace();
+            System.out.println("# Unable to open the record journal, saving times files directly.");
+            return null;
+        }
+    }
+
+    /**
+     * Opens the rankings history
+     * @return the history, or null to keep none
+     */
+    private RankingsHistory openRankingsHistory() {
+        try {
+            return new RankingsHistory("data/" + RANKINGS_HISTORY);
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.out.println("# Unable to open the rankings history, keeping none.");
+            return null;
+        }
+    }
+
+    /**
+     * Opens the times database if it has been converted, putting back
+     * records a crash kept from reaching it
+     * @param journal the record journal, may be null
+     * @return the database, or null to read the times files
+     */
+    private TimesDatabase openTimesDatabase(RecordJournal journal) {
+        if(!new File(JsonManager.PATH + "data/" + TIMES_DATABASE).exists())
+            return null;
+        try {
+            final TimesDatabase database = new TimesDatabase("data/" + TIMES_DATABASE);
+            int recovered = database.recover(journal);
+            if(recovered > 0)
+                System.out.println("# Recovered " + recovered + " records into the times database.");
+            PersistenceService.getInstance().schedule(new Runnable() {
+                @Override
+                public void run() {
+                    database.force();
+                }
+            }, 1, TimeUnit.MINUTES);
+            return database;
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.out.println("# Unable to open the times database, reading the times files.");
+            return null;
+        }
     }
 
     /**
@@ -112,7 +240,7 @@ public class Racing extends ServerEventListener {
     @Override
     public void ROUND_COMMENCING() {
         if(!logger.isRankingsUpdated())
-            rankings.threadedUpdate();
+            rankings.publish();
         logger.setRankingsUpdated(true);
     }
 
@@ -0,0 +1,252 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014. Tristan John Whitcher
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.tronner.servers.racing;
+
+import com.tronner.parser.Parser;
+import com.tronner.parser.ServerEventListener;
+import com.tronner.util.TimerWheel;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tronner - RoundClock
+ *
+ * The one clock for the racing listeners. Callbacks are registered
+ * against game time, which restarts every round, or against wall
+ * time for things that outlive a round. Each tick only runs the
+ * timers that are due.
+ *
+ * If GAME_TIME stops arriving mid round the clock keeps counting
+ * game seconds from wall time until it comes back. Wall timers are
+ * checked whenever an event passes through, so everything runs on
+ * the parser thread.
+ *
+ * Must be created before any listener that registers timers in
+ * ROUND_COMMENCING, game timers are dropped when a round commences.
+ *
+ * @author TJohnW
+ */
+public class RoundClock extends ServerEventListener {
+
+    /**
+     * Milliseconds per tick of the wall wheel
+     */
+    public static final int WALL_TICK = 100;
+
+    /**
+     * How long GAME_TIME can be missing before wall time takes over
+     */
+    public static final int FALLBACK_MS = 1500;
+
+    private TimerWheel gameWheel = new TimerWheel(64, 0);
+
+    private TimerWheel wallWheel = new TimerWheel(512, 0);
+
+    private final long created = System.nanoTime();
+
+    /**
+     * A game timer registered before the first GAME_TIME of the round
+     */
+    private static class Pending {
+
+        private int first;
+        private int period;
+        private Runnable task;
+
+        public Pending(int first, int period, Runnable task) {
+            this.first = first;
+            this.period = period;
+            this.task = task;
+        }
+    }
+
+    private List<Pending> pending = new ArrayList<>();
+
+    private boolean started = false;
+
+    private int gameTime = -1;
+
+    /**
+     * When gameTime was last moved
+     */
+    private long gameTimeNanos;
+
+    /**
+     * When game time 0 was reached, -1 before
+     */
+    private long raceStart = -1;
+
+    public RoundClock() {
+        Parser.getInstance().reflectListeners(this);
+    }
+
+    /**
+     * Gets the game time of the round
+     * @return the game time
+     */
+    public int getGameTime() {
+        return gameTime;
+    }
+
+    /**
+     * Has GAME_TIME started counting this round
+     * @return true once the round has a game time
+     */
+    public boolean isRunning() {
+        return started;
+    }
+
+    /**
+     * Seconds since game time 0 of this round, measured on the wall
+     * clock for finer resolution than GAME_TIME.
+     * @return the seconds, or -1 before the race started
+     */
+    public float getRaceSeconds() {
+        if(raceStart < 0)
+            return -1;
+        return (System.nanoTime() - raceStart) / 1e9f;
+    }
+
+    /**
+     * Runs a task once at a game time this round,
+     * game times already passed run on the next tick.
+     * @param time the game time
+     * @param task the task
+     * @return the Timeout, null if it waits for the round to start
+     */
+    public TimerWheel.Timeout at(int time, Runnable task) {
+        return every(time, 0, task);
+    }
+
+    /**
+     * Runs a task every period game seconds this round
+     * @param first the first game time to run at
+     * @param period seconds between runs, 0 for once
+     * @param task the task
+     * @return the Timeout, null if it waits for the round to start
+     */
+    public TimerWheel.Timeout every(int first, int period, Runnable task) {
+        if(!started) {
+            pending.add(new Pending(first, period, task));
+            return null;
+        }
+        if(period <= 0)
+            return gameWheel.at(first, task);
+        return gameWheel.every(first, period, task);
+    }
+
+    /**
+     * Runs a task once after some wall time
+     * @param ms the milliseconds to wait
+     * @param task the task
+     * @return the Timeout
+     */
+    public TimerWheel.Timeout afterMillis(long ms, Runnable task) {
+        return wallWheel.at(wallTick() + ms / WALL_TICK, task);
+    }
+
+    /**
+     * Runs a task every period of wall time
+     * @param ms the milliseconds between runs
+     * @param task the task
+     * @return the Timeout
+     */
+    public TimerWheel.Timeout everyMillis(long ms, Runnable task) {
+        return wallWheel.every(wallTick() + ms / WALL_TICK, ms / WALL_TICK, task);
+    }
+
+    private long wallTick() {
+        return (System.nanoTime() - created) / (WALL_TICK * 1000000L);
+    }
+
+    /**
+     * Moves game time forward and runs what is due
+     * @param time the new game time
+     */
+    private void advance(int time) {
+        if(!started) {
+            started = true;
+            gameWheel.reset(time - 1);
+            for(Pending p: pending)
+                every(p.first, p.period, p.task);
+            pending.clear();
+        } else if(time <= gameTime) {
+            return;
+        }
+        gameTime = time;
+        gameTimeNanos = System.nanoTime();
+        if(time >= 0 && raceStart < 0)
+            raceStart = gameTimeNanos - time * 1000000000L;
+        gameWheel.advanceTo(time);
+    }
+
+    /**
+     * Catches up the wall timers, and game time if
+     * GAME_TIME has gone missing.
+     */
+    public void poll() {
+        long now = System.nanoTime();
+        if(started && (now - gameTimeNanos) / 1000000L > FALLBACK_MS) {
+            int ahead = (int) ((now - gameTimeNanos) / 1000000000L);
+            long at = gameTimeNanos;
+            advance(gameTime + ahead);
+            gameTimeNanos = at + ahead * 1000000000L;
+        }
+        wallWheel.advanceTo(wallTick());
+    }
+
+    @Override
+    public void ROUND_COMMENCING() {
+        started = false;
+        gameTime = -1;
+        raceStart = -1;
+        pending.clear();
+        gameWheel.reset(0);
+        poll();
+    }
+
+    @Override
+    public void GAME_TIME(int time) {
+        advance(time);
+        poll();
+    }
+
+    @Override
+    public void PLAYER_GRIDPOS(String player, float xPos, float yPos, float xDir, float yDir, String display) {
+        poll();
+    }
+
+    @Override
+    public void CYCLE_CREATED(String playerId, float xPosition, float yPosition, float xDir, float yDir) {
+        poll();
+    }
+
+    @Override
+    public void INVALID_COMMAND(String... args) {
+        poll();
+    }
+
+}
@@ -0,0 +1,251 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014. Tristan John Whitcher
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.tronner.servers.racing;
+
+import com.tronner.Application;
+import com.tronner.servers.racing.logs.Logger;
+import com.tronner.servers.racing.logs.MapLog;
+import com.tronner.servers.racing.maps.MapManager;
+import com.tronner.servers.racing.maps.RacingMap;
+import com.tronner.servers.racing.rankings.Rankings;
+import com.tronner.util.TopK;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Tronner - StartupLoader
+ *
+ * Reads the data files on a fork join pool when the plugin starts. Only
+ * the first map's log and geometry are waited for, the plugin takes
+ * events as soon as they are in. The other map logs, the colors and the
+ * rankings keep loading in the background. When the state was restored
+ * from a checkpoint the logs come from it and the rankings are kept.
+ *
+ * @author TJohnW
+ */
+public class StartupLoader {
+
+    /**
+     * How long a file took to read
+     */
+    private static class Timing {
+
+        private String file;
+        private long nanos;
+
+        public Timing(String file, long nanos) {
+            this.file = file;
+            this.nanos = nanos;
+        }
+    }
+
+    /**
+     * How many of the slowest files to print
+     */
+    private static final int SLOWEST = 10;
+
+    private ForkJoinPool pool = new ForkJoinPool();
+
+    private Logger logger;
+
+    private MapManager mapManager;
+
+    private Rankings rankings;
+
+    private Checkpoint checkpoint;
+
+    private Map<String, MapLog> logs = new ConcurrentHashMap<>();
+
+    /**
+     * The logger's generation of each map from before its log was read
+     */
+    private Map<String, Integer> generations = new ConcurrentHashMap<>();
+
+    private ConcurrentLinkedQueue<Timing> timings = new ConcurrentLinkedQueue<>();
+
+    private long started;
+
+    public StartupLoader(Logger logger, MapManager mapManager, Rankings rankings, Checkpoint checkpoint) {
+        this.logger = logger;
+        this.mapManager = mapManager;
+        this.rankings = rankings;
+        this.checkpoint = checkpoint;
+    }
+
+    /**
+     * Loads the first map and returns, the rest carries on in the background
+     */
+    public void start() {
+        started = System.nanoTime();
+        final RacingMap first = mapManager.peekNextMap();
+        if(first != null) {
+            pool.invoke(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    invokeAll(new LoadLog(first.getName()), new RecursiveAction() {
+                        @Override
+                        protected void compute() {
+                            long start = System.nanoTime();
+                            mapManager.warmGeometry(first);
+                            timings.add(new Timing("geometry of " + first.getName(), System.nanoTime() - start));
+                        }
+                    });
+                }
+            });
+            // the rankings count from what was read, records go on the copy
+            offer(first.getName());
+        }
+        System.out.println("# Ready after " + (System.nanoTime() - started) / 1000000 + " ms, warming the rest.");
+
+        pool.execute(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                warm(first);
+            }
+        });
+    }
+
+    /**
+     * Loads every other file in parallel, then the rankings
+     */
+    private void warm(RacingMap first) {
+        List<RecursiveAction> tasks = new ArrayList<>();
+        tasks.add(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                long start = System.nanoTime();
+                try {
+                    Class.forName("com.tronner.util.Crayola");
+                } catch (ClassNotFoundException e) {
+                    e.printStackTrace();
+                }
+                timings.add(new Timing("crayola.JSON", System.nanoTime() - start));
+            }
+        });
+
+        // the logs the cache will want soon, or every log if the rankings or checkpoint need them
+        boolean restored = checkpoint != null && checkpoint.isRestored();
+        List<String> maps = new ArrayList<>();
+        if(!restored && (rankings.readsMapLogs() || checkpoint != null)) {
+            maps.addAll(mapManager.getMaps().keySet());
+        } else {
+            for(RacingMap rm: mapManager.getRotation().upcoming(Application.getConfig().maplog_cache_entries))
+                maps.add(rm.getName());
+        }
+        for(String map: maps) {
+            if(first == null || !map.equals(first.getName()))
+                tasks.add(new LoadLog(map));
+        }
+        ForkJoinTask.invokeAll(tasks);
+
+        // hand the next maps in the rotation to the logger, unless they were played while warming
+        for(RacingMap rm: mapManager.getRotation().upcoming(Application.getConfig().maplog_cache_entries)) {
+            if(first != null && rm == first)
+                continue;
+            offer(rm.getName());
+        }
+
+        if(!restored) {
+            long start = System.nanoTime();
+            rankings.updateAll(rankings.readsMapLogs() ? logs : null, pool);
+            timings.add(new Timing("rankings", System.nanoTime() - start));
+            // only worth writing once the rankings are in too
+            if(checkpoint != null)
+                checkpoint.fill(logs);
+        }
+
+        report();
+        logs = null;
+        pool.shutdown();
+    }
+
+    /**
+     * Hands a copy of a log that was read to the logger, which drops it
+     * if the map was loaded since it was read
+     * @param map the map
+     */
+    private void offer(String map) {
+        MapLog log = logs.get(map);
+        if(log != null)
+            logger.offer(log.copy(), generations.get(map));
+    }
+
+    /**
+     * Prints the slowest files and the totals
+     */
+    private void report() {
+        TopK<Timing> slowest = new TopK<>(SLOWEST, new Comparator<Timing>() {
+            @Override
+            public int compare(Timing o1, Timing o2) {
+                return Long.compare(o2.nanos, o1.nanos);
+            }
+        });
+        long total = 0;
+        for(Timing t: timings) {
+            total += t.nanos;
+            slowest.offer(t);
+        }
+        for(Timing t: slowest.get())
+            System.out.println("# Loaded " + t.file + " in " + t.nanos / 1000 + " us");
+        System.out.println("# Startup loading done in " + (System.nanoTime() - started) / 1000000 + " ms, "
+                + timings.size() + " files taking " + total / 1000000 + " ms on "
+                + pool.getParallelism() + " threads.");
+    }
+
+    /**
+     * Reads one map log
+     */
+    @SuppressWarnings("serial")
+    private class LoadLog extends RecursiveAction {
+
+        private String map;
+
+        public LoadLog(String map) {
+            this.map = map;
+        }
+
+        @Override
+        protected void compute() {
+            long start = System.nanoTime();
+            generations.put(map, logger.getGeneration(map));
+            try {
+                logs.put(map, logger.readMapLog(map));
+            } catch (IOException e) {
+                // created when the map is first played
+            }
+            timings.add(new Timing("times/" + map + ".JSON", System.nanoTime() - start));
+        }
+    }
+
+}
@@ -0,0 +1,255 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014. Tristan John Whitcher
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.tronner.servers.racing.anomaly;
+
+import com.tronner.Application;
+import com.tronner.Configuration;
+import com.tronner.parser.Parser;
+import com.tronner.parser.ServerEventListener;
+import com.tronner.servers.racing.RoundClock;
+import com.tronner.servers.racing.maps.MapManager;
+import com.tronner.servers.racing.maps.RacingMap;
+import com.tronner.servers.racing.maps.geometry.DistanceField;
+import com.tronner.servers.racing.maps.geometry.MapGeometry;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Tronner - AnomalyDetector
+ *
+ * Watches the PLAYER_GRIDPOS feed of every racer for movement that
+ * the game can not produce, and judges finishes before they are
+ * logged. Moves across a wall of the map are checked against the
+ * path length around it from the distance field. Each racer only
+ * keeps a small fixed window of samples so updates stay cheap with
+ * a full server.
+ *
+ * @author TJohnW
+ */
+public class AnomalyDetector extends ServerEventListener {
+
+    /**
+     * Samples kept per racer for the speed window
+     */
+    public static final int WINDOW = 16;
+
+    /**
+     * The speed window must cover at least this many seconds,
+     * otherwise bursts of buffered input would look like speed.
+     */
+    public static final float MIN_WINDOW_SECONDS = 0.5f;
+
+    /**
+     * The movement state of one racer this round.
+     */
+    private static class Track {
+
+        private final float[] x = new float[WINDOW];
+        private final float[] y = new float[WINDOW];
+        private final long[] nanos = new long[WINDOW];
+        private final float[] step = new float[WINDOW];
+
+        /**
+         * Where the next sample goes in the ring
+         */
+        private int head;
+        private int size;
+
+        /**
+         * Path length over the samples in the ring
+         */
+        private float windowPath;
+
+        private float spawnX;
+        private float spawnY;
+
+        private String flag;
+
+        public Track(float spawnX, float spawnY, long now) {
+            this.spawnX = spawnX;
+            this.spawnY = spawnY;
+            add(spawnX, spawnY, now, 0);
+        }
+
+        public int last() {
+            return (head + WINDOW - 1) % WINDOW;
+        }
+
+        public int oldest() {
+            return (head + WINDOW - size) % WINDOW;
+        }
+
+        public void add(float px, float py, long now, float moved) {
+            if(size == WINDOW)
+                windowPath -= step[head];
+            else
+                size++;
+            x[head] = px;
+            y[head] = py;
+            nanos[head] = now;
+            step[head] = moved;
+            windowPath += moved;
+            head = (head + 1) % WINDOW;
+        }
+    }
+
+    private Map<String, Track> tracks = new HashMap<>();
+
+    private RoundClock clock;
+
+    private MapManager mapManager;
+
+    /**
+     * The walls of the map being raced, null if not known
+     */
+    private MapGeometry geometry;
+
+    public AnomalyDetector(RoundClock clock) {
+        Parser.getInstance().reflectListeners(this);
+        this.clock = clock;
+    }
+
+    /**
+     * Checks moves against the walls of the current map
+     * @param mapManager the map manager, created after this
+     */
+    public void setMapManager(MapManager mapManager) {
+        this.mapManager = mapManager;
+    }
+
+    @Override
+    public void ROUND_COMMENCING() {
+        tracks.clear();
+        geometry = null;
+    }
+
+    @Override
+    public void CYCLE_CREATED(String playerId, float xPosition, float yPosition, float xDir, float yDir) {
+        // the map manager changes maps after this hears the round commence
+        if(geometry == null && mapManager != null) {
+            RacingMap map = mapManager.getCurrentMap();
+            geometry = map == null ? null : map.getGeometry();
+        }
+        tracks.put(playerId, new Track(xPosition, yPosition, System.nanoTime()));
+    }
+
+    @Override
+    public void PLAYER_GRIDPOS(String player, float xPos, float yPos, float xDir, float yDir, String display) {
+        Track track = tracks.get(player);
+        if(track == null || clock.getRaceSeconds() < 0)
+            return;
+
+        Configuration config = Application.getConfig();
+        long now = System.nanoTime();
+        int last = track.last();
+        float moved = (float) Math.hypot(xPos - track.x[last], yPos - track.y[last]);
+
+        // a late sample of a fast racer covers more ground, not a teleport
+        float since = sinceLast(track, now);
+        if(track.flag == null && moved > Math.max(config.anomaly_teleport, config.anomaly_max_speed * since))
+            flag(player, track, "teleported " + (int) moved + " units");
+        else if(track.flag == null && throughWall(track.x[last], track.y[last], xPos, yPos, since))
+            flag(player, track, "went through a wall");
+
+        track.add(xPos, yPos, now, moved);
+
+        float seconds = (now - track.nanos[track.oldest()]) / 1e9f;
+        if(track.flag == null && seconds >= MIN_WINDOW_SECONDS) {
+            float speed = (track.windowPath - track.step[track.oldest()]) / seconds;
+            if(speed > config.anomaly_max_speed)
+                flag(player, track, "moved at " + (int) speed + " units per second");
+        }
+    }
+
+    /**
+     * Seconds since the last sample of a racer, at least the shortest window
+     * so samples that arrive together do not look instant
+     */
+    private static float sinceLast(Track track, long now) {
+        return Math.max((now - track.nanos[track.last()]) / 1e9f, MIN_WINDOW_SECONDS);
+    }
+
+    /**
+     * Can a move only have gone through a wall. Racers turn around
+     * corners between samples, so a line across a wall alone proves
+     * nothing. The distance field holds the path length around the
+     * walls, a racer who drove around can not have changed it by more
+     * than they could drive in the time, give or take a cell each end.
+     * @param seconds the time the move took
+     * @return true if the move crossed a wall faster than driving around it
+     */
+    private boolean throughWall(float ax, float ay, float bx, float by, float seconds) {
+        if(geometry == null || geometry.getDistanceField() == null || !geometry.crossesWall(ax, ay, bx, by))
+            return false;
+        DistanceField field = geometry.getDistanceField();
+        float from = field.distanceAt(ax, ay);
+        float to = field.distanceAt(bx, by);
+        if(from == DistanceField.UNREACHABLE || to == DistanceField.UNREACHABLE)
+            return false;
+        return Math.abs(from - to) > Application.getConfig().anomaly_max_speed * seconds + 2 * DistanceField.CELL;
+    }
+
+    private void flag(String player, Track track, String reason) {
+        track.flag = reason;
+        System.out.println("# Movement anomaly for " + player + ": " + reason);
+    }
+
+    /**
+     * Judges a finish against what was seen of the run.
+     * @param player the player who finished
+     * @param finishX where they entered the zone
+     * @param finishY where they entered the zone
+     * @param time the finish time
+     * @param record the current record for the map in seconds, or 0 if none
+     * @return why the finish is not plausible, or null if it is
+     */
+    public String inspectFinish(String player, float finishX, float finishY, float time, double record) {
+        Track track = tracks.get(player);
+        if(track == null)
+            return null;
+        if(track.flag != null)
+            return track.flag;
+
+        Configuration config = Application.getConfig();
+
+        if(time <= 0 || Math.hypot(finishX - track.spawnX, finishY - track.spawnY) / time > config.anomaly_max_speed)
+            return "finished too fast for the distance from spawn";
+
+        if(record > 0 && time < record * config.anomaly_record_ratio)
+            return "beat the record by too much";
+
+        int last = track.last();
+        float seconds = sinceLast(track, System.nanoTime());
+        float jump = (float) Math.hypot(finishX - track.x[last], finishY - track.y[last]);
+        if(jump > config.anomaly_teleport && jump / seconds > config.anomaly_max_speed)
+            return "jumped " + (int) jump + " units into the finish";
+        if(throughWall(track.x[last], track.y[last], finishX, finishY, seconds))
+            return "went through a wall into the finish";
+
+        return null;
+    }
+
+}
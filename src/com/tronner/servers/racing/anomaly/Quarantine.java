@@ -0,0 +1,136 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014. Tristan John Whitcher
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.tronner.servers.racing.anomaly;
+
+import com.google.gson.reflect.TypeToken;
+import com.tronner.util.JsonManager;
+import com.tronner.util.PersistenceService;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tronner - Quarantine
+ *
+ * Finishes flagged by the AnomalyDetector are held here
+ * for review instead of going into the map logs. They are saved
+ * to data/quarantine.JSON until an admin releases or rejects them.
+ *
+ * @author TJohnW
+ */
+public class Quarantine {
+
+    public static final String PATH = "data/quarantine.JSON";
+
+    /**
+     * A finish held for review.
+     */
+    public static class Finish {
+
+        private String map;
+        private String player;
+        private float time;
+        private String reason;
+        private long date;
+
+        public Finish(String map, String player, float time, String reason) {
+            this.map = map;
+            this.player = player;
+            this.time = time;
+            this.reason = reason;
+            this.date = System.currentTimeMillis();
+        }
+
+        public String getMap() {
+            return map;
+        }
+
+        public String getPlayer() {
+            return player;
+        }
+
+        public float getTime() {
+            return time;
+        }
+
+        public String getReason() {
+            return reason;
+        }
+
+        public long getDate() {
+            return date;
+        }
+    }
+
+    private List<Finish> finishes = new ArrayList<>();
+
+    public Quarantine() {
+        load();
+    }
+
+    @SuppressWarnings("unchecked")
+    public void load() {
+        try {
+            Type listType = new TypeToken<ArrayList<Finish>>() {}.getType();
+            finishes = JsonManager.loadFromJson(PATH, listType);
+        } catch (IOException e) {
+            finishes = new ArrayList<>();
+        }
+    }
+
+    public void save() {
+        PersistenceService.getInstance().save(PATH, new ArrayList<>(finishes), true);
+    }
+
+    /**
+     * Holds a finish for review
+     * @param finish the finish
+     */
+    public void add(Finish finish) {
+        finishes.add(finish);
+        System.out.println("# Quarantined finish of " + finish.getPlayer() + " on " + finish.getMap() + ": " + finish.getReason());
+        save();
+    }
+
+    /**
+     * Takes a finish out, to be logged after all or thrown away
+     * @param index the finish from 1, oldest first
+     * @return the finish, or null if there is none at that index
+     */
+    public Finish remove(int index) {
+        if(index < 1 || index > finishes.size())
+            return null;
+        Finish finish = finishes.remove(index - 1);
+        save();
+        return finish;
+    }
+
+    public List<Finish> getFinishes() {
+        return finishes;
+    }
+
+}
@@ -0,0 +1,142 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014. Tristan John Whitcher
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.tronner.servers.racing.anomaly;
+
+import com.tronner.dispatcher.Commands;
+import com.tronner.parser.Parser;
+import com.tronner.parser.ServerEventListener;
+import com.tronner.servers.racing.lang.LRace;
+import com.tronner.servers.racing.logs.Logger;
+import com.tronner.servers.racing.logs.PlayerTime;
+
+import java.util.List;
+
+/**
+ * Tronner - QuarantineCommands
+ *
+ * Lets admins review the finishes held in quarantine with /quarantine,
+ * log one after all with /quarantine release and throw one away with
+ * /quarantine reject.
+ *
+ * @author TJohnW
+ */
+public class QuarantineCommands extends ServerEventListener {
+
+    /**
+     * Finishes listed at once, oldest first
+     */
+    private static final int SHOWN = 10;
+
+    private Logger logger;
+
+    public QuarantineCommands(Logger logger) {
+        this.logger = logger;
+        Parser.getInstance().reflectListeners(this);
+    }
+
+    @Override
+    public void INVALID_COMMAND(String... args) {
+        //[/quarantine, TJohnW@forums, 76.185.188.37, -2, release, 1]
+        if(args.length < 4 || !"/quarantine".equals(args[0]) || logger.getQuarantine() == null)
+            return;
+        int accessLevel = 20;
+        try {
+            accessLevel = Integer.parseInt(args[3]);
+        } catch(NumberFormatException nfe) {
+            System.out.println("Odd.. Access number wasn't a number?");
+        }
+        if(accessLevel > 0)
+            return;
+
+        String player = args[1];
+        if(args.length < 6) {
+            list(player);
+            return;
+        }
+        int index;
+        try {
+            index = Integer.parseInt(args[5]);
+        } catch(NumberFormatException nfe) {
+            index = -1;
+        }
+        switch(args[4]) {
+            case "release":
+                release(player, index);
+                break;
+            case "reject":
+                reject(player, index);
+                break;
+            default:
+                list(player);
+                break;
+        }
+    }
+
+    /**
+     * Shows an admin the oldest finishes held
+     * @param player the admin who asked
+     */
+    private void list(String player) {
+        List<Quarantine.Finish> finishes = logger.getQuarantine().getFinishes();
+        String out = LRace.QUARANTINE_HEADER.parse(finishes.size());
+        for(int i = 0; i < Math.min(SHOWN, finishes.size()); i++) {
+            Quarantine.Finish f = finishes.get(i);
+            out += "\\n" + LRace.QUARANTINE_FINISH.parse(i + 1, f.getPlayer(), f.getMap(),
+                    new PlayerTime(f.getPlayer(), f.getTime()).getSeconds(), f.getReason());
+        }
+        Commands.PLAYER_MESSAGE(player, out);
+    }
+
+    /**
+     * Logs a held finish on its map after all
+     * @param player the admin who asked
+     * @param index the finish from 1
+     */
+    private void release(String player, int index) {
+        Quarantine.Finish finish = logger.getQuarantine().remove(index);
+        if(finish == null) {
+            LRace.QUARANTINE_MISSING.parseOutPlayer(player, index);
+            return;
+        }
+        int rank = logger.release(finish);
+        System.out.println("# " + player + " released the finish of " + finish.getPlayer() + " on " + finish.getMap());
+        LRace.QUARANTINE_RELEASED.parseOutPlayer(player, finish.getPlayer(), finish.getMap(), rank);
+    }
+
+    /**
+     * Throws a held finish away
+     * @param player the admin who asked
+     * @param index the finish from 1
+     */
+    private void reject(String player, int index) {
+        Quarantine.Finish finish = logger.getQuarantine().remove(index);
+        if(finish == null) {
+            LRace.QUARANTINE_MISSING.parseOutPlayer(player, index);
+            return;
+        }
+        System.out.println("# " + player + " rejected the finish of " + finish.getPlayer() + " on " + finish.getMap());
+        LRace.QUARANTINE_REJECTED.parseOutPlayer(player, finish.getPlayer(), finish.getMap());
+    }
+
+}
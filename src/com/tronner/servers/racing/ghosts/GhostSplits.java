@@ -0,0 +1,272 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014. Tristan John Whitcher
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.tronner.servers.racing.ghosts;
+
+import com.google.gson.reflect.TypeToken;
+import com.tronner.Application;
+import com.tronner.parser.Parser;
+import com.tronner.parser.ServerEventListener;
+import com.tronner.servers.racing.Racing;
+import com.tronner.servers.racing.RoundClock;
+import com.tronner.servers.racing.lang.LRace;
+import com.tronner.servers.racing.logs.Logger;
+import com.tronner.servers.racing.logs.MapLog;
+import com.tronner.servers.racing.logs.PlayerTime;
+import com.tronner.util.JsonManager;
+import com.tronner.util.PersistenceService;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Tronner - GhostSplits
+ *
+ * Records every run from PLAYER_GRIDPOS and keeps the run behind each
+ * players best time as their ghost. While racing, players are told how
+ * far ahead or behind their ghost they are at each checkpoint.
+ *
+ * @author TJohnW
+ */
+public class GhostSplits extends ServerEventListener {
+
+    /**
+     * Caps how long a single recording can grow
+     */
+    public static final int MAX_SAMPLES = 4096;
+
+    /**
+     * A racer in the current round and their recording.
+     */
+    private static class Racer {
+
+        private String player;
+        /**
+         * Their ghost, null until it has loaded or if they have none
+         */
+        private Trajectory ghost;
+        /**
+         * Best time in centiseconds at the start, -1 for none
+         */
+        private int best;
+
+        private float[] x = new float[64];
+        private float[] y = new float[64];
+        private float[] t = new float[64];
+        private int size;
+
+        private float distance;
+        private int splits;
+        private int ghostIndex;
+
+        public Racer(String player, Trajectory ghost, int best) {
+            this.player = player;
+            this.ghost = ghost;
+            this.best = best;
+        }
+
+        /**
+         * Adds a sample to the recording and the distance travelled
+         */
+        public void record(float px, float py, float time) {
+            if(size > 0)
+                distance += (float) Math.hypot(px - x[size - 1], py - y[size - 1]);
+            if(size == MAX_SAMPLES)
+                return;
+            if(size == t.length) {
+                x = Arrays.copyOf(x, size * 2);
+                y = Arrays.copyOf(y, size * 2);
+                t = Arrays.copyOf(t, size * 2);
+            }
+            x[size] = px;
+            y[size] = py;
+            t[size] = time;
+            size++;
+        }
+
+        public Trajectory toTrajectory() {
+            return new Trajectory(Arrays.copyOf(x, size), Arrays.copyOf(y, size), Arrays.copyOf(t, size));
+        }
+    }
+
+    private Logger logger;
+
+    private RoundClock clock;
+
+    /**
+     * The ghosts for the map in ghostMap
+     */
+    private Map<String, Trajectory> ghosts = new ConcurrentHashMap<>();
+
+    private String ghostMap;
+
+    private Map<String, Racer> racers = new HashMap<>();
+
+    public GhostSplits(Logger logger, RoundClock clock) {
+        Parser.getInstance().reflectListeners(this);
+        this.logger = logger;
+        this.clock = clock;
+    }
+
+    /**
+     * Loads the ghosts for a map in the background,
+     * a ghost set before they arrive is kept over the loaded one.
+     * @param mapName the map
+     */
+    public void loadGhosts(String mapName) {
+        ghostMap = mapName;
+        final ConcurrentMap<String, Trajectory> into = new ConcurrentHashMap<>();
+        final String path = ghostPath(mapName);
+        ghosts = into;
+        PersistenceService.getInstance().submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Type mapType = new TypeToken<HashMap<String, Trajectory>>() {}.getType();
+                    Map<String, Trajectory> loaded = JsonManager.loadFromJson(path, mapType);
+                    for(Map.Entry<String, Trajectory> e: loaded.entrySet())
+                        into.putIfAbsent(e.getKey(), e.getValue());
+                } catch (IOException e) {
+                    // no ghosts yet
+                }
+            }
+        });
+    }
+
+    /**
+     * Saves the ghosts of the current map
+     */
+    public void saveGhosts() {
+        final Map<String, Trajectory> from = ghosts;
+        final String path = ghostPath(ghostMap);
+        // copied on the persistence thread, after the load for this map has finished
+        PersistenceService.getInstance().submit(new Runnable() {
+            @Override
+            public void run() {
+                PersistenceService.getInstance().save(path, new HashMap<>(from), false);
+            }
+        });
+    }
+
+    private String ghostPath(String mapName) {
+        return "data/" + Racing.PATH_GHOSTS + mapName + ".JSON";
+    }
+
+    @Override
+    public void ROUND_COMMENCING() {
+        racers.clear();
+        MapLog log = logger.getCurrentLog();
+        if(log != null && !log.getMapName().equals(ghostMap))
+            loadGhosts(log.getMapName());
+    }
+
+    @Override
+    public void CYCLE_CREATED(String playerId, float xPosition, float yPosition, float xDir, float yDir) {
+        MapLog log = logger.getCurrentLog();
+        if(log == null)
+            return;
+        Racer r = new Racer(playerId, ghosts.get(playerId), log.getTime(playerId));
+        r.record(xPosition, yPosition, 0);
+        racers.put(playerId, r);
+    }
+
+    @Override
+    public void PLAYER_GRIDPOS(String player, float xPos, float yPos, float xDir, float yDir, String display) {
+        float time = clock.getRaceSeconds();
+        if(time < 0)
+            return;
+        Racer r = racers.get(player);
+        if(r == null)
+            return;
+
+        r.record(xPos, yPos, time);
+        // the ghosts load in the background, they may come after the spawn
+        if(r.ghost == null)
+            r.ghost = ghosts.get(player);
+        if(r.ghost == null)
+            return;
+
+        List<float[]> zones = Application.getConfig().split_zones.get(ghostMap);
+        if(zones != null) {
+            if(r.splits < zones.size()) {
+                float[] zone = zones.get(r.splits);
+                if(Math.hypot(xPos - zone[0], yPos - zone[1]) <= zone[2])
+                    split(r, xPos, yPos, time);
+            }
+        } else {
+            float every = Application.getConfig().split_distance;
+            if(every > 0 && r.distance >= every * (r.splits + 1))
+                split(r, xPos, yPos, time);
+        }
+    }
+
+    /**
+     * Compares the racer against their ghost at the given position
+     * and lets them know the difference.
+     */
+    private void split(Racer r, float px, float py, float time) {
+        r.splits++;
+        int i = r.ghost.nearest(px, py, r.ghostIndex);
+        if(i == -1)
+            return;
+        r.ghostIndex = i;
+
+        float delta = time - r.ghost.timeNear(i, px, py);
+        String data;
+        if(delta < 0)
+            data = LRace.TIME_DATA_FASTER.parse(String.format("%.2f", -delta));
+        else
+            data = LRace.TIME_DATA_SLOWER.parse(String.format("%.2f", delta));
+        LRace.SPLIT.parseOutPlayer(r.player, r.splits, data);
+    }
+
+    @Override
+    public void TARGETZONE_PLAYER_ENTER(int globalID, float zoneX, float zoneY,
+                                        String playerId, float playerX, float playerY, float playerXDir,
+                                        float playerYDir, float time) {
+        Racer r = racers.remove(playerId);
+        MapLog log = logger.getCurrentLog();
+        if(r == null || log == null)
+            return;
+
+        // the logger has already taken this finish, so the log only
+        // holds this runs time if it set a new best
+        int best = log.getTime(playerId);
+        if(best == -1 || best != PlayerTime.centiseconds(time))
+            return;
+        if(r.best != -1 && best >= r.best)
+            return;
+
+        r.record(playerX, playerY, time);
+        ghosts.put(playerId, r.toTrajectory());
+        saveGhosts();
+    }
+
+}
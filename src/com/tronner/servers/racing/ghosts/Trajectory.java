@@ -0,0 +1,134 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014. Tristan John Whitcher
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.tronner.servers.racing.ghosts;
+
+/**
+ * Tronner - Trajectory
+ *
+ * The path of a single run as sampled from PLAYER_GRIDPOS.
+ * Kept for a players best run so later runs can split against it.
+ *
+ * @author TJohnW
+ */
+public class Trajectory {
+
+    /**
+     * The x positions of each sample
+     */
+    private float[] x;
+
+    /**
+     * The y positions of each sample
+     */
+    private float[] y;
+
+    /**
+     * The seconds since the race started of each sample
+     */
+    private float[] t;
+
+    /**
+     * Lazily built lookup for the nearest sample
+     */
+    private transient TrajectoryIndex index;
+
+    /**
+     * Creates a trajectory from recorded samples,
+     * the arrays are used as is and should be the same length.
+     * @param x the x positions
+     * @param y the y positions
+     * @param t the times
+     */
+    public Trajectory(float[] x, float[] y, float[] t) {
+        this.x = x;
+        this.y = y;
+        this.t = t;
+    }
+
+    /**
+     * Gets the amount of samples
+     * @return the size
+     */
+    public int size() {
+        return t == null ? 0 : t.length;
+    }
+
+    public float getX(int i) {
+        return x[i];
+    }
+
+    public float getY(int i) {
+        return y[i];
+    }
+
+    public float getTime(int i) {
+        return t[i];
+    }
+
+    /**
+     * Finds the sample nearest to a position, not looking
+     * behind the given index so a run only moves forward along the ghost.
+     * @param px the x position
+     * @param py the y position
+     * @param from the first index to consider
+     * @return the index of the sample or -1 if there is none
+     */
+    public int nearest(float px, float py, int from) {
+        if(from >= size())
+            return -1;
+        if(index == null)
+            index = new TrajectoryIndex(x, y);
+        return index.nearest(px, py, from);
+    }
+
+    /**
+     * Estimates the time the ghost passed a position near the
+     * given sample, by projecting onto the segments around it.
+     * @param i the nearest sample
+     * @param px the x position
+     * @param py the y position
+     * @return the interpolated time
+     */
+    public float timeNear(int i, float px, float py) {
+        float best = t[i];
+        float bestDist = Float.MAX_VALUE;
+        for(int s = Math.max(i - 1, 0); s < i + 1 && s + 1 < size(); s++) {
+            float dx = x[s + 1] - x[s];
+            float dy = y[s + 1] - y[s];
+            float len = dx * dx + dy * dy;
+            float f = len == 0 ? 0 : ((px - x[s]) * dx + (py - y[s]) * dy) / len;
+            f = Math.max(0, Math.min(1, f));
+            float ex = x[s] + f * dx - px;
+            float ey = y[s] + f * dy - py;
+            float dist = ex * ex + ey * ey;
+            if(dist < bestDist) {
+                bestDist = dist;
+                best = t[s] + f * (t[s + 1] - t[s]);
+            }
+        }
+        return best;
+    }
+
+}
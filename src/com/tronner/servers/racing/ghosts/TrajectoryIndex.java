@@ -0,0 +1,163 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014. Tristan John Whitcher
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.tronner.servers.racing.ghosts;
+
+/**
+ * Tronner - TrajectoryIndex
+ *
+ * A uniform grid over the samples of a Trajectory so the
+ * nearest sample to a position is found by looking at a few
+ * cells instead of the whole run.
+ *
+ * @author TJohnW
+ */
+public class TrajectoryIndex {
+
+    /**
+     * The size of one grid cell in game units
+     */
+    public static final float CELL = 16f;
+
+    /**
+     * Keeps huge maps from allocating huge grids
+     */
+    public static final int MAX_CELLS = 256;
+
+    private final float[] x;
+    private final float[] y;
+
+    private float minX;
+    private float minY;
+    private float cell;
+
+    private int width;
+    private int height;
+
+    /**
+     * Where each cells samples start in items, cell c owns
+     * items[start[c]] up to items[start[c + 1]]
+     */
+    private int[] start;
+
+    /**
+     * The sample indices grouped by cell, ascending in each cell
+     */
+    private int[] items;
+
+    /**
+     * Buckets the samples into their cells.
+     * @param x the x positions
+     * @param y the y positions
+     */
+    public TrajectoryIndex(float[] x, float[] y) {
+        this.x = x;
+        this.y = y;
+
+        float maxX = -Float.MAX_VALUE;
+        float maxY = -Float.MAX_VALUE;
+        minX = Float.MAX_VALUE;
+        minY = Float.MAX_VALUE;
+        for(int i = 0; i < x.length; i++) {
+            minX = Math.min(minX, x[i]);
+            minY = Math.min(minY, y[i]);
+            maxX = Math.max(maxX, x[i]);
+            maxY = Math.max(maxY, y[i]);
+        }
+
+        cell = Math.max(CELL, Math.max(maxX - minX, maxY - minY) / MAX_CELLS);
+        width = (int) ((maxX - minX) / cell) + 1;
+        height = (int) ((maxY - minY) / cell) + 1;
+
+        // counting sort of the samples by cell
+        start = new int[width * height + 1];
+        int[] cells = new int[x.length];
+        for(int i = 0; i < x.length; i++) {
+            cells[i] = cellX(x[i]) + cellY(y[i]) * width;
+            start[cells[i] + 1]++;
+        }
+        for(int c = 0; c < width * height; c++)
+            start[c + 1] += start[c];
+        int[] fill = new int[width * height];
+        items = new int[x.length];
+        for(int i = 0; i < x.length; i++)
+            items[start[cells[i]] + fill[cells[i]]++] = i;
+    }
+
+    private int cellX(float px) {
+        return Math.max(0, Math.min(width - 1, (int) ((px - minX) / cell)));
+    }
+
+    private int cellY(float py) {
+        return Math.max(0, Math.min(height - 1, (int) ((py - minY) / cell)));
+    }
+
+    /**
+     * Searches rings of cells outward from the position until
+     * no closer sample can exist.
+     * @param px the x position
+     * @param py the y position
+     * @param from the first sample index to consider
+     * @return the nearest sample at or after from, or -1
+     */
+    public int nearest(float px, float py, int from) {
+        int cx = cellX(px);
+        int cy = cellY(py);
+        int best = -1;
+        float bestDist = Float.MAX_VALUE;
+        int rings = Math.max(width, height);
+
+        for(int r = 0; r <= rings; r++) {
+            for(int gy = cy - r; gy <= cy + r; gy++) {
+                if(gy < 0 || gy >= height)
+                    continue;
+                boolean edge = gy == cy - r || gy == cy + r;
+                for(int gx = cx - r; gx <= cx + r; gx += edge ? 1 : 2 * r) {
+                    if(gx >= 0 && gx < width) {
+                        int c = gx + gy * width;
+                        for(int k = start[c]; k < start[c + 1]; k++) {
+                            int i = items[k];
+                            if(i < from)
+                                continue;
+                            float dx = x[i] - px;
+                            float dy = y[i] - py;
+                            float dist = dx * dx + dy * dy;
+                            if(dist < bestDist) {
+                                bestDist = dist;
+                                best = i;
+                            }
+                        }
+                    }
+                    if(r == 0)
+                        break;
+                }
+            }
+            // everything in the next ring is at least r cells away
+            if(best != -1 && r * cell * r * cell >= bestDist)
+                break;
+        }
+        return best;
+    }
+
+}
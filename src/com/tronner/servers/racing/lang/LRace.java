@@ -86,6 +86,43 @@ public class LRace {
         c("Unranked", LColors.WHITE,  LColors.TYLER_MAIN);
     }};
 
+    public static LString FINISH_QUARANTINED = new LString("Your finish in [time]\\\" is being held for review.") {{
+        c("Your", LColors.TYLER_MAIN);
+        c("[time]\\\"", LColors.TYLER_NAME, LColors.TYLER_MAIN);
+    }};
+
+    public static LString QUARANTINE_HEADER = new LString("Finishes held for review: [count]") {{
+        c("Finishes", "0xb4cec1");
+    }};
+
+    public static LString QUARANTINE_FINISH = new LString("[index]) [player] on [map] | [time]\\\" | [reason]") {{
+        c("[index])", LColors.WHITE, "0x79a0a7");
+        c("|", "0x808080", "0x79a0a7");
+    }};
+
+    public static LString QUARANTINE_RELEASED = new LString("Released [player]'s finish on [map], now ranked [rank].") {{
+        c("Released", LColors.TYLER_MAIN);
+        c("[player]'s", LColors.TYLER_NAME, LColors.TYLER_MAIN);
+    }};
+
+    public static LString QUARANTINE_REJECTED = new LString("Rejected [player]'s finish on [map].") {{
+        c("Rejected", LColors.TYLER_MAIN);
+        c("[player]'s", LColors.TYLER_NAME, LColors.TYLER_MAIN);
+    }};
+
+    public static LString QUARANTINE_MISSING = new LString("No finish is held at [index].") {{
+        c("No", LColors.TYLER_MAIN);
+    }};
+
+    public static LString SPLIT = new LString("Split [split] against your best: [data]") {{
+        c("Split", LColors.TYLER_MAIN);
+        c("[split]", LColors.TYLER_NAME, LColors.TYLER_MAIN);
+    }};
+
+    public static LString STANDINGS_PLACE = new LString("[place]) [player]    ") {{
+        c("[place])", LColors.TYLER_NAME, LColors.TYLER_MAIN);
+    }};
+
     public static LString MAP_DATA_TOP = new LString("Top times for [map]:") {{
         c("Top", "0xb4cec1");
         c("[map]", "0xdc4b50", LColors.TYLER_MAIN);
@@ -96,6 +133,66 @@ public class LRace {
         c("|", "0x808080", "0x79a0a7");
     }};
 
+    public static LString RANK_PLAYER = new LString("[player] is ranked [rank] of [total] with a sum of [sum], ahead of [percent]% of players.") {{
+        c("[player]", LColors.TYLER_NAME, LColors.TYLER_MAIN);
+        c("[rank]", LColors.TYLER_NAME, LColors.TYLER_MAIN);
+        c("[sum]", LColors.TYLER_NAME, LColors.TYLER_MAIN);
+        c("[percent]%", LColors.TYLER_NAME, LColors.TYLER_MAIN);
+    }};
+
+    public static LString RANK_UNRANKED = new LString("[player] is not ranked yet.") {{
+        c("[player]", LColors.TYLER_NAME, LColors.TYLER_MAIN);
+    }};
+
+    public static LString RANK_TOP = new LString("Rankings [from] to [to] of [total]:") {{
+        c("Rankings", "0xb4cec1");
+        c("[from]", "0xdc4b50", "0xb4cec1");
+        c("[to]", "0xdc4b50", "0xb4cec1");
+    }};
+
+    public static LString RANK_LINE = new LString("[rank]) [player] | [sum]") {{
+        c("[rank])", LColors.WHITE, "0x79a0a7");
+        c("|", "0x808080", "0x79a0a7");
+    }};
+
+    public static LString RATING_PLAYER = new LString("[player] has a rating of [rating] from [races] races, [rank] of [total].") {{
+        c("[player]", LColors.TYLER_NAME, LColors.TYLER_MAIN);
+        c("[rating]", LColors.TYLER_NAME, LColors.TYLER_MAIN);
+        c("[rank]", LColors.TYLER_NAME, LColors.TYLER_MAIN);
+    }};
+
+    public static LString RATING_UNRATED = new LString("[player] has not been rated yet.") {{
+        c("[player]", LColors.TYLER_NAME, LColors.TYLER_MAIN);
+    }};
+
+    public static LString WINDOW_TOP = new LString("Best times of the [window] on [map]:") {{
+        c("Best", "0xb4cec1");
+        c("[map]", "0xdc4b50", LColors.TYLER_MAIN);
+    }};
+
+    public static LString WINDOW_TIME = new LString("[place]) [player] | [time]") {{
+        c("[place])", LColors.WHITE, "0x79a0a7");
+        c("|", "0x808080", "0x79a0a7");
+    }};
+
+    public static LString WINDOW_EMPTY = new LString("Nobody has finished [map] in the last [window].") {{
+        c("Nobody", LColors.TYLER_MAIN);
+        c("[map]", LColors.TYLER_NAME, LColors.TYLER_MAIN);
+    }};
+
+    public static LString WINDOW_LEADERS = new LString("Leaders of the [window]:") {{
+        c("Leaders", "0xb4cec1");
+    }};
+
+    public static LString WINDOW_POINTS = new LString("[place]) [player] | [points] points") {{
+        c("[place])", LColors.WHITE, "0x79a0a7");
+        c("|", "0x808080", "0x79a0a7");
+    }};
+
+    public static LString SEASON_ENDED = new LString("The season is over, a new one starts now!") {{
+        c("The", LColors.TYLER_MAIN);
+    }};
+
     public static LString RECORD_FIRST = new LString(
             "0xff3333*0xffff33*0x33ff33*0x3366ff*0xffd700Congratulate 0xffffff[player] 0xffd700for setting a new record on 0xffddaa[map] 0xffd700as the fastest time ever!0xff3333*0xffff33*0x33ff33*0x3366ff*"
     );
@@ -0,0 +1,315 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014. Tristan John Whitcher
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.tronner.servers.racing.leaderboards;
+
+import com.tronner.Application;
+import com.tronner.dispatcher.Commands;
+import com.tronner.parser.Parser;
+import com.tronner.parser.ServerEventListener;
+import com.tronner.servers.racing.lang.LRace;
+import com.tronner.servers.racing.logs.Logger;
+import com.tronner.servers.racing.logs.MapLog;
+import com.tronner.servers.racing.logs.PlayerTime;
+import com.tronner.servers.racing.logs.RecordListener;
+import com.tronner.servers.racing.maps.MapManager;
+import com.tronner.util.JsonManager;
+import com.tronner.util.PersistenceService;
+
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.*;
+
+/**
+ * Tronner - Leaderboards
+ *
+ * Best times and leaders over the last day, the last week and the
+ * current season, kept in TimeWindows from every finish. The windows
+ * are saved at the start of a round when they changed. Ending a season
+ * swaps in an empty one and writes the old one to data/seasons in the
+ * background, the times files are not touched.
+ * Answers /best, /leaders and /season end.
+ *
+ * @author TJohnW
+ */
+public class Leaderboards extends ServerEventListener {
+
+    public static final long HOUR = 60 * 60 * 1000L;
+
+    public static final long DAY = 24 * HOUR;
+
+    /**
+     * Times and leaders a command shows
+     */
+    private static final int SHOWN = 5;
+
+    /**
+     * A finish as it is saved
+     */
+    private static class Finish {
+
+        private String map;
+        private String player;
+        private int time;
+        private long date;
+    }
+
+    /**
+     * The windows as they are saved. Recent holds each finish of the
+     * day and the week once, adding them all to both gives both back.
+     */
+    private static class Saved {
+
+        private long seasonStart;
+        private List<Finish> recent = new ArrayList<>();
+        private List<Finish> season = new ArrayList<>();
+    }
+
+    private MapManager mapManager;
+
+    private TimeWindow day;
+
+    private TimeWindow week;
+
+    private TimeWindow season;
+
+    private boolean dirty;
+
+    private RecordListener recordListener = new RecordListener() {
+
+        @Override
+        public void recordImproved(MapLog log, PlayerTime record, int oldRank, int newRank) {
+        }
+
+        @Override
+        public void finished(MapLog log, PlayerTime finish) {
+            day.add(log.getMapName(), finish);
+            week.add(log.getMapName(), finish);
+            season.add(log.getMapName(), finish);
+            dirty = true;
+        }
+    };
+
+    public Leaderboards(Logger logger, MapManager mapManager) {
+        this.mapManager = mapManager;
+        long now = System.currentTimeMillis();
+        day = new TimeWindow("day", HOUR, 24, 0);
+        week = new TimeWindow("week", DAY, 7, 0);
+        season = new TimeWindow("season", 0, 1, now);
+        loadLeaderboards(now);
+        logger.addRecordListener(recordListener);
+        Parser.getInstance().reflectListeners(this);
+    }
+
+    private void loadLeaderboards(long now) {
+        Saved saved;
+        try {
+            saved = JsonManager.loadFromJson("data/leaderboards.JSON", Saved.class);
+        } catch (IOException e) {
+            System.out.println("# No leaderboards yet, starting a season.");
+            dirty = true;
+            return;
+        }
+        season = new TimeWindow("season", 0, 1, saved.seasonStart);
+        Comparator<Finish> byDate = new Comparator<Finish>() {
+            @Override
+            public int compare(Finish o1, Finish o2) {
+                return Long.compare(o1.date, o2.date);
+            }
+        };
+        Collections.sort(saved.recent, byDate);
+        for(Finish f: saved.recent) {
+            PlayerTime pt = toPlayerTime(f);
+            day.add(f.map, pt);
+            week.add(f.map, pt);
+        }
+        for(Finish f: saved.season)
+            season.add(f.map, toPlayerTime(f));
+        day.expire(now);
+        week.expire(now);
+    }
+
+    private static PlayerTime toPlayerTime(Finish f) {
+        PlayerTime pt = new PlayerTime(f.player, 0);
+        pt.setTime(f.time);
+        pt.setDate(f.date);
+        return pt;
+    }
+
+    /**
+     * Adds finishes to a saved list, skipping any already added
+     * @param finishes the finishes by map
+     * @param to the saved list
+     * @param added what was added so far, by map, player, date and time
+     */
+    private static void addFinishes(Map<String, List<PlayerTime>> finishes, List<Finish> to, Set<String> added) {
+        for(Map.Entry<String, List<PlayerTime>> e: finishes.entrySet()) {
+            for(PlayerTime pt: e.getValue()) {
+                if(!added.add(e.getKey() + "\n" + pt.getPlayer() + "\n" + pt.getDate() + "\n" + pt.getTime()))
+                    continue;
+                Finish f = new Finish();
+                f.map = e.getKey();
+                f.player = pt.getPlayer();
+                f.time = pt.getTime();
+                f.date = pt.getDate();
+                to.add(f);
+            }
+        }
+    }
+
+    public void saveLeaderboards() {
+        Saved saved = new Saved();
+        saved.seasonStart = season.getStarted();
+        // the day keeps every hour's best, the week only each day's, so only add what the week lacks
+        Set<String> added = new HashSet<>();
+        addFinishes(week.getFinishes(), saved.recent, added);
+        addFinishes(day.getFinishes(), saved.recent, added);
+        addFinishes(season.getFinishes(), saved.season, new HashSet<String>());
+        PersistenceService.getInstance().save("data/leaderboards.JSON", saved, false);
+        dirty = false;
+    }
+
+    /**
+     * Starts a new season, the old one is written to data/seasons
+     */
+    public void endSeason() {
+        final TimeWindow ended = season;
+        season = new TimeWindow("season", 0, 1, System.currentTimeMillis());
+        dirty = true;
+        PersistenceService.getInstance().submit(new Runnable() {
+            @Override
+            public void run() {
+                String name = new SimpleDateFormat("yyyy-MM-dd").format(new Date(ended.getStarted()));
+                try {
+                    JsonManager.saveAsJson("data/seasons/" + name + ".JSON", ended.getFinishes(), true);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    System.out.println("# Unable to archive the season that started " + name);
+                }
+            }
+        });
+        LRace.SEASON_ENDED.parseOut();
+    }
+
+    /**
+     * Gets a window by the name players ask for it by
+     * @param name day, week or season
+     * @return the window, or null if there is none by that name
+     */
+    public TimeWindow getWindow(String name) {
+        switch(name) {
+            case "day": return day;
+            case "week": return week;
+            case "season": return season;
+            default: return null;
+        }
+    }
+
+    @Override
+    public void ROUND_COMMENCING() {
+        long now = System.currentTimeMillis();
+        day.expire(now);
+        week.expire(now);
+        int seasonDays = Application.getConfig().season_days;
+        if(seasonDays > 0 && now >= season.getStarted() + seasonDays * DAY)
+            endSeason();
+        if(dirty)
+            saveLeaderboards();
+    }
+
+    @Override
+    public void INVALID_COMMAND(String... args) {
+        //[/best, TJohnW@forums, 76.185.188.37, -2, week, Afterburner]
+        if(args.length < 4)
+            return;
+        String player = args[1];
+        switch(args[0]) {
+            case "/best":
+                best(player, window(args), args.length > 5 ? args[5] : null);
+                break;
+            case "/leaders":
+                leaders(player, window(args));
+                break;
+            case "/season":
+                int accessLevel = 20;
+                try {
+                    accessLevel = Integer.parseInt(args[3]);
+                } catch(NumberFormatException nfe) {
+                    System.out.println("Odd.. Access number wasn't a number?");
+                }
+                if(accessLevel <= 0 && args.length > 4 && "end".equals(args[4]))
+                    endSeason();
+                break;
+            default:
+                break;
+        }
+    }
+
+    private TimeWindow window(String... args) {
+        TimeWindow window = args.length > 4 ? getWindow(args[4]) : null;
+        if(window == null)
+            window = day;
+        window.expire(System.currentTimeMillis());
+        return window;
+    }
+
+    /**
+     * Shows a player the best times on a map in a window
+     * @param player the player who asked
+     * @param window the window
+     * @param map the map, or null for the current map
+     */
+    private void best(String player, TimeWindow window, String map) {
+        if(map == null) {
+            if(mapManager.getCurrentMap() == null)
+                return;
+            map = mapManager.getCurrentMap().getName();
+        }
+        MapLog log = window.getLog(map);
+        if(log == null) {
+            LRace.WINDOW_EMPTY.parseOutPlayer(player, map, window.getName());
+            return;
+        }
+        String out = LRace.WINDOW_TOP.parse(window.getName(), map);
+        for(int i = 1; i <= Math.min(SHOWN, log.count()); i++) {
+            PlayerTime pt = log.getPlayerFromRank(i);
+            out += "\\n" + LRace.WINDOW_TIME.parse(i, pt.getPlayer(), pt.getSeconds());
+        }
+        Commands.PLAYER_MESSAGE(player, out);
+    }
+
+    /**
+     * Shows a player the leaders of a window
+     * @param player the player who asked
+     * @param window the window
+     */
+    private void leaders(String player, TimeWindow window) {
+        List<TimeWindow.Points> leaders = window.getLeaders(SHOWN);
+        String out = LRace.WINDOW_LEADERS.parse(window.getName());
+        for(int i = 0; i < leaders.size(); i++)
+            out += "\\n" + LRace.WINDOW_POINTS.parse(i + 1, leaders.get(i).getPlayer(), leaders.get(i).getPoints());
+        Commands.PLAYER_MESSAGE(player, out);
+    }
+
+}
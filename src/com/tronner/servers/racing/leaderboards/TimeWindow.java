@@ -0,0 +1,274 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014. Tristan John Whitcher
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.tronner.servers.racing.leaderboards;
+
+import com.tronner.servers.racing.logs.MapLog;
+import com.tronner.servers.racing.logs.PlayerTime;
+import com.tronner.util.TopK;
+
+import java.util.*;
+
+/**
+ * Tronner - TimeWindow
+ *
+ * The best times set within a window of time, like the last 24 hours.
+ * Finishes are kept in a ring of buckets, each the best time of every
+ * player on every map over one bucket of time. When the newest bucket
+ * moves on, the buckets that fall out of the window are cleared and
+ * only the maps they had times on are put back together from the
+ * buckets left, so nothing older is ever scanned. Each map's best times
+ * in the window are kept in a MapLog.
+ * A window with no bucket length never expires, seasons are those.
+ *
+ * @author TJohnW
+ */
+public class TimeWindow {
+
+    private static class Bucket {
+
+        private long start;
+        private Map<String, Map<String, PlayerTime>> maps = new HashMap<>();
+    }
+
+    /**
+     * A player's points over every map in the window
+     */
+    public static final class Points {
+
+        private final String player;
+        private final int points;
+
+        public Points(String player, int points) {
+            this.player = player;
+            this.points = points;
+        }
+
+        public String getPlayer() {
+            return player;
+        }
+
+        public int getPoints() {
+            return points;
+        }
+    }
+
+    private static final Comparator<Points> pointsComparator = new Comparator<Points>() {
+
+        @Override
+        public int compare(Points o1, Points o2) {
+            return Integer.compare(o2.points, o1.points);
+        }
+    };
+
+    private final String name;
+
+    private final long bucketMillis;
+
+    private final Bucket[] buckets;
+
+    private final long started;
+
+    /**
+     * The start of the newest bucket
+     */
+    private long newest = Long.MIN_VALUE;
+
+    private Map<String, MapLog> logs = new HashMap<>();
+
+    /**
+     * The leaders, null until asked for after a change
+     */
+    private List<Points> leaders;
+
+    /**
+     * @param name the name players ask for it by
+     * @param bucketMillis the time each bucket covers, 0 for one bucket that never expires
+     * @param bucketCount how many buckets the window is
+     * @param started when the window started, older finishes are left out
+     */
+    public TimeWindow(String name, long bucketMillis, int bucketCount, long started) {
+        this.name = name;
+        this.bucketMillis = bucketMillis;
+        this.started = started;
+        buckets = new Bucket[bucketMillis == 0 ? 1 : bucketCount];
+        for(int i = 0; i < buckets.length; i++) {
+            buckets[i] = new Bucket();
+            buckets[i].start = Long.MIN_VALUE;
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getStarted() {
+        return started;
+    }
+
+    private long bucketStart(long date) {
+        return bucketMillis == 0 ? started : date - date % bucketMillis;
+    }
+
+    private Bucket bucketFor(long start) {
+        if(bucketMillis == 0)
+            return buckets[0];
+        return buckets[(int) (start / bucketMillis % buckets.length)];
+    }
+
+    /**
+     * Adds a finish, the window moves up to it if it is newer than the window
+     * @param map the map
+     * @param finish the finish, dated
+     */
+    public void add(String map, PlayerTime finish) {
+        long date = finish.getDate();
+        if(date < started)
+            return;
+        expire(date);
+        long start = bucketStart(date);
+        if(bucketMillis != 0 && newest != Long.MIN_VALUE && start <= newest - buckets.length * bucketMillis)
+            return; // already out of the window
+        newest = Math.max(newest, start);
+        Bucket bucket = bucketFor(start);
+        bucket.start = start;
+
+        Map<String, PlayerTime> times = bucket.maps.get(map);
+        if(times == null) {
+            times = new HashMap<>();
+            bucket.maps.put(map, times);
+        }
+        PlayerTime best = times.get(finish.getPlayer());
+        if(best != null && best.getTime() <= finish.getTime())
+            return;
+        times.put(finish.getPlayer(), copy(finish));
+
+        MapLog log = logs.get(map);
+        if(log == null) {
+            log = new MapLog(map);
+            logs.put(map, log);
+        }
+        int before = log.count();
+        if(log.updateRecord(copy(finish)) < 0 || log.count() != before)
+            leaders = null;
+    }
+
+    private static PlayerTime copy(PlayerTime pt) {
+        PlayerTime copy = new PlayerTime(pt.getPlayer(), 0);
+        copy.setTime(pt.getTime());
+        copy.setDate(pt.getDate());
+        return copy;
+    }
+
+    /**
+     * Drops the buckets that are out of the window by a time
+     * @param now the time in milliseconds
+     */
+    public void expire(long now) {
+        if(bucketMillis == 0)
+            return;
+        long oldest = Math.max(bucketStart(now), newest) - (buckets.length - 1) * bucketMillis;
+        Set<String> changed = new HashSet<>();
+        for(Bucket bucket: buckets) {
+            if(bucket.start != Long.MIN_VALUE && bucket.start < oldest) {
+                changed.addAll(bucket.maps.keySet());
+                bucket.maps.clear();
+                bucket.start = Long.MIN_VALUE;
+            }
+        }
+        for(String map: changed) {
+            MapLog log = new MapLog(map);
+            for(Bucket bucket: buckets) {
+                Map<String, PlayerTime> times = bucket.maps.get(map);
+                if(times != null)
+                    for(PlayerTime pt: times.values())
+                        log.updateRecord(copy(pt));
+            }
+            if(log.count() == 0)
+                logs.remove(map);
+            else
+                logs.put(map, log);
+        }
+        if(!changed.isEmpty())
+            leaders = null;
+    }
+
+    /**
+     * Gets the best times on a map in the window
+     * @param map the map
+     * @return the log, or null if nobody finished it in the window
+     */
+    public MapLog getLog(String map) {
+        return logs.get(map);
+    }
+
+    /**
+     * Gets the players with the most points, a player getting a point
+     * for every player behind them on every map in the window and one
+     * for finishing it
+     * @param count how many
+     * @return the leaders, most points first
+     */
+    public List<Points> getLeaders(int count) {
+        if(leaders == null || leaders.size() < count) {
+            Map<String, Integer> points = new HashMap<>();
+            for(MapLog log: logs.values()) {
+                int rank = 0;
+                for(PlayerTime pt: log.getRecords()) {
+                    Integer had = points.get(pt.getPlayer());
+                    points.put(pt.getPlayer(), (had == null ? 0 : had) + log.count() - rank++);
+                }
+            }
+            TopK<Points> top = new TopK<>(Math.max(1, count), pointsComparator);
+            for(Map.Entry<String, Integer> e: points.entrySet())
+                top.offer(new Points(e.getKey(), e.getValue()));
+            leaders = top.get();
+        }
+        return leaders.subList(0, Math.min(count, leaders.size()));
+    }
+
+    /**
+     * Gets every finish in the window, the best of each player on each
+     * map in each bucket, fastest first
+     * @return the finishes by map
+     */
+    public Map<String, List<PlayerTime>> getFinishes() {
+        Map<String, List<PlayerTime>> finishes = new TreeMap<>();
+        for(Bucket bucket: buckets) {
+            for(Map.Entry<String, Map<String, PlayerTime>> e: bucket.maps.entrySet()) {
+                List<PlayerTime> list = finishes.get(e.getKey());
+                if(list == null) {
+                    list = new ArrayList<>();
+                    finishes.put(e.getKey(), list);
+                }
+                for(PlayerTime pt: e.getValue().values())
+                    list.add(copy(pt));
+            }
+        }
+        for(List<PlayerTime> list: finishes.values())
+            Collections.sort(list, MapLog.comparator);
+        return finishes;
+    }
+
+}
@@ -26,6 +26,8 @@ package com.tronner.servers.racing.logs;
 
 import com.google.gson.reflect.TypeToken;
 import com.tronner.util.JsonManager;
+import com.tronner.util.PersistenceService;
+import com.tronner.util.TopK;
 
 import java.io.IOException;
 import java.lang.reflect.Type;
@@ -34,6 +36,8 @@ import java.util.*;
 /**
  * Tronner - ExperienceManager
  *
+ * Not started by Racing yet, nothing gives out xp so far.
+ *
  * @author Tristan on 8/7/2014.
  */
 public class ExperienceManager {
@@ -54,8 +58,15 @@ public class ExperienceManager {
             1629200, 1798808, 1986068, 2192818, 2421087, 2673114, 2951373, 3258594, 3597792, 3972294, 4385776, 4842295,
             5346332, 5902831, 6517253, 7195629, 7944614, 8771558, 9684577, 10692629, 11805606, 13034431 };
 
+    /**
+     * Players on the xp leaderboard
+     */
+    public static final int LEADERBOARD_SIZE = 10;
+
     private List<PlayerXP> players = new ArrayList<>();
 
+    private TopK<PlayerXP> leaderboard = new TopK<>(LEADERBOARD_SIZE, Collections.reverseOrder(playerXPComparator));
+
     private Map<String, PlayerXP> playerMap = new HashMap<>();
 
     public ExperienceManager() {
@@ -73,12 +84,22 @@ public class ExperienceManager {
         }
     }
 
+    /**
+     * Saves a copy of the players. The copy is sorted by xp on the
+     * persistence thread, so the file stays in order while the players
+     * here are not.
+     */
     public void saveXPLog() {
-        try {
-            JsonManager.saveAsJson("data/xp.JSON", players, true);
-        } catch (IOException e) {
-            System.out.println("Unable to save xp log.");
-        }
+        final List<PlayerXP> snapshot = new ArrayList<>(players.size());
+        for(PlayerXP pxp: players)
+            snapshot.add(new PlayerXP(pxp.getName(), pxp.getXp()));
+        PersistenceService.getInstance().submit(new Runnable() {
+            @Override
+            public void run() {
+                Collections.sort(snapshot, playerXPComparator);
+                PersistenceService.getInstance().save("data/xp.JSON", snapshot, true);
+            }
+        });
     }
 
     /**
@@ -95,16 +116,31 @@ public class ExperienceManager {
         for(PlayerXP pxp: players) {
             playerMap.put(pxp.getName(), pxp);
         }
+        leaderboard.rebuild(players);
     }
 
     public void addXP(String playerName, int xp) {
-        playerMap.get(playerName).addXp(xp);
-        sort();
+        PlayerXP pxp = playerMap.get(playerName);
+        pxp.addXp(xp);
+        leaderboard.offer(pxp);
+        saveXPLog();
     }
 
     public void removeXP(String playerName, int xp) {
-        playerMap.get(playerName).removeXp(xp);
-        sort();
+        PlayerXP pxp = playerMap.get(playerName);
+        pxp.removeXp(xp);
+        leaderboard.worsened(pxp);
+        if(!leaderboard.isComplete())
+            leaderboard.rebuild(players);
+        saveXPLog();
+    }
+
+    /**
+     * Gets the players with the most xp, kept as xp changes
+     * @return up to LEADERBOARD_SIZE players, most xp first
+     */
+    public List<PlayerXP> getLeaderboard() {
+        return leaderboard.get();
     }
 
     public int getLevel(String playerName) {
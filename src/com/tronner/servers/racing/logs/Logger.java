@@ -24,17 +24,24 @@
 
 package com.tronner.servers.racing.logs;
 
+import com.tronner.Application;
+import com.tronner.Configuration;
 import com.tronner.parser.Parser;
 import com.tronner.parser.ServerEventListener;
 import com.tronner.servers.racing.players.PlayerTracker;
+import com.tronner.servers.racing.Checkpoint;
 import com.tronner.servers.racing.Racing;
+import com.tronner.servers.racing.anomaly.AnomalyDetector;
+import com.tronner.servers.racing.anomaly.Quarantine;
 import com.tronner.servers.racing.lang.LRace;
 import com.tronner.util.JsonManager;
+import com.tronner.util.PersistenceService;
 
 import java.io.IOException;
-import java.math.BigDecimal;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Tronner - LogManager
@@ -43,7 +50,7 @@ import java.util.Map;
  */
 public class Logger extends ServerEventListener {
 
-    private Map<String, MapLog> mapLogs = new HashMap<>();
+    private MapLogCache mapLogs;
 
     private MapLog currentLog;
 
@@ -51,9 +58,92 @@ public class Logger extends ServerEventListener {
 
     private boolean isRankingsUpdated = true;
 
+    private AnomalyDetector anomalyDetector;
+
+    private Quarantine quarantine;
+
+    private RecordJournal journal;
+
+    private Checkpoint checkpoint;
+
+    private List<RecordListener> recordListeners = new ArrayList<>();
+
+    /**
+     * A log read ahead and the generation of its map when it was asked for
+     */
+    private static class Prefetched {
+
+        private final MapLog log;
+        private final int generation;
+
+        public Prefetched(MapLog log, int generation) {
+            this.log = log;
+            this.generation = generation;
+        }
+    }
+
+    /**
+     * Logs loaded ahead of time by prefetch, by map
+     */
+    private Map<String, Prefetched> prefetched = new ConcurrentHashMap<>();
+
+    /**
+     * How many times each map has gone through loadMapLog. A log read
+     * ahead is only taken while its map's generation has not changed,
+     * after that it may be missing records.
+     */
+    private Map<String, Integer> generations = new ConcurrentHashMap<>();
+
     public Logger(PlayerTracker pm) {
         Parser.getInstance().reflectListeners(this);
         this.playerTracker = pm;
+        Configuration config = Application.getConfig();
+        mapLogs = new MapLogCache(config.maplog_cache_entries, config.maplog_cache_bytes,
+                new MapLogCache.EvictionListener() {
+                    @Override
+                    public void evicted(MapLog log) {
+                        // with a journal every record is on disk already
+                        if(log.isDirty() && journal == null)
+                            saveMapLog(log);
+                    }
+                });
+    }
+
+    /**
+     * Creates a Logger that holds finishes the detector
+     * finds implausible in quarantine instead of logging them.
+     * @param pm the PlayerTracker
+     * @param detector the AnomalyDetector watching the racers
+     */
+    public Logger(PlayerTracker pm, AnomalyDetector detector) {
+        this(pm);
+        anomalyDetector = detector;
+        quarantine = new Quarantine();
+    }
+
+    /**
+     * Loads and saves times through the journal, so records
+     * not yet compacted into the times files are not missed.
+     * @param journal the RecordJournal
+     */
+    public void setJournal(RecordJournal journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * Reads times from the checkpoint before the times files
+     * @param checkpoint the Checkpoint
+     */
+    public void setCheckpoint(Checkpoint checkpoint) {
+        this.checkpoint = checkpoint;
+    }
+
+    /**
+     * Adds a listener told about every new record
+     * @param listener the RecordListener
+     */
+    public void addRecordListener(RecordListener listener) {
+        recordListeners.add(listener);
     }
 
     /**
@@ -63,9 +153,12 @@ public class Logger extends ServerEventListener {
      * @return the MapLog
      */
     public MapLog getLog(String map) {
-        if(!mapLogs.containsKey(map))
+        MapLog log = mapLogs.get(map);
+        if(log == null) {
             loadMapLog(map, true);
-        return mapLogs.get(map);
+            log = mapLogs.peek(map);
+        }
+        return log;
     }
 
     /**
@@ -91,11 +184,21 @@ public class Logger extends ServerEventListener {
      * @param mapName the map to load the log for.
      */
     public void loadMapLog(String mapName, boolean createOnFail) {
+        Prefetched ready = prefetched.remove(mapName);
+        int generation = getGeneration(mapName);
+        generations.put(mapName, generation + 1);
+        if(mapLogs.contains(mapName))
+            return;
+        if(ready != null && ready.generation == generation) {
+            mapLogs.loaded(mapName, ready.log, 0);
+            System.out.println("# Map Log Loaded from prefetch: " + mapName);
+            return;
+        }
         System.out.println("# Starting to load log: " + mapName);
+        long start = System.nanoTime();
         try {
-            mapLogs.put(mapName, JsonManager.loadFromJson("data/" + Racing.PATH_TIMES + mapName + ".JSON",
-                    MapLog.class));
-            mapLogs.get(mapName).sort();
+            MapLog ml = readMapLog(mapName);
+            mapLogs.loaded(mapName, ml, Math.max(1, System.nanoTime() - start));
         } catch (IOException e) {
             if(!createOnFail) {
                 System.out.println("# Error loading MapLog, player_finished");
@@ -103,20 +206,81 @@ public class Logger extends ServerEventListener {
             }
             System.out.println("# Error loading MapLog for map, attempting to create it: " + mapName);
             MapLog ml = new MapLog(mapName);
-            mapLogs.put(mapName, ml);
-            saveMapLog(mapName);
+            mapLogs.loaded(mapName, ml, Math.max(1, System.nanoTime() - start));
+            saveMapLog(ml);
         }
         System.out.println("# Map Log Loaded: " + mapName);
     }
 
     /**
-     * Lets unload this log, not needed for now
+     * Reads a MapLog from disk without caching it, safe from any thread
+     * @param mapName the map
+     * @return the MapLog, sorted
+     * @throws IOException if there is none
+     */
+    public MapLog readMapLog(String mapName) throws IOException {
+        MapLog held = checkpoint == null ? null : checkpoint.readMapLog(mapName);
+        if(held != null)
+            return held;
+        if(journal != null)
+            return journal.load(mapName);
+        MapLog log = JsonManager.loadFromJson("data/" + Racing.PATH_TIMES + mapName + ".JSON", MapLog.class);
+        log.sort();
+        return log;
+    }
+
+    /**
+     * Loads the MapLog for a map on the persistence thread, so a
+     * later loadMapLog takes it without reading the disk.
+     * Only for maps nobody can set records on until then.
+     * @param mapName the map to load ahead
+     */
+    public void prefetch(final String mapName) {
+        if(mapLogs.contains(mapName) || prefetched.containsKey(mapName))
+            return;
+        final int generation = getGeneration(mapName);
+        PersistenceService.getInstance().submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    offer(readMapLog(mapName), generation);
+                } catch (IOException e) {
+                    // loadMapLog will create it
+                }
+            }
+        });
+    }
+
+    /**
+     * Hands over a MapLog read on another thread, for a later loadMapLog,
+     * unless the map was loaded since the generation it was read at
+     * @param log the MapLog
+     * @param generation the map's generation from before it was read
+     */
+    public void offer(MapLog log, int generation) {
+        if(generation == getGeneration(log.getMapName()))
+            prefetched.put(log.getMapName(), new Prefetched(log, generation));
+    }
+
+    /**
+     * Gets how many times a map has gone through loadMapLog, safe from any thread
+     * @param mapName the map
+     * @return the generation
+     */
+    public int getGeneration(String mapName) {
+        Integer generation = generations.get(mapName);
+        return generation == null ? 0 : generation;
+    }
+
+    /**
+     * Takes this log out of the cache, for logs that will not be used again soon
+     * With a journal the records are already on disk, so it is never saved.
      * @param mapName the map to forget and let memory manage
      * @param save save the map first?
      */
     public void unloadMapLog(String mapName, boolean save) {
-        if(save) saveMapLog(mapName);
-        mapLogs.remove(mapName);
+        MapLog log = mapLogs.remove(mapName);
+        if(save && log != null && log.isDirty() && journal == null) saveMapLog(log);
     }
 
     /**
@@ -125,12 +289,33 @@ public class Logger extends ServerEventListener {
      * @param mapName the MapLog to save from the map
      */
     public void saveMapLog(String mapName) {
-        try {
-            JsonManager.saveAsJson("data/" + Racing.PATH_TIMES + mapName + ".JSON", mapLogs.get(mapName));
-        } catch (IOException e) {
-            e.printStackTrace();
-            System.out.println("# Unable to save MapLog for map: " + mapName);
+        MapLog log = mapLogs.peek(mapName);
+        if(log != null)
+            saveMapLog(log);
+    }
+
+    /**
+     * Saves a MapLog in the background
+     * @param log the MapLog to save
+     */
+    private void saveMapLog(MapLog log) {
+        final String mapName = log.getMapName();
+        final MapLog snapshot = log.copy();
+        if(journal == null) {
+            PersistenceService.getInstance().save("data/" + Racing.PATH_TIMES + mapName + ".JSON", snapshot, false);
+            return;
         }
+        PersistenceService.getInstance().submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    journal.save(snapshot);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    System.out.println("# Unable to save MapLog for map: " + mapName);
+                }
+            }
+        });
     }
 
     /**
@@ -141,14 +326,15 @@ public class Logger extends ServerEventListener {
      * @return the players rank.
      */
     public int getRank(String map, String playerId) {
-        if(!mapLogs.containsKey(map)) {
+        MapLog log = mapLogs.get(map);
+        if(log == null) {
             // lets try loading the map first
             loadMapLog(map, false);
-            if(!mapLogs.containsKey(map))
+            log = mapLogs.peek(map);
+            if(log == null)
                 return -1;
-            return getRank(map, playerId);
         }
-        return mapLogs.get(map).getRank(playerId);
+        return log.getRank(playerId);
     }
 
     /**
@@ -164,7 +350,17 @@ public class Logger extends ServerEventListener {
      * @param currentLog the log to set
      */
     public void setCurrentLog(MapLog currentLog) {
+        if(this.currentLog != null && this.currentLog != currentLog) {
+            // stays cached for when the rotation comes back to it
+            if(this.currentLog.isDirty() && journal == null)
+                saveMapLog(this.currentLog);
+            mapLogs.unpin(this.currentLog.getMapName());
+        }
         this.currentLog = currentLog;
+        if(currentLog != null) {
+            mapLogs.pin(currentLog.getMapName());
+            System.out.println("# Map log cache: " + mapLogs.getStats());
+        }
     }
 
     @Override
@@ -177,23 +373,42 @@ public class Logger extends ServerEventListener {
 
         playerTracker.setFinished(playerId);
 
+        if(anomalyDetector != null) {
+            PlayerTime record = currentLog.getPlayerFromRank(1);
+            String reason = anomalyDetector.inspectFinish(playerId, playerX, playerY, time,
+                    record == null ? 0 : record.getTime() / 100.0);
+            if(reason != null) {
+                quarantine.add(new Quarantine.Finish(currentLog.getMapName(), playerId, time, reason));
+                LRace.FINISH_QUARANTINED.parseOutPlayer(playerId, new PlayerTime(playerId, time).getSeconds());
+                return;
+            }
+        }
+
         int oldRank = currentLog.getRank(playerId);
         PlayerTime pt = new PlayerTime(playerId, time);
-        BigDecimal difference = currentLog.updateRecord(pt);
+        pt.setDate(System.currentTimeMillis());
+        int difference = currentLog.updateRecord(pt);
         int newRank = currentLog.getRank(playerId);
 
+        if(oldRank == -1 || difference < 0) {
+            for(RecordListener listener: recordListeners)
+                listener.recordImproved(currentLog, pt, oldRank, newRank);
+        }
+        for(RecordListener listener: recordListeners)
+            listener.finished(currentLog, pt);
+
         String data;
         String about;
 
         if(oldRank == -1) {
             data = LRace.TIME_DATA_UNRANKED.parse();
-        } else if(difference.compareTo(BigDecimal.ZERO) < 0) {
-            data = LRace.TIME_DATA_FASTER.parse(String.valueOf(difference.abs()));
+        } else if(difference < 0) {
+            data = LRace.TIME_DATA_FASTER.parse(PlayerTime.toSeconds(-difference));
         } else {
-            data = LRace.TIME_DATA_SLOWER.parse(String.valueOf(difference));
+            data = LRace.TIME_DATA_SLOWER.parse(PlayerTime.toSeconds(difference));
         }
 
-        if(oldRank == -1 || difference.compareTo(BigDecimal.ZERO) < 0) {
+        if(oldRank == -1 || difference < 0) {
             if(newRank == 1) {
                 LRace.RECORD_FIRST.parseOut(playerId, currentLog.getMapName());
             } else if(newRank == 2) {
@@ -213,8 +428,44 @@ public class Logger extends ServerEventListener {
             about = "remains at";
         }
 
-        LRace.PLAYER_FINISHED.parseOut(playerId, pt.getTime(), data, about, newRank);
+        LRace.PLAYER_FINISHED.parseOut(playerId, pt.getSeconds(), data, about, newRank);
+
+    }
 
+    /**
+     * Logs a finish that was held in quarantine as if it had just been
+     * made, on the map it was made on.
+     * @param finish the finish
+     * @return the rank of the player on the map after
+     */
+    public int release(Quarantine.Finish finish) {
+        MapLog log = getLog(finish.getMap());
+        String playerId = finish.getPlayer();
+        int oldRank = log.getRank(playerId);
+        PlayerTime pt = new PlayerTime(playerId, finish.getTime());
+        pt.setDate(finish.getDate());
+        int difference = log.updateRecord(pt);
+        int newRank = log.getRank(playerId);
+
+        if(oldRank == -1 || difference < 0) {
+            for(RecordListener listener: recordListeners)
+                listener.recordImproved(log, pt, oldRank, newRank);
+            setRankingsUpdated(false);
+        }
+        for(RecordListener listener: recordListeners)
+            listener.finished(log, pt);
+
+        // the current log is saved when the map changes
+        if(log != currentLog && log.isDirty() && journal == null)
+            saveMapLog(log);
+        return newRank;
+    }
+
+    /**
+     * @return the finishes held for review, or null without a detector
+     */
+    public Quarantine getQuarantine() {
+        return quarantine;
     }
 
     public boolean isRankingsUpdated() {
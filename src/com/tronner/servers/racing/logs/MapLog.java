@@ -25,12 +25,23 @@
 package com.tronner.servers.racing.logs;
 
 
-import java.math.BigDecimal;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import com.tronner.util.OrderStatisticList;
+
+import java.io.IOException;
+
 import java.util.*;
 
 /**
  * Tronner - MapLog
  *
+ * Once sorted the records are kept in an OrderStatisticList, so a new
+ * or improved time and any rank lookup are O(log n) instead of sorting
+ * every record again.
+ *
  * @author TJohnW
  */
 public class MapLog {
@@ -41,7 +52,53 @@ public class MapLog {
     public static Comparator<PlayerTime> comparator = new Comparator<PlayerTime>() {
         @Override
         public int compare(PlayerTime o1, PlayerTime o2) {
-            return o1.getTime().compareTo(o2.getTime());
+            return Integer.compare(o1.getTime(), o2.getTime());
+        }
+    };
+
+    /**
+     * Reads and writes MapLogs, the records come back unsorted
+     */
+    public static final TypeAdapter<MapLog> ADAPTER = new TypeAdapter<MapLog>() {
+
+        @Override
+        public void write(JsonWriter out, MapLog log) throws IOException {
+            if(log == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            out.name("map").value(log.map);
+            out.name("records").beginArray();
+            for(PlayerTime pt: log.records)
+                PlayerTime.ADAPTER.write(out, pt);
+            out.endArray();
+            out.endObject();
+        }
+
+        @Override
+        public MapLog read(JsonReader in) throws IOException {
+            if(in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            MapLog log = new MapLog();
+            in.beginObject();
+            while(in.hasNext()) {
+                String name = in.nextName();
+                if(name.equals("map")) {
+                    log.map = in.nextString();
+                } else if(name.equals("records") && in.peek() != JsonToken.NULL) {
+                    in.beginArray();
+                    while(in.hasNext())
+                        log.records.add(PlayerTime.ADAPTER.read(in));
+                    in.endArray();
+                } else {
+                    in.skipValue();
+                }
+            }
+            in.endObject();
+            return log;
         }
     };
 
@@ -51,14 +108,41 @@ public class MapLog {
     private String map;
 
     /**
-     * The list of PlayerTimes on this map.
+     * The list of PlayerTimes on this map, fastest first.
      */
     private List<PlayerTime> records = new ArrayList<>();
 
+    /**
+     * The records sorted, shares its elements with records
+     */
+    private transient OrderStatisticList<PlayerTime> ordered;
+
     /**
      * Here to speed up finding a players rank
      */
-    private transient Map<String, PlayerTime> ranks = new HashMap<>();
+    private transient Map<String, OrderStatisticList.Entry<PlayerTime>> ranks;
+
+    /**
+     * Changed since it was loaded or last saved
+     */
+    private transient boolean dirty;
+
+    /**
+     * The journal's record sequence for the map when this was read,
+     * -1 if it was not read through the journal
+     */
+    private transient int sequence = -1;
+
+    /**
+     * Rough bytes a record takes in memory, with its tree entry and lookup
+     */
+    public static final int RECORD_BYTES = 200;
+
+    /**
+     * For reading, sort() is called once the records are in
+     */
+    private MapLog() {
+    }
 
     /**
      * This creates an empty MapLog with the given name.
@@ -66,11 +150,14 @@ public class MapLog {
      * have logs yet.
      * @param mapName the name of the map to create a log for.
      */
-    public MapLog(String mapName) { map = mapName; }
+    public MapLog(String mapName) {
+        map = mapName;
+        sort();
+    }
 
     public PlayerTime getPlayerFromRank(int rank) {
-        if(records.size() >= rank)
-            return records.get(rank - 1);
+        if(rank >= 1 && ordered.size() >= rank)
+            return ordered.get(rank - 1);
         return null;
     }
 
@@ -80,47 +167,50 @@ public class MapLog {
      * @return the rank of the player on this MapLog
      */
     public int getRank(String playerId) {
-        PlayerTime pt = ranks.get(playerId);
-        if(pt != null)
-            return pt.getRank();
+        OrderStatisticList.Entry<PlayerTime> entry = ranks.get(playerId);
+        if(entry != null)
+            return ordered.indexOf(entry) + 1;
         return -1;
     }
 
     /**
      * Gets the time of a player on this map
      * @param playerId the player to get
-     * @return the time
+     * @return the time in centiseconds, or -1 if they have none
      */
-    public BigDecimal getTime(String playerId) {
-        PlayerTime pt = ranks.get(playerId);
-        if(pt != null)
-            return pt.getTime();
-        return null;
+    public int getTime(String playerId) {
+        OrderStatisticList.Entry<PlayerTime> entry = ranks.get(playerId);
+        if(entry != null)
+            return entry.getValue().getTime();
+        return -1;
     }
 
     /**
      * Updates the record for a player, and returns
      * their new rank. Will also add a new record
      * if they dont have one already
-     * returns difference in time + for slower - for faster
+     * returns difference in centiseconds + for slower - for faster
      * @param playerTime The PlayerTime object to update
      */
-    public BigDecimal updateRecord(PlayerTime playerTime) {
-        // Fancy caching help here
-        BigDecimal difference = BigDecimal.ZERO;
-        if(ranks.containsKey(playerTime.getPlayer())) {
-            difference = playerTime.getTime().subtract(ranks.get(playerTime.getPlayer()).getTime());
-            if(difference.compareTo(BigDecimal.ZERO) < 0) {
-                ranks.get(playerTime.getPlayer()).setTime(playerTime.getTime());
-            } else {
-                // no change in this players rank, lets not re sort
-                return difference;
+    public int updateRecord(PlayerTime playerTime) {
+        int difference = 0;
+        OrderStatisticList.Entry<PlayerTime> entry = ranks.get(playerTime.getPlayer());
+        if(entry != null) {
+            PlayerTime pt = entry.getValue();
+            difference = playerTime.getTime() - pt.getTime();
+            if(difference < 0) {
+                // take it out while its time changes, then put it back in its new place,
+                // behind any equal times like the old stable sort, they were all ahead of it
+                ordered.remove(entry);
+                pt.setTime(playerTime.getTime());
+                pt.setDate(playerTime.getDate());
+                ranks.put(pt.getPlayer(), ordered.insert(pt));
             }
         } else {
-            records.add(playerTime);
-            System.out.println("Adding to records. Player not found.");
+            ranks.put(playerTime.getPlayer(), ordered.insert(playerTime));
         }
-        sort();
+        if(entry == null || difference < 0)
+            dirty = true;
         return difference;
     }
 
@@ -133,7 +223,10 @@ public class MapLog {
     public boolean renameRecord(String playerId, String newPlayerId) {
         if(!ranks.containsKey(playerId))
             return false;
-        ranks.get(playerId).setPlayer(newPlayerId);
+        OrderStatisticList.Entry<PlayerTime> entry = ranks.remove(playerId);
+        entry.getValue().setPlayer(newPlayerId);
+        ranks.put(newPlayerId, entry);
+        dirty = true;
         return true;
     }
 
@@ -146,25 +239,61 @@ public class MapLog {
     }
 
     /**
-     * Sorts the records.
+     * Sorts the records, called once after loading.
      */
     public void sort() {
-        Collections.sort(records, comparator);
-        System.out.println("Number of records now sorted: " + records.size());
-        cache();
+        ordered = new OrderStatisticList<>(comparator);
+        ranks = new HashMap<>();
+        List<PlayerTime> loaded = new ArrayList<>(records);
+        Collections.sort(loaded, comparator);
+        for(PlayerTime pt: loaded)
+            ranks.put(pt.getPlayer(), ordered.insert(pt));
+        records = ordered;
+        if(!records.isEmpty())
+            System.out.println("Number of records now sorted: " + records.size());
+    }
+
+    public int getSequence() {
+        return sequence;
+    }
+
+    public void setSequence(int sequence) {
+        this.sequence = sequence;
     }
 
     /**
-     * Here to speed up quick access of the players ranks
-     * at the start of the round and when loaded into memory
+     * Is this changed since it was loaded or last copied to save
+     * @return true if changed
      */
-    private void cache() {
-        ranks = new HashMap<>();
-        for(int i = 0; i < records.size(); i++) {
-            PlayerTime pt = records.get(i);
-            pt.setRank(i+1);
-            ranks.put(pt.getPlayer(), pt);
+    public boolean isDirty() {
+        return dirty;
+    }
+
+    /**
+     * Estimates the memory this MapLog takes
+     * @return the bytes
+     */
+    public long estimateBytes() {
+        return 64 + (long) count() * RECORD_BYTES;
+    }
+
+    /**
+     * Copies this MapLog to save while this one keeps changing
+     * @return a copy of the map name and records
+     */
+    public MapLog copy() {
+        MapLog copy = new MapLog(map);
+        List<PlayerTime> list = new ArrayList<>(records.size());
+        for(PlayerTime pt: records) {
+            PlayerTime time = new PlayerTime(pt.getPlayer(), 0);
+            time.setTime(pt.getTime());
+            time.setDate(pt.getDate());
+            list.add(time);
         }
+        copy.records = list;
+        copy.sort();
+        dirty = false;
+        return copy;
     }
 
     public String getMapName() {
@@ -175,4 +304,4 @@ public class MapLog {
         return records;
     }
 
-}
\ No newline at end of file
+}
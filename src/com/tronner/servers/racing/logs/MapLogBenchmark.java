@@ -0,0 +1,141 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014. Tristan John Whitcher
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.tronner.servers.racing.logs;
+
+import com.google.gson.Gson;
+import com.tronner.util.JsonManager;
+
+import java.util.*;
+
+/**
+ * Tronner - MapLogBenchmark
+ *
+ * Times record updates on MapLog against the old way of sorting the
+ * whole list on every new or improved time, and checks both agree on
+ * every rank, equal times included.
+ *
+ * @author TJohnW
+ */
+public class MapLogBenchmark {
+
+    /**
+     * The MapLog before it kept its records in order, sorts and
+     * rebuilds the rank cache on every change.
+     */
+    private static class SortingMapLog {
+
+        private List<PlayerTime> records = new ArrayList<>();
+
+        private Map<String, PlayerTime> times = new HashMap<>();
+
+        private Map<String, Integer> ranks = new HashMap<>();
+
+        public void updateRecord(String player, double time) {
+            PlayerTime pt = times.get(player);
+            PlayerTime update = new PlayerTime(player, time);
+            if(pt != null) {
+                if(update.getTime() >= pt.getTime())
+                    return;
+                pt.setTime(update.getTime());
+            } else {
+                records.add(update);
+                times.put(player, update);
+            }
+            Collections.sort(records, MapLog.comparator);
+            ranks = new HashMap<>();
+            for(int i = 0; i < records.size(); i++)
+                ranks.put(records.get(i).getPlayer(), i + 1);
+        }
+
+        public int getRank(String player) {
+            Integer rank = ranks.get(player);
+            return rank == null ? -1 : rank;
+        }
+    }
+
+    public static void main(String[] args) {
+        int records = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        int updates = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+        Random random = new Random(42);
+
+        MapLog log = new MapLog("benchmark");
+        SortingMapLog legacy = new SortingMapLog();
+        for(int i = 0; i < records; i++) {
+            double time = 10 + random.nextInt(5000) / 100.0;
+            log.updateRecord(new PlayerTime("player" + i, time));
+            legacy.updateRecord("player" + i, time);
+        }
+
+        String[] players = new String[updates];
+        double[] times = new double[updates];
+        for(int i = 0; i < updates; i++) {
+            // a quarter new players, the rest try to improve
+            players[i] = "player" + (random.nextInt(4) == 0 ? records + i : random.nextInt(records));
+            times[i] = 10 + random.nextInt(5000) / 100.0;
+        }
+
+        long start = System.nanoTime();
+        for(int i = 0; i < updates; i++) {
+            legacy.updateRecord(players[i], times[i]);
+            legacy.getRank(players[i]);
+        }
+        long legacyNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for(int i = 0; i < updates; i++) {
+            log.updateRecord(new PlayerTime(players[i], times[i]));
+            log.getRank(players[i]);
+        }
+        long treeNanos = System.nanoTime() - start;
+
+        int mismatches = 0;
+        for(int i = 0; i < log.count(); i++) {
+            PlayerTime pt = log.getPlayerFromRank(i + 1);
+            if(log.getRank(pt.getPlayer()) != i + 1)
+                mismatches++;
+            if(i > 0 && log.getPlayerFromRank(i).getTime() > pt.getTime())
+                mismatches++;
+            int time = legacy.times.get(pt.getPlayer()).getTime();
+            if(time != pt.getTime())
+                mismatches++;
+            // equal times keep the same order too
+            if(legacy.getRank(pt.getPlayer()) != i + 1)
+                mismatches++;
+        }
+
+        Gson gson = JsonManager.gson(false);
+        MapLog loaded = gson.fromJson(gson.toJson(log), MapLog.class);
+        loaded.sort();
+        for(int i = 1; i <= log.count(); i++)
+            if(!loaded.getPlayerFromRank(i).getPlayer().equals(log.getPlayerFromRank(i).getPlayer()))
+                mismatches++;
+
+        System.out.println("Records: " + log.count() + ", updates: " + updates);
+        System.out.println("Sorting every update: " + legacyNanos / 1000000 + " ms");
+        System.out.println("Order statistic list: " + treeNanos / 1000000 + " ms");
+        System.out.println("Mismatches: " + mismatches);
+    }
+
+}
@@ -0,0 +1,222 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014. Tristan John Whitcher
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.tronner.servers.racing.logs;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Tronner - MapLogCache
+ *
+ * Keeps the most recently used MapLogs in memory within a budget of
+ * logs and estimated bytes, evicting the least recently used first.
+ * Pinned logs are never evicted. Evicted logs are handed to the
+ * EvictionListener so dirty ones can be written back.
+ *
+ * @author TJohnW
+ */
+public class MapLogCache {
+
+    /**
+     * Told about every log the cache evicts
+     */
+    public interface EvictionListener {
+
+        public void evicted(MapLog log);
+
+    }
+
+    /**
+     * In access order, least recently used first
+     */
+    private LinkedHashMap<String, MapLog> logs = new LinkedHashMap<>(16, 0.75f, true);
+
+    private Set<String> pinned = new HashSet<>();
+
+    private int maxEntries;
+
+    private long maxBytes;
+
+    private EvictionListener listener;
+
+    private long hits;
+
+    private long misses;
+
+    private long prefetchHits;
+
+    private long evictions;
+
+    private long loadNanos;
+
+    /**
+     * Creates a MapLogCache
+     * @param maxEntries the most logs to keep
+     * @param maxBytes the most estimated bytes to keep
+     * @param listener told about evicted logs, may be null
+     */
+    public MapLogCache(int maxEntries, long maxBytes, EvictionListener listener) {
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        this.listener = listener;
+    }
+
+    /**
+     * Gets a log and marks it used
+     * @param map the map
+     * @return the log, or null if not cached
+     */
+    public MapLog get(String map) {
+        MapLog log = logs.get(map);
+        if(log != null)
+            hits++;
+        return log;
+    }
+
+    /**
+     * Gets a log without marking it used or counting it
+     * @param map the map
+     * @return the log, or null if not cached
+     */
+    public MapLog peek(String map) {
+        for(Map.Entry<String, MapLog> e: logs.entrySet())
+            if(e.getKey().equals(map))
+                return e.getValue();
+        return null;
+    }
+
+    public boolean contains(String map) {
+        return logs.containsKey(map);
+    }
+
+    /**
+     * Adds a log that was just loaded
+     * @param map the map
+     * @param log the log
+     * @param nanos the time it took to load, 0 if it was prefetched
+     */
+    public void loaded(String map, MapLog log, long nanos) {
+        if(nanos == 0) {
+            prefetchHits++;
+        } else {
+            misses++;
+            loadNanos += nanos;
+        }
+        put(map, log);
+    }
+
+    /**
+     * Adds or replaces a log, evicting others to stay in budget
+     * @param map the map
+     * @param log the log
+     */
+    public void put(String map, MapLog log) {
+        logs.put(map, log);
+        trim();
+    }
+
+    /**
+     * Removes a log without telling the listener
+     * @param map the map
+     * @return the removed log, or null
+     */
+    public MapLog remove(String map) {
+        pinned.remove(map);
+        return logs.remove(map);
+    }
+
+    /**
+     * Keeps a log from being evicted
+     * @param map the map
+     */
+    public void pin(String map) {
+        pinned.add(map);
+    }
+
+    public void unpin(String map) {
+        pinned.remove(map);
+        trim();
+    }
+
+    /**
+     * Evicts the least recently used unpinned logs until
+     * the cache is within budget
+     */
+    public void trim() {
+        long bytes = getBytes();
+        int entries = logs.size();
+        List<MapLog> evicted = new ArrayList<>();
+        Iterator<Map.Entry<String, MapLog>> it = logs.entrySet().iterator();
+        while((entries > maxEntries || bytes > maxBytes) && it.hasNext()) {
+            Map.Entry<String, MapLog> e = it.next();
+            if(pinned.contains(e.getKey()))
+                continue;
+            it.remove();
+            entries--;
+            bytes -= e.getValue().estimateBytes();
+            evictions++;
+            evicted.add(e.getValue());
+        }
+        if(listener != null) {
+            for(MapLog log: evicted)
+                listener.evicted(log);
+        }
+    }
+
+    /**
+     * Gets the estimated bytes of every cached log
+     * @return the bytes
+     */
+    public long getBytes() {
+        long bytes = 0;
+        for(MapLog log: logs.values())
+            bytes += log.estimateBytes();
+        return bytes;
+    }
+
+    public int size() {
+        return logs.size();
+    }
+
+    /**
+     * Sums up how the cache is doing
+     * @return the stats
+     */
+    public String getStats() {
+        long lookups = hits + misses + prefetchHits;
+        return "logs " + logs.size() + "/" + maxEntries
+                + ", bytes " + getBytes() / 1024 + "k/" + maxBytes / 1024 + "k"
+                + ", hits " + hits + ", prefetched " + prefetchHits + ", misses " + misses
+                + ", hit rate " + (lookups == 0 ? 0 : (hits + prefetchHits) * 100 / lookups) + "%"
+                + ", evictions " + evictions
+                + ", avg load " + (misses == 0 ? 0 : loadNanos / misses / 1000) + "us";
+    }
+
+}
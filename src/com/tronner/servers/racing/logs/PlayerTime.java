@@ -24,78 +24,138 @@
 
 package com.tronner.servers.racing.logs;
 
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
 import java.math.BigDecimal;
 
 /**
  * Tronner - PlayerTime
  *
+ * Times are held as whole centiseconds, cut toward zero. In JSON they
+ * are still written in seconds like 31.29 so old logs load as before.
+ * Finishes are dated, times from before that have no date.
+ *
  * @author TJohnW
  */
 public class PlayerTime {
 
     /**
-     * Here to help improve caching of ranks
+     * Reads and writes PlayerTimes with the time in seconds
      */
-    private transient int rank;
+    public static final TypeAdapter<PlayerTime> ADAPTER = new TypeAdapter<PlayerTime>() {
+        @Override
+        public void write(JsonWriter out, PlayerTime pt) throws IOException {
+            if(pt == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            out.name("time").value(toSeconds(pt.time));
+            out.name("player").value(pt.player);
+            if(pt.date != 0)
+                out.name("date").value(pt.date);
+            out.endObject();
+        }
+
+        @Override
+        public PlayerTime read(JsonReader in) throws IOException {
+            if(in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            PlayerTime pt = new PlayerTime(null, 0);
+            in.beginObject();
+            while(in.hasNext()) {
+                String name = in.nextName();
+                if(name.equals("time"))
+                    pt.time = centiseconds(in.nextString());
+                else if(name.equals("player"))
+                    pt.player = in.nextString();
+                else if(name.equals("date"))
+                    pt.date = in.nextLong();
+                else
+                    in.skipValue();
+            }
+            in.endObject();
+            return pt;
+        }
+    };
 
     /**
-     * The players time
+     * The players time in centiseconds
      */
-    private BigDecimal time;
+    private int time;
 
     /**
      * The players name
      */
     private String player;
 
+    /**
+     * When the time was set in milliseconds, 0 if it is not known
+     */
+    private long date;
+
     /**
      * An object to represent a player record.
      * @param player The players name
-     * @param time the players time
+     * @param time the players time in seconds
      */
     public PlayerTime(String player, double time) {
         this.player = player;
-        this.time = truncateDecimal(time, 2);
+        this.time = centiseconds(time);
     }
 
     /**
-     * Sets this rank
-     * @param newRank the rank to set
+     * Updates the time of this PlayerTime
+     * @param newTime the new time in seconds
      */
-    public void setRank(int newRank) {
-        rank = newRank;
+    public void setTime(double newTime) {
+        time = centiseconds(newTime);
     }
 
     /**
-     * Gets this rank
-     * @return the rank
+     * Updates the time of this PlayerTime
+     * @param newTime the new time in centiseconds
      */
-    public int getRank() {
-        return rank;
+    public void setTime(int newTime) {
+        time = newTime;
     }
 
     /**
-     * Updates the time of this PlayerTime
-     * @param newTime the new time
+     * Gets the time.
+     * @return the time in centiseconds
      */
-    public void setTime(double newTime) {
-        time = truncateDecimal(newTime, 2);
+    public int getTime() {
+        return time;
     }
 
     /**
-     * Updates time to a new big decimal
-     * @param newTime
+     * Gets the time for showing to players
+     * @return the time in seconds
      */
-    public void setTime(BigDecimal newTime) {
-        time = newTime;
+    public BigDecimal getSeconds() {
+        return toSeconds(time);
     }
 
     /**
-     * Gets the time.
-     * @return the time
+     * Gets when the time was set
+     * @return the time in milliseconds, 0 if it is not known
      */
-    public BigDecimal getTime() {
-        return time;
+    public long getDate() {
+        return date;
+    }
+
+    /**
+     * Sets when the time was set
+     * @param date the time in milliseconds
+     */
+    public void setDate(long date) {
+        this.date = date;
     }
 
     /**
@@ -124,12 +184,61 @@ public class PlayerTime {
         return (pt instanceof PlayerTime) && ((PlayerTime) pt).getPlayer().equals(player);
     }
 
-    private static BigDecimal truncateDecimal(double x, int numberOfDecimals) {
-        if ( x > 0) {
-            return new BigDecimal(String.valueOf(x)).setScale(numberOfDecimals, BigDecimal.ROUND_FLOOR);
-        } else {
-            return new BigDecimal(String.valueOf(x)).setScale(numberOfDecimals, BigDecimal.ROUND_CEILING);
+    /**
+     * Turns centiseconds into seconds for messages
+     * @param centiseconds the time
+     * @return the time in seconds with two decimals
+     */
+    public static BigDecimal toSeconds(int centiseconds) {
+        return BigDecimal.valueOf(centiseconds, 2);
+    }
+
+    /**
+     * Turns seconds into centiseconds, cutting toward zero
+     * from the decimal the time prints as
+     * @param seconds the time
+     * @return the time in centiseconds
+     */
+    public static int centiseconds(double seconds) {
+        return centiseconds(String.valueOf(seconds));
+    }
+
+    /**
+     * Turns a decimal number of seconds into centiseconds, cutting toward zero
+     * @param seconds the time as written
+     * @return the time in centiseconds
+     */
+    public static int centiseconds(String seconds) {
+        int i = 0;
+        boolean negative = false;
+        if(seconds.startsWith("-")) {
+            negative = true;
+            i++;
+        }
+        long whole = 0;
+        int fraction = 0;
+        int digits = 0;
+        boolean point = false;
+        for(; i < seconds.length(); i++) {
+            char c = seconds.charAt(i);
+            if(c == '.' && !point) {
+                point = true;
+            } else if(c >= '0' && c <= '9' && whole < Integer.MAX_VALUE) {
+                if(!point) {
+                    whole = whole * 10 + (c - '0');
+                } else if(digits < 2) {
+                    fraction = fraction * 10 + (c - '0');
+                    digits++;
+                }
+            } else {
+                // exponents and the like, let BigDecimal work it out
+                return new BigDecimal(seconds).setScale(2, BigDecimal.ROUND_DOWN).unscaledValue().intValue();
+            }
         }
+        for(; digits < 2; digits++)
+            fraction *= 10;
+        int cs = (int) (whole * 100 + fraction);
+        return negative ? -cs : cs;
     }
 
 }
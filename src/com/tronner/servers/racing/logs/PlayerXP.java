@@ -24,6 +24,13 @@
 
 package com.tronner.servers.racing.logs;
 
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+
 /**
  * Tronner - PlayerXP
  *
@@ -31,6 +38,45 @@ package com.tronner.servers.racing.logs;
  */
 public class PlayerXP {
 
+    /**
+     * Reads and writes PlayerXP without reflection
+     */
+    public static final TypeAdapter<PlayerXP> ADAPTER = new TypeAdapter<PlayerXP>() {
+
+        @Override
+        public void write(JsonWriter out, PlayerXP p) throws IOException {
+            if(p == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            out.name("name").value(p.name);
+            out.name("xp").value(p.xp);
+            out.endObject();
+        }
+
+        @Override
+        public PlayerXP read(JsonReader in) throws IOException {
+            if(in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            PlayerXP p = new PlayerXP(null, 0);
+            in.beginObject();
+            while(in.hasNext()) {
+                String name = in.nextName();
+                if(name.equals("name"))
+                    p.name = in.nextString();
+                else if(name.equals("xp"))
+                    p.xp = in.nextInt();
+                else
+                    in.skipValue();
+            }
+            in.endObject();
+            return p;
+        }
+    };
+
     private String name;
 
     private int xp;
@@ -0,0 +1,537 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014. Tristan John Whitcher
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.tronner.servers.racing.logs;
+
+import com.tronner.servers.racing.Racing;
+import com.tronner.util.JsonManager;
+import com.tronner.util.PersistenceService;
+import com.tronner.util.StorageWriter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+/**
+ * Tronner - RecordJournal
+ *
+ * Every new record is appended to the journal as a fixed size entry
+ * and forced to disk as it happens, instead of rewriting the whole
+ * times file for the map. Every so often the compactor moves the
+ * journal aside, folds its entries into the times files, and deletes
+ * it. Records not yet folded are kept in memory and applied to a
+ * MapLog whenever one is loaded. The compactor runs on the
+ * PersistenceService thread.
+ * Each map counts its records in a sequence, a loaded MapLog has every
+ * record up to the sequence it was loaded at.
+ *
+ * @author TJohnW
+ */
+public class RecordJournal extends RecordListener {
+
+    public static final int ENTRY_SIZE = 128;
+
+    /**
+     * crc, time, date, map length and player length
+     */
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 2 + 2;
+
+    /**
+     * Compact early once this many entries are waiting
+     */
+    public static final int COMPACT_ENTRIES = 4096;
+
+    /**
+     * A record read from or written to the journal
+     */
+    public static class Entry {
+
+        private String map;
+        private String player;
+        private int time;
+        private long date;
+
+        public Entry(String map, String player, int time, long date) {
+            this.map = map;
+            this.player = player;
+            this.time = time;
+            this.date = date;
+        }
+
+        public String getMap() {
+            return map;
+        }
+
+        public String getPlayer() {
+            return player;
+        }
+
+        public int getTime() {
+            return time;
+        }
+
+        public long getDate() {
+            return date;
+        }
+    }
+
+    private final Path path;
+
+    private final Path oldPath;
+
+    private FileChannel channel;
+
+    /**
+     * Entries in the journal, by map
+     */
+    private Map<String, List<Entry>> pending = new HashMap<>();
+
+    /**
+     * Entries in the moved journal that are being folded, by map
+     */
+    private Map<String, List<Entry>> folding = new HashMap<>();
+
+    private int entries;
+
+    /**
+     * Records taken this run, by map
+     */
+    private Map<String, Integer> sequences = new HashMap<>();
+
+    /**
+     * Read while a times file is loaded, written while it is written,
+     * so many maps can load at once
+     */
+    private final ReadWriteLock snapshotLock = new ReentrantReadWriteLock();
+
+    private boolean started;
+
+    /**
+     * Opens the journal, finishing any compaction that was cut short
+     * @param file the journal file under the data path
+     * @throws IOException if the journal cant be opened
+     */
+    public RecordJournal(String file) throws IOException {
+        path = Paths.get(JsonManager.PATH + file);
+        oldPath = Paths.get(JsonManager.PATH + file + ".old");
+
+        if(Files.exists(oldPath)) {
+            read(oldPath, folding);
+            System.out.println("# Finishing journal compaction cut short, entries: " + count(folding));
+            foldAll();
+        }
+
+        int valid = read(path, pending);
+        entries = count(pending);
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        if(channel.size() != (long) valid * ENTRY_SIZE) {
+            System.out.println("# Dropping torn journal tail after entry " + valid);
+            channel.truncate((long) valid * ENTRY_SIZE);
+        }
+        channel.position(channel.size());
+        System.out.println("# Record journal opened, entries: " + entries);
+    }
+
+    /**
+     * Starts compacting in the background
+     * @param periodMinutes the minutes between compactions
+     */
+    public void start(int periodMinutes) {
+        started = true;
+        PersistenceService.getInstance().schedule(new Runnable() {
+            @Override
+            public void run() {
+                compact();
+            }
+        }, periodMinutes, TimeUnit.MINUTES);
+    }
+
+    @Override
+    public void recordImproved(MapLog log, PlayerTime record, int oldRank, int newRank) {
+        long date = record.getDate() == 0 ? System.currentTimeMillis() : record.getDate();
+        append(new Entry(log.getMapName(), record.getPlayer(), record.getTime(), date));
+    }
+
+    /**
+     * Writes an entry and forces it to disk
+     * @param entry the new record
+     */
+    public void append(Entry entry) {
+        byte[] map = entry.map.getBytes(StandardCharsets.UTF_8);
+        byte[] player = entry.player.getBytes(StandardCharsets.UTF_8);
+
+        if(HEADER_SIZE + map.length + player.length > ENTRY_SIZE) {
+            // too long for an entry, save the map the old way
+            List<Entry> one = new ArrayList<>();
+            one.add(entry);
+            snapshotLock.writeLock().lock();
+            try {
+                fold(entry.map, one);
+                synchronized(this) {
+                    next(entry.map);
+                }
+            } finally {
+                snapshotLock.writeLock().unlock();
+            }
+            return;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(ENTRY_SIZE);
+        buffer.position(4);
+        buffer.putInt(entry.time).putLong(entry.date);
+        buffer.putShort((short) map.length).putShort((short) player.length);
+        buffer.put(map).put(player);
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 4, ENTRY_SIZE - 4);
+        buffer.putInt(0, (int) crc.getValue());
+        buffer.clear();
+
+        boolean compactNow;
+        synchronized(this) {
+            try {
+                while(buffer.hasRemaining())
+                    channel.write(buffer);
+                channel.force(false);
+            } catch (IOException e) {
+                e.printStackTrace();
+                System.out.println("# Unable to write record journal entry for: " + entry.player);
+            }
+            add(pending, entry);
+            next(entry.map);
+            compactNow = ++entries == COMPACT_ENTRIES;
+        }
+
+        if(compactNow && started) {
+            PersistenceService.getInstance().submit(new Runnable() {
+                @Override
+                public void run() {
+                    compact();
+                }
+            });
+        }
+    }
+
+    /**
+     * Loads the times file for a map with the records not yet folded into it
+     * @param map the map
+     * @return the MapLog, sorted
+     * @throws IOException if there is no times file and no records
+     */
+    public MapLog load(String map) throws IOException {
+        snapshotLock.readLock().lock();
+        try {
+            MapLog log;
+            List<Entry> waiting = new ArrayList<>();
+            int sequence = entriesFor(map, waiting);
+            try {
+                log = JsonManager.loadFromJson(snapshotPath(map), MapLog.class);
+                log.sort();
+            } catch (IOException e) {
+                if(waiting.isEmpty())
+                    throw e;
+                log = new MapLog(map);
+            }
+            apply(log, waiting);
+            log.setSequence(sequence);
+            return log;
+        } finally {
+            snapshotLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Writes the times file for a map, keeping the fastest of the
+     * file and the log for every player since the log may be older
+     * than a compaction that already wrote the file.
+     * @param log the MapLog to write
+     * @throws IOException if it cant be written
+     */
+    public void save(MapLog log) throws IOException {
+        List<Entry> list = new ArrayList<>();
+        for(PlayerTime pt: log.getRecords())
+            list.add(new Entry(log.getMapName(), pt.getPlayer(), pt.getTime(), 0));
+        if(!fold(log.getMapName(), list))
+            throw new IOException("Unable to save MapLog for map: " + log.getMapName());
+    }
+
+    /**
+     * Moves the journal aside and folds it into the times files
+     */
+    public void compact() {
+        boolean unfolded;
+        synchronized(this) {
+            unfolded = !folding.isEmpty();
+        }
+        if(unfolded) {
+            // the last compaction failed part way, finish it before moving the journal again
+            foldAll();
+            synchronized(this) {
+                if(!folding.isEmpty())
+                    return;
+            }
+        }
+        synchronized(this) {
+            if(entries == 0)
+                return;
+            try {
+                channel.close();
+                Files.move(path, oldPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            } catch (IOException e) {
+                e.printStackTrace();
+                System.out.println("# Unable to rotate the record journal");
+                try {
+                    if(!channel.isOpen()) {
+                        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                        channel.position(channel.size());
+                    }
+                } catch (IOException e1) {
+                    e1.printStackTrace();
+                }
+                return;
+            }
+            folding = pending;
+            pending = new HashMap<>();
+            System.out.println("# Compacting record journal, entries: " + entries);
+            entries = 0;
+        }
+        foldAll();
+    }
+
+    /**
+     * Folds every moved entry into the times files, then
+     * deletes the moved journal
+     */
+    private void foldAll() {
+        List<String> maps;
+        synchronized(this) {
+            maps = new ArrayList<>(folding.keySet());
+        }
+        boolean folded = true;
+        StorageWriter writer = new StorageWriter();
+        List<String> staged = new ArrayList<>();
+        for(String map: maps) {
+            List<Entry> list;
+            synchronized(this) {
+                list = folding.get(map);
+            }
+            if(fold(map, list, writer))
+                staged.add(map);
+            else
+                folded = false;
+        }
+        // every times file goes to disk in one commit, the entries are
+        // kept until then so reads still see them
+        try {
+            writer.commit();
+            synchronized(this) {
+                for(String map: staged)
+                    folding.remove(map);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.out.println("# Unable to commit the record journal into the times files.");
+            folded = false;
+        }
+        // keep the moved journal until every map made it to disk
+        if(folded) {
+            try {
+                Files.deleteIfExists(oldPath);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Applies entries to the times file of a map
+     * @return true if the file was written
+     */
+    private boolean fold(String map, List<Entry> list) {
+        StorageWriter writer = new StorageWriter();
+        if(!fold(map, list, writer))
+            return false;
+        try {
+            writer.commit();
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.out.println("# Unable to fold record journal into MapLog for map: " + map);
+            return false;
+        }
+    }
+
+    /**
+     * Applies entries to the times file of a map and stages it
+     * @return true if the file was staged
+     */
+    private boolean fold(String map, List<Entry> list, StorageWriter writer) {
+        snapshotLock.writeLock().lock();
+        try {
+            MapLog log;
+            try {
+                log = JsonManager.loadFromJson(snapshotPath(map), MapLog.class);
+                log.sort();
+            } catch (IOException e) {
+                log = new MapLog(map);
+            }
+            apply(log, list);
+            try {
+                writer.stage(JsonManager.PATH + snapshotPath(map), JsonManager.json(log, false));
+                return true;
+            } catch (IOException e) {
+                e.printStackTrace();
+                System.out.println("# Unable to fold record journal into MapLog for map: " + map);
+                return false;
+            }
+        } finally {
+            snapshotLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Keeps the fastest of the log and the entries for every player
+     */
+    private static void apply(MapLog log, List<Entry> list) {
+        for(Entry e: list) {
+            PlayerTime pt = new PlayerTime(e.player, 0);
+            pt.setTime(e.time);
+            pt.setDate(e.date);
+            log.updateRecord(pt);
+        }
+    }
+
+    /**
+     * Gets every record not yet folded into the times files
+     * @return the entries, oldest first for each map
+     */
+    public synchronized List<Entry> getEntries() {
+        List<Entry> list = new ArrayList<>();
+        for(List<Entry> entries: folding.values())
+            list.addAll(entries);
+        for(List<Entry> entries: pending.values())
+            list.addAll(entries);
+        return list;
+    }
+
+    /**
+     * Gets a map's record sequence, how many records it has taken this run
+     * @param map the map
+     * @return the sequence
+     */
+    public synchronized int getSequence(String map) {
+        Integer sequence = sequences.get(map);
+        return sequence == null ? 0 : sequence;
+    }
+
+    private void next(String map) {
+        sequences.put(map, getSequence(map) + 1);
+    }
+
+    /**
+     * Gets the entries of a map not yet folded
+     * @param map the map
+     * @param list filled with the entries
+     * @return the map's sequence with those entries
+     */
+    private synchronized int entriesFor(String map, List<Entry> list) {
+        if(folding.containsKey(map))
+            list.addAll(folding.get(map));
+        if(pending.containsKey(map))
+            list.addAll(pending.get(map));
+        return getSequence(map);
+    }
+
+    private static void add(Map<String, List<Entry>> to, Entry entry) {
+        List<Entry> list = to.get(entry.map);
+        if(list == null) {
+            list = new ArrayList<>();
+            to.put(entry.map, list);
+        }
+        list.add(entry);
+    }
+
+    private static int count(Map<String, List<Entry>> of) {
+        int count = 0;
+        for(List<Entry> list: of.values())
+            count += list.size();
+        return count;
+    }
+
+    private static String snapshotPath(String map) {
+        return "data/" + Racing.PATH_TIMES + map + ".JSON";
+    }
+
+    /**
+     * Reads entries from a journal up to the first one that is
+     * torn or fails its check
+     * @return the number of good entries
+     */
+    private static int read(Path file, Map<String, List<Entry>> to) throws IOException {
+        if(!Files.exists(file))
+            return 0;
+        int count = 0;
+        try(FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(ENTRY_SIZE);
+            CRC32 crc = new CRC32();
+            while(true) {
+                buffer.clear();
+                while(buffer.hasRemaining() && in.read(buffer) != -1);
+                if(buffer.hasRemaining())
+                    break;
+                crc.reset();
+                crc.update(buffer.array(), 4, ENTRY_SIZE - 4);
+                buffer.flip();
+                if(buffer.getInt() != (int) crc.getValue())
+                    break;
+                int time = buffer.getInt();
+                long date = buffer.getLong();
+                int mapLength = buffer.getShort();
+                int playerLength = buffer.getShort();
+                if(mapLength < 0 || playerLength < 0 || HEADER_SIZE + mapLength + playerLength > ENTRY_SIZE)
+                    break;
+                String map = new String(buffer.array(), HEADER_SIZE, mapLength, StandardCharsets.UTF_8);
+                String player = new String(buffer.array(), HEADER_SIZE + mapLength, playerLength, StandardCharsets.UTF_8);
+                add(to, new Entry(map, player, time, date));
+                count++;
+            }
+        }
+        return count;
+    }
+
+}
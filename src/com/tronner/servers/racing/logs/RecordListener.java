@@ -0,0 +1,54 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014. Tristan John Whitcher
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.tronner.servers.racing.logs;
+
+/**
+ * Tronner - RecordListener
+ *
+ * Told by the Logger whenever a finish sets a new record for a player,
+ * after the MapLog has been updated, and of every finish if it wants.
+ *
+ * @author TJohnW
+ */
+public abstract class RecordListener {
+
+    /**
+     * Called when a player sets their first or a faster time on a map
+     * @param log the MapLog holding the record
+     * @param record the new record
+     * @param oldRank the rank before, -1 if they had no time
+     * @param newRank the rank now
+     */
+    public abstract void recordImproved(MapLog log, PlayerTime record, int oldRank, int newRank);
+
+    /**
+     * Called for every finish that counts, faster or not, after recordImproved
+     * @param log the MapLog of the map
+     * @param finish the finish, dated
+     */
+    public void finished(MapLog log, PlayerTime finish) {
+    }
+
+}
@@ -0,0 +1,610 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014. Tristan John Whitcher
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.tronner.servers.racing.logs;
+
+import com.tronner.servers.racing.Racing;
+import com.tronner.util.JsonManager;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Tronner - TimesDatabase
+ *
+ * Every map's times in one memory mapped file. The file starts with a
+ * header pointing at two blocks, the index of maps and the player names,
+ * whose position in the block is their id. Each map has a sorted array of
+ * (player id, centiseconds) pairs with room to grow. Blocks and arrays that
+ * outgrow their room are copied to the end of the file, the append area,
+ * and the space they leave is only given back by converting again.
+ *
+ * Reads come straight from the mapping. Opening reads only the index and
+ * the names, so the whole history is ready in milliseconds.
+ *
+ * The mapping is only forced now and then, so the header keeps when it
+ * last was. Records written after that can be lost if the machine goes
+ * down, recover puts them back from the times files and the journal.
+ *
+ * @author TJohnW
+ */
+public class TimesDatabase extends RecordListener {
+
+    public static final int MAGIC = 0x54444231; // TDB1
+
+    public static final int VERSION = 1;
+
+    public static final int HEADER_SIZE = 64;
+
+    private static final int END = 8;
+    private static final int INDEX = 16;
+    private static final int PLAYERS = 24;
+    private static final int FORCED = 32;
+
+    /**
+     * How far apart file times and the clock can be on coarse file systems
+     */
+    private static final long CLOCK_SLACK = 2000;
+
+    /**
+     * Bytes of a map entry after its name, array offset, count and capacity
+     */
+    private static final int ENTRY_SIZE = 8 + 4 + 4;
+
+    private static final int MIN_CAPACITY = 16;
+
+    private static final int INITIAL_SIZE = 1 << 20;
+
+    private RandomAccessFile file;
+
+    private FileChannel channel;
+
+    private MappedByteBuffer buffer;
+
+    /**
+     * Where each map entry is in the file, after its name
+     */
+    private Map<String, Integer> entries = new HashMap<>();
+
+    private List<String> maps = new ArrayList<>();
+
+    private Map<String, Integer> playerIds = new HashMap<>();
+
+    private List<String> players = new ArrayList<>();
+
+    /**
+     * Times changed this run, by map
+     */
+    private Map<String, Integer> sequences = new HashMap<>();
+
+    /**
+     * Opens a database, creating it if it does not exist
+     * @param path the file under the data path
+     * @throws IOException if it cant be opened or is not a times database
+     */
+    public TimesDatabase(String path) throws IOException {
+        File f = new File(JsonManager.PATH + path);
+        boolean create = !f.exists() || f.length() == 0;
+        file = new RandomAccessFile(f, "rw");
+        channel = file.getChannel();
+        map(Math.max(channel.size(), INITIAL_SIZE));
+
+        if(create) {
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            buffer.putLong(END, HEADER_SIZE);
+            buffer.putLong(INDEX, allocateBlock(1024));
+            buffer.putLong(PLAYERS, allocateBlock(16 * 1024));
+        } else if(buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            close();
+            throw new IOException("Not a times database: " + path);
+        }
+        try {
+            readIndex();
+            readPlayers();
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    private void map(long size) throws IOException {
+        if(size > Integer.MAX_VALUE)
+            throw new IOException("Times database over 2GB");
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+    }
+
+    private void readIndex() throws IOException {
+        long end = buffer.getLong(END);
+        int block = block(INDEX, end);
+        int stop = block + 8 + buffer.getInt(block);
+        int p = block + 8;
+        while(p < stop) {
+            String name = readString(p, stop);
+            p += 2 + buffer.getShort(p);
+            check(p + ENTRY_SIZE <= stop, "map entry past its block");
+            long array = buffer.getLong(p);
+            int count = buffer.getInt(p + 8);
+            int capacity = buffer.getInt(p + 12);
+            check(array >= HEADER_SIZE && count >= 0 && capacity >= count
+                    && array + capacity * 8L <= end, "bad times array for " + name);
+            entries.put(name, p);
+            maps.add(name);
+            p += ENTRY_SIZE;
+        }
+    }
+
+    private void readPlayers() throws IOException {
+        int block = block(PLAYERS, buffer.getLong(END));
+        int stop = block + 8 + buffer.getInt(block);
+        int p = block + 8;
+        while(p < stop) {
+            String name = readString(p, stop);
+            p += 2 + buffer.getShort(p);
+            playerIds.put(name, players.size());
+            players.add(name);
+        }
+    }
+
+    /**
+     * Gets a block the header points at, checking it lies in the file
+     * @param pointer where the header keeps the block offset
+     * @param end the end of the used part of the file
+     * @return the offset of the block
+     * @throws IOException if the block is not in the file
+     */
+    private int block(int pointer, long end) throws IOException {
+        check(end >= HEADER_SIZE && end <= buffer.capacity(), "bad end of file " + end);
+        long block = buffer.getLong(pointer);
+        check(block >= HEADER_SIZE && block + 8 <= end, "bad block offset " + block);
+        int used = buffer.getInt((int) block);
+        int capacity = buffer.getInt((int) block + 4);
+        check(used >= 0 && used <= capacity && block + 8 + capacity <= end, "bad block size at " + block);
+        return (int) block;
+    }
+
+    private String readString(int p, int stop) throws IOException {
+        check(p + 2 <= stop, "name past its block");
+        int length = buffer.getShort(p);
+        check(length >= 0 && p + 2 + length <= stop, "bad name length at " + p);
+        byte[] bytes = new byte[length];
+        for(int i = 0; i < bytes.length; i++)
+            bytes[i] = buffer.get(p + 2 + i);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void check(boolean valid, String problem) throws IOException {
+        if(!valid)
+            throw new IOException("Times database is corrupt, " + problem);
+    }
+
+    /**
+     * Takes bytes from the append area, growing the file if needed
+     * @return the offset of the bytes
+     */
+    private int allocate(int bytes) throws IOException {
+        long offset = buffer.getLong(END);
+        long end = offset + bytes;
+        if(end > buffer.capacity())
+            map(Math.max(end, (long) buffer.capacity() * 2));
+        buffer.putLong(END, end);
+        return (int) offset;
+    }
+
+    private int allocateBlock(int capacity) throws IOException {
+        int block = allocate(8 + capacity);
+        buffer.putInt(block, 0);
+        buffer.putInt(block + 4, capacity);
+        return block;
+    }
+
+    /**
+     * Adds bytes to the end of a block, moving it to the append area if full
+     * @param pointer where the header keeps the block offset
+     * @param data the bytes
+     * @return the offset the bytes were written at
+     */
+    private int appendToBlock(int pointer, byte[] data) throws IOException {
+        int block = (int) buffer.getLong(pointer);
+        int used = buffer.getInt(block);
+        int capacity = buffer.getInt(block + 4);
+        if(used + data.length > capacity) {
+            int moved = allocateBlock(Math.max(capacity * 2, used + data.length));
+            copy(block + 8, moved + 8, used);
+            buffer.putInt(moved, used);
+            buffer.putLong(pointer, moved);
+            if(pointer == INDEX) {
+                for(Map.Entry<String, Integer> e: entries.entrySet())
+                    e.setValue(e.getValue() - block + moved);
+            }
+            block = moved;
+        }
+        int at = block + 8 + used;
+        for(int i = 0; i < data.length; i++)
+            buffer.put(at + i, data[i]);
+        buffer.putInt(block, used + data.length);
+        return at;
+    }
+
+    private static byte[] string(String s, int extra) {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        byte[] out = new byte[2 + bytes.length + extra];
+        out[0] = (byte) (bytes.length >> 8);
+        out[1] = (byte) bytes.length;
+        System.arraycopy(bytes, 0, out, 2, bytes.length);
+        return out;
+    }
+
+    /**
+     * Copies bytes forward or backward inside the mapping
+     */
+    private void copy(int from, int to, int length) {
+        if(to < from) {
+            for(int i = 0; i < length; i++)
+                buffer.put(to + i, buffer.get(from + i));
+        } else {
+            for(int i = length - 1; i >= 0; i--)
+                buffer.put(to + i, buffer.get(from + i));
+        }
+    }
+
+    /**
+     * Gets the id of a player
+     * @param player the player
+     * @param create give them an id if they have none
+     * @return the id, or -1
+     */
+    public synchronized int getPlayerId(String player, boolean create) throws IOException {
+        Integer id = playerIds.get(player);
+        if(id != null)
+            return id;
+        if(!create)
+            return -1;
+        appendToBlock(PLAYERS, string(player, 0));
+        playerIds.put(player, players.size());
+        players.add(player);
+        return players.size() - 1;
+    }
+
+    public synchronized String getPlayerName(int id) {
+        return players.get(id);
+    }
+
+    /**
+     * Gets the entry of a map
+     * @param create add the map if it is not in the index
+     * @return the entry position, or -1
+     */
+    private int entry(String map, boolean create) throws IOException {
+        Integer entry = entries.get(map);
+        if(entry != null)
+            return entry;
+        if(!create)
+            return -1;
+        int array = allocate(MIN_CAPACITY * 8);
+        int at = appendToBlock(INDEX, string(map, ENTRY_SIZE));
+        int e = at + 2 + map.getBytes(StandardCharsets.UTF_8).length;
+        buffer.putLong(e, array);
+        buffer.putInt(e + 8, 0);
+        buffer.putInt(e + 12, MIN_CAPACITY);
+        entries.put(map, e);
+        maps.add(map);
+        return e;
+    }
+
+    /**
+     * Gets the names of every map
+     * @return the maps
+     */
+    public synchronized List<String> getMaps() {
+        return new ArrayList<>(maps);
+    }
+
+    /**
+     * Gets the amount of ranks on a map
+     * @param map the map
+     * @return the count, 0 if the map has none
+     */
+    public synchronized int count(String map) {
+        Integer e = entries.get(map);
+        return e == null ? 0 : buffer.getInt(e + 8);
+    }
+
+    private int array(int entry) {
+        return (int) buffer.getLong(entry);
+    }
+
+    /**
+     * Gets the player id at a rank
+     * @param map the map
+     * @param rank the rank, from 1
+     * @return the player id, or -1
+     */
+    public synchronized int getPlayerIdAt(String map, int rank) {
+        Integer e = entries.get(map);
+        if(e == null || rank < 1 || rank > buffer.getInt(e + 8))
+            return -1;
+        return buffer.getInt(array(e) + (rank - 1) * 8);
+    }
+
+    /**
+     * Gets the player at a rank
+     * @param map the map
+     * @param rank the rank, from 1
+     * @return the player, or null
+     */
+    public synchronized String getPlayerAt(String map, int rank) {
+        int id = getPlayerIdAt(map, rank);
+        return id == -1 ? null : players.get(id);
+    }
+
+    /**
+     * Gets the time at a rank
+     * @param map the map
+     * @param rank the rank, from 1
+     * @return the time in centiseconds, or -1
+     */
+    public synchronized int getTimeAt(String map, int rank) {
+        Integer e = entries.get(map);
+        if(e == null || rank < 1 || rank > buffer.getInt(e + 8))
+            return -1;
+        return buffer.getInt(array(e) + (rank - 1) * 8 + 4);
+    }
+
+    /**
+     * Gets the rank of a player on a map
+     * @param map the map
+     * @param player the player
+     * @return the rank, or -1
+     */
+    public synchronized int getRank(String map, String player) {
+        Integer e = entries.get(map);
+        Integer id = playerIds.get(player);
+        if(e == null || id == null)
+            return -1;
+        int index = find(e, id);
+        return index == -1 ? -1 : index + 1;
+    }
+
+    private int find(int entry, int id) {
+        int array = array(entry);
+        int count = buffer.getInt(entry + 8);
+        for(int i = 0; i < count; i++)
+            if(buffer.getInt(array + i * 8) == id)
+                return i;
+        return -1;
+    }
+
+    /**
+     * Sets a players time on a map if it is their first or faster
+     * @param map the map
+     * @param player the player
+     * @param time the time in centiseconds
+     * @return true if it was set
+     */
+    public synchronized boolean update(String map, String player, int time) throws IOException {
+        int e = entry(map, true);
+        int id = getPlayerId(player, true);
+        int count = buffer.getInt(e + 8);
+        int index = find(e, id);
+        int array = array(e);
+
+        if(index != -1) {
+            if(buffer.getInt(array + index * 8 + 4) <= time)
+                return false;
+            copy(array + (index + 1) * 8, array + index * 8, (count - index - 1) * 8);
+            count--;
+        } else if(count == buffer.getInt(e + 12)) {
+            int capacity = count * 2;
+            int moved = allocate(capacity * 8);
+            copy(array, moved, count * 8);
+            buffer.putLong(e, moved);
+            buffer.putInt(e + 12, capacity);
+            array = moved;
+        }
+
+        // after every equal time, like the MapLog
+        int low = 0, high = count;
+        while(low < high) {
+            int mid = (low + high) >>> 1;
+            if(buffer.getInt(array + mid * 8 + 4) <= time)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        copy(array + low * 8, array + (low + 1) * 8, (count - low) * 8);
+        buffer.putInt(array + low * 8, id);
+        buffer.putInt(array + low * 8 + 4, time);
+        buffer.putInt(e + 8, count + 1);
+        Integer sequence = sequences.get(map);
+        sequences.put(map, sequence == null ? 1 : sequence + 1);
+        return true;
+    }
+
+    /**
+     * Gets a map's sequence, how many times it changed this run. Read it
+     * with the ranks while holding the database to know which changes
+     * they have.
+     * @param map the map
+     * @return the sequence
+     */
+    public synchronized int getSequence(String map) {
+        Integer sequence = sequences.get(map);
+        return sequence == null ? 0 : sequence;
+    }
+
+    /**
+     * Writes the times of a map that is not in the database yet
+     * @param log the sorted MapLog
+     */
+    public synchronized void put(MapLog log) throws IOException {
+        if(entries.containsKey(log.getMapName()))
+            throw new IOException("Map already in times database: " + log.getMapName());
+        int count = log.count();
+        int capacity = Math.max(MIN_CAPACITY, Integer.highestOneBit(Math.max(1, count)) * 2);
+        int array = allocate(capacity * 8);
+        int i = 0;
+        Set<Integer> seen = new HashSet<>();
+        for(PlayerTime pt: log.getRecords()) {
+            int id = getPlayerId(pt.getPlayer(), true);
+            // old logs can hold a player twice, the first is the fastest
+            if(i == capacity || !seen.add(id))
+                continue;
+            buffer.putInt(array + i * 8, id);
+            buffer.putInt(array + i * 8 + 4, pt.getTime());
+            i++;
+        }
+        int at = appendToBlock(INDEX, string(log.getMapName(), ENTRY_SIZE));
+        int e = at + 2 + log.getMapName().getBytes(StandardCharsets.UTF_8).length;
+        buffer.putLong(e, array);
+        buffer.putInt(e + 8, i);
+        buffer.putInt(e + 12, capacity);
+        entries.put(log.getMapName(), e);
+        maps.add(log.getMapName());
+    }
+
+    @Override
+    public void recordImproved(MapLog log, PlayerTime record, int oldRank, int newRank) {
+        try {
+            update(log.getMapName(), record.getPlayer(), record.getTime());
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.out.println("# Unable to write to the times database: " + log.getMapName());
+        }
+    }
+
+    /**
+     * Forces the mapping to disk
+     */
+    public synchronized void force() {
+        buffer.putLong(FORCED, System.currentTimeMillis());
+        buffer.force();
+    }
+
+    public synchronized void close() throws IOException {
+        force();
+        channel.close();
+        file.close();
+    }
+
+    /**
+     * Puts back the records written after the mapping was last forced,
+     * which a crash may have lost. Times files written since then are
+     * merged in again, then every record still in the journal. Only
+     * faster times are taken, so records already in are left alone.
+     * @param journal the journal, may be null
+     * @return the records put back
+     * @throws IOException if the database cant be written
+     */
+    public synchronized int recover(RecordJournal journal) throws IOException {
+        long forced = buffer.getLong(FORCED);
+        int recovered = 0;
+        File[] files = new File(JsonManager.PATH + "data/" + Racing.PATH_TIMES).listFiles();
+        if(files != null) {
+            for(File f: files) {
+                if(!f.getName().endsWith(".JSON") || f.lastModified() < forced - CLOCK_SLACK)
+                    continue;
+                String map = f.getName().substring(0, f.getName().length() - 5);
+                MapLog log;
+                try {
+                    log = JsonManager.loadFromJson("data/" + Racing.PATH_TIMES + f.getName(), MapLog.class);
+                } catch (IOException e) {
+                    System.out.println("# Unable to read " + f.getName() + " to recover the times database.");
+                    continue;
+                }
+                for(PlayerTime pt: log.getRecords())
+                    if(update(map, pt.getPlayer(), pt.getTime()))
+                        recovered++;
+            }
+        }
+        if(journal != null) {
+            for(RecordJournal.Entry e: journal.getEntries())
+                if(update(e.getMap(), e.getPlayer(), e.getTime()))
+                    recovered++;
+        }
+        force();
+        return recovered;
+    }
+
+    /**
+     * Converts every times file under data/times into a new times
+     * database, with any records still in the journal.
+     * Run with the server stopped.
+     * @param args the database file under data/, times.db by default
+     */
+    public static void main(String[] args) throws IOException {
+        String out = "data/" + (args.length > 0 ? args[0] : Racing.TIMES_DATABASE);
+
+        File[] files = new File(JsonManager.PATH + "data/" + Racing.PATH_TIMES).listFiles();
+        if(files == null) {
+            System.out.println("No times found in data/" + Racing.PATH_TIMES);
+            return;
+        }
+        Arrays.sort(files);
+
+        RecordJournal journal = new RecordJournal("data/" + Racing.JOURNAL);
+        Files.deleteIfExists(Paths.get(JsonManager.PATH + out + ".tmp"));
+        TimesDatabase db = new TimesDatabase(out + ".tmp");
+
+        long parse = 0;
+        int records = 0;
+        for(File f: files) {
+            if(!f.getName().endsWith(".JSON"))
+                continue;
+            String map = f.getName().substring(0, f.getName().length() - 5);
+            long start = System.nanoTime();
+            MapLog log = journal.load(map);
+            parse += System.nanoTime() - start;
+            db.put(log);
+            records += log.count();
+        }
+        db.close();
+        Files.move(Paths.get(JsonManager.PATH + out + ".tmp"), Paths.get(JsonManager.PATH + out),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        long start = System.nanoTime();
+        TimesDatabase opened = new TimesDatabase(out);
+        long open = System.nanoTime() - start;
+        System.out.println("Converted " + opened.getMaps().size() + " maps, " + records + " records, "
+                + opened.players.size() + " players into " + out);
+        System.out.println("Parsing the JSON took " + parse / 1000000 + " ms, opening the database took "
+                + open / 1000000 + " ms");
+        opened.close();
+    }
+
+}
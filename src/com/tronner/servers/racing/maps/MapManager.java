@@ -29,16 +29,23 @@ import com.tronner.parser.Parser;
 import com.tronner.parser.ServerEventListener;
 import com.tronner.servers.racing.RaceTimer;
 import com.tronner.servers.racing.Racing;
+import com.tronner.servers.racing.RoundClock;
 import com.tronner.servers.racing.logs.Logger;
 import com.tronner.servers.racing.logs.PlayerTime;
+import com.tronner.servers.racing.maps.geometry.MapGeometry;
+import com.tronner.servers.racing.maps.geometry.MapGeometryLoader;
 import com.tronner.servers.racing.players.PlayerTracker;
 import com.tronner.servers.racing.lang.LRace;
 import com.tronner.util.JsonManager;
+import com.tronner.util.PersistenceService;
 
 import java.io.IOException;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Tronner - MapManager
@@ -47,12 +54,19 @@ import java.util.Map;
  */
 public class MapManager extends ServerEventListener {
 
+    /**
+     * The game time the map data is announced at
+     */
+    public static final int MAP_DATA_TIME = -3;
+
     private Logger logger;
 
     private PlayerTracker playerTracker;
 
     private RaceTimer raceTimer;
 
+    private RoundClock clock;
+
     private Map<String, RacingMap> maps = new HashMap<>();
     {
         loadMaps();
@@ -64,6 +78,21 @@ public class MapManager extends ServerEventListener {
 
     private Rotation rotation = new Rotation(this);
 
+    /**
+     * Geometry loaded ahead of time on the persistence thread, by map
+     */
+    private Map<String, MapGeometry> prefetchedGeometry = new ConcurrentHashMap<>();
+
+    /**
+     * Maps whose geometry is waiting on or being loaded by the persistence thread
+     */
+    private Set<String> loadingGeometry = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    /**
+     * Maps whose geometry could not be loaded, not tried again
+     */
+    private Set<String> missingGeometry = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
     private RoundMapMethod currentManager = rotation;
     private int plays = -1;
 
@@ -71,12 +100,13 @@ public class MapManager extends ServerEventListener {
     /**
      * Creates the MapManager and loads the maps
      */
-    public MapManager(PlayerTracker pm, Logger lm, RaceTimer rt) {
+    public MapManager(PlayerTracker pm, Logger lm, RaceTimer rt, RoundClock clock) {
         Parser.getInstance().reflectListeners(this);
         queue = new Queue(this, pm);
         logger = lm;
         playerTracker = pm;
         raceTimer = rt;
+        this.clock = clock;
     }
 
     /**
@@ -160,14 +190,12 @@ public class MapManager extends ServerEventListener {
      */
     @Override
     public void ROUND_COMMENCING() {
-        if(currentMap != null  && plays >= Racing.MAP_PLAYS)
-            logger.unloadMapLog(currentMap.getName(), true);
-
         if(!currentManager.isActive())
             currentManager = rotation; // rotation is never "unactive"
 
         if(plays >= Racing.MAP_PLAYS || plays == -1) {
             currentMap = currentManager.next();
+            // queued and next maps were read ahead, the log of any other is still needed now
             logger.loadMapLog(currentMap.getName());
             logger.setCurrentLog(logger.getLog(currentMap.getName()));
             Commands.MAP_FILE(currentMap.getPath());
@@ -177,29 +205,108 @@ public class MapManager extends ServerEventListener {
             plays++;
         }
 
+        // never parse a map here, a miss races without geometry until it has loaded
+        if(currentMap.getGeometry() == null) {
+            MapGeometry geometry = prefetchedGeometry.remove(currentMap.getName());
+            if(geometry != null)
+                currentMap.setGeometry(geometry);
+            else
+                loadGeometry(currentMap);
+        }
+
         if(logger.getCurrentLog().getPlayerFromRank(1) != null) {
-            raceTimer.setTimeLeft((int) logger.getCurrentLog().getPlayerFromRank(1).getTime().doubleValue() + 30);
+            raceTimer.setTimeLeft(logger.getCurrentLog().getPlayerFromRank(1).getTime() / 100 + 30);
         }
 
+        clock.at(MAP_DATA_TIME, new Runnable() {
+            @Override
+            public void run() {
+                announceMapData();
+            }
+        });
+
+        if(plays >= Racing.MAP_PLAYS)
+            prefetch(peekNextMap());
     }
 
-    @Override
-    public void GAME_TIME(int time) {
-        if(currentMap == null)
+    /**
+     * Gets the map the next change of map will most likely load,
+     * the queue may still change before then.
+     * @return the map, or null if there is none
+     */
+    public RacingMap peekNextMap() {
+        if(currentManager.isActive() && currentManager.peek() != null)
+            return currentManager.peek();
+        return rotation.peek();
+    }
+
+    /**
+     * Loads the log, geometry and distance field of a map on the
+     * persistence thread so changing to it reads nothing from disk.
+     * @param map the map to load ahead
+     */
+    public void prefetch(final RacingMap map) {
+        if(map == null || map == currentMap)
             return;
+        logger.prefetch(map.getName());
+        loadGeometry(map);
+    }
 
-        if(time == -3) {
-            playerTracker.notifyMapData(logger);
-            if(logger.getCurrentLog().count() > 0) {
-                String out = LRace.MAP_DATA_TOP.parse(currentMap.getName());
-                for(int i = 0; i < 3; i++) {
-                    PlayerTime current = logger.getCurrentLog().getPlayerFromRank(i+1);
-                    if(current != null) {
-                        out += "\\n" + LRace.MAP_DATA_TOP_TIME.parse(i+1, current.getTime(), current.getPlayer());
-                    } else break;
+    /**
+     * Loads the geometry and distance field of a map on the persistence
+     * thread, unless it has them or they are already on the way
+     * @param map the map
+     */
+    private void loadGeometry(final RacingMap map) {
+        if(map.getGeometry() != null || prefetchedGeometry.containsKey(map.getName())
+                || missingGeometry.contains(map.getName()) || !loadingGeometry.add(map.getName()))
+            return;
+        PersistenceService.getInstance().submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    warmGeometry(map);
+                } finally {
+                    loadingGeometry.remove(map.getName());
                 }
-                Commands.CONSOLE_MESSAGE(out);
             }
+        });
+    }
+
+    /**
+     * Loads the geometry and distance field of a map for when it
+     * is next loaded, safe from any thread
+     * @param map the map
+     */
+    public void warmGeometry(RacingMap map) {
+        MapGeometryLoader loader = new MapGeometryLoader();
+        MapGeometry geometry = loader.load(map);
+        if(geometry == null) {
+            missingGeometry.add(map.getName());
+            return;
+        }
+        geometry.setDistanceField(loader.loadDistanceField(geometry));
+        prefetchedGeometry.put(map.getName(), geometry);
+    }
+
+    /**
+     * Tells every player their time on the current map
+     * and announces the top times.
+     */
+    public void announceMapData() {
+        if(currentMap == null)
+            return;
+
+        playerTracker.notifyMapData(logger);
+        if(logger.getCurrentLog().count() > 0) {
+            String out = LRace.MAP_DATA_TOP.parse(currentMap.getName());
+            for(int i = 0; i < 3; i++) {
+                PlayerTime current = logger.getCurrentLog().getPlayerFromRank(i+1);
+                if(current != null) {
+                    out += "\\n" + LRace.MAP_DATA_TOP_TIME.parse(i+1, current.getSeconds(), current.getPlayer());
+                } else break;
+            }
+            Commands.CONSOLE_MESSAGE(out);
         }
     }
 
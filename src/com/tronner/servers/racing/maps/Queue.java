@@ -28,7 +28,9 @@ import com.tronner.parser.Parser;
 import com.tronner.parser.ServerEventListener;
 import com.tronner.servers.racing.players.PlayerTracker;
 
+import java.util.ArrayList;
 import java.util.LinkedList;
+import java.util.List;
 
 /**
  * Tronner - Queue
@@ -72,6 +74,7 @@ public class Queue extends ServerEventListener implements RoundMapMethod {
      */
     public void addAt(int index, RacingMap map) {
         queue.add(index, map);
+        mapManager.prefetch(map);
     }
 
     /**
@@ -80,6 +83,7 @@ public class Queue extends ServerEventListener implements RoundMapMethod {
      */
     public void add(RacingMap map) {
         queue.addLast(map);
+        mapManager.prefetch(map);
     }
 
     /**
@@ -106,6 +110,38 @@ public class Queue extends ServerEventListener implements RoundMapMethod {
         queue = new LinkedList<>();
     }
 
+    /**
+     * Gets the maps queued, next first
+     * @return a copy of the queue
+     */
+    public List<RacingMap> getMaps() {
+        return new ArrayList<>(queue);
+    }
+
+    /**
+     * Is the queue enabled by the owners
+     * @return true if enabled
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Puts the queue back how it was before a restart
+     * @param maps the maps queued, next first
+     * @param enabled enabled by the owners?
+     * @param active was it playing?
+     */
+    public void restore(List<RacingMap> maps, boolean enabled, boolean active) {
+        queue = new LinkedList<>(maps);
+        for(RacingMap map: queue)
+            mapManager.prefetch(map);
+        this.enabled = enabled;
+        this.active = active;
+        if(isActive())
+            mapManager.setCurrentManager(this);
+    }
+
     /**
      * Attempts to start the queue and activate it
      * @throws QueueEmptyException if the queue is empty
@@ -140,6 +176,11 @@ public class Queue extends ServerEventListener implements RoundMapMethod {
         }
     }
 
+    @Override
+    public RacingMap peek() {
+        return queue.peek();
+    }
+
     /**
      * Thrown when the queue is empty and tried to start
      */
@@ -24,6 +24,8 @@
 
 package com.tronner.servers.racing.maps;
 
+import com.tronner.servers.racing.maps.geometry.MapGeometry;
+
 import java.util.regex.Pattern;
 
 /**
@@ -50,6 +52,11 @@ public class RacingMap {
      */
     private transient String name;
 
+    /**
+     * Loaded in from the map file when the map is played
+     */
+    private transient MapGeometry geometry;
+
     /**
      * Creates an Object to represent a RacingMap
      * parses the path to find the axes, author, and name
@@ -101,4 +108,20 @@ public class RacingMap {
     public String getName() {
         return name;
     }
+
+    /**
+     * Gets the walls and zones of this map
+     * @return the geometry, null if not loaded
+     */
+    public MapGeometry getGeometry() {
+        return geometry;
+    }
+
+    /**
+     * Sets the walls and zones of this map
+     * @param geometry the geometry
+     */
+    public void setGeometry(MapGeometry geometry) {
+        this.geometry = geometry;
+    }
 }
@@ -94,4 +94,46 @@ public class Rotation implements RoundMapMethod {
         }
         return maps.get(currentIndex);
     }
+
+    /**
+     * Gets the map the rotation is on
+     * @return the map, or null before the first
+     */
+    public RacingMap current() {
+        if(currentIndex < 0 || currentIndex >= maps.size())
+            return null;
+        return maps.get(currentIndex);
+    }
+
+    /**
+     * Puts the rotation on a map, so the one after it plays next
+     * @param map the map
+     * @return true if the map is in the rotation
+     */
+    public boolean resumeAfter(RacingMap map) {
+        int index = maps.indexOf(map);
+        if(index == -1)
+            return false;
+        currentIndex = index;
+        return true;
+    }
+
+    /**
+     * Gets the maps the rotation will play next, in order
+     * @param count the most maps to get
+     * @return the maps
+     */
+    public List<RacingMap> upcoming(int count) {
+        List<RacingMap> out = new ArrayList<>();
+        for(int i = 1; i <= Math.min(count, maps.size()); i++)
+            out.add(maps.get((currentIndex + i) % maps.size()));
+        return out;
+    }
+
+    @Override
+    public RacingMap peek() {
+        if(maps.size() <= 0)
+            return null;
+        return maps.get(currentIndex == maps.size() - 1 ? 0 : currentIndex + 1);
+    }
 }
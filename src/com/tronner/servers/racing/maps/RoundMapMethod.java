@@ -42,4 +42,10 @@ public interface RoundMapMethod {
      */
     public RacingMap next();
 
+    /**
+     * Gets the map next would return, without progressing
+     * @return the next map, or null if there is none
+     */
+    public RacingMap peek();
+
 }
@@ -0,0 +1,278 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014. Tristan John Whitcher
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.tronner.servers.racing.maps.geometry;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Tronner - DistanceField
+ *
+ * The path length from every cell of a grid over a map to the
+ * nearest target zone, going around walls and death zones. Built
+ * once per map, after that the distance left for a racer is one
+ * array read.
+ *
+ * @author TJohnW
+ */
+public class DistanceField {
+
+    /**
+     * Bumped when the binary layout or how fields are built changes
+     */
+    public static final int VERSION = 2;
+
+    /**
+     * Preferred size of a cell in game units
+     */
+    public static final float CELL = 4f;
+
+    /**
+     * Keeps huge maps from building huge grids, the cell grows instead
+     */
+    public static final int MAX_SIDE = 512;
+
+    /**
+     * Distance of cells a target can not be reached from
+     */
+    public static final float UNREACHABLE = Float.MAX_VALUE;
+
+    private static final float DIAGONAL = (float) Math.sqrt(2);
+
+    private float minX;
+    private float minY;
+    private float cell;
+    private int width;
+    private int height;
+
+    private float[] distance;
+
+    private DistanceField(float minX, float minY, float cell, int width, int height, float[] distance) {
+        this.minX = minX;
+        this.minY = minY;
+        this.cell = cell;
+        this.width = width;
+        this.height = height;
+        this.distance = distance;
+    }
+
+    /**
+     * Distance left to the nearest target from a position
+     * @param x the x position
+     * @param y the y position
+     * @return the distance in game units, UNREACHABLE if there is no way
+     */
+    public float distanceAt(float x, float y) {
+        int cx = Math.max(0, Math.min(width - 1, (int) ((x - minX) / cell)));
+        int cy = Math.max(0, Math.min(height - 1, (int) ((y - minY) / cell)));
+        float d = distance[cx + cy * width];
+        if(d != UNREACHABLE)
+            return d;
+        // racers hugging a wall sit in a blocked cell, use the best neighbour
+        for(int gy = Math.max(cy - 1, 0); gy <= Math.min(cy + 1, height - 1); gy++)
+            for(int gx = Math.max(cx - 1, 0); gx <= Math.min(cx + 1, width - 1); gx++)
+                if(distance[gx + gy * width] != UNREACHABLE)
+                    d = Math.min(d, distance[gx + gy * width] + cell);
+        return d;
+    }
+
+    /**
+     * Runs Dijkstra outward from every target zone cell over
+     * the cells not covered by walls or death zones.
+     * @param g the geometry of the map
+     * @return the field
+     */
+    public static DistanceField build(MapGeometry g) {
+        float cell = Math.max(CELL, Math.max(g.getMaxX() - g.getMinX(), g.getMaxY() - g.getMinY()) / MAX_SIDE);
+        float minX = g.getMinX() - cell;
+        float minY = g.getMinY() - cell;
+        int width = (int) Math.ceil((g.getMaxX() - minX) / cell) + 1;
+        int height = (int) Math.ceil((g.getMaxY() - minY) / cell) + 1;
+
+        boolean[] blocked = new boolean[width * height];
+        float[] walls = g.getWalls();
+        for(int w = 0; w < walls.length; w += 4) {
+            float dx = walls[w + 2] - walls[w], dy = walls[w + 3] - walls[w + 1];
+            int steps = (int) Math.ceil(Math.hypot(dx, dy) / (cell / 2)) + 1;
+            for(int s = 0; s <= steps; s++) {
+                int cx = (int) ((walls[w] + dx * s / steps - minX) / cell);
+                int cy = (int) ((walls[w + 1] + dy * s / steps - minY) / cell);
+                if(cx >= 0 && cy >= 0 && cx < width && cy < height)
+                    blocked[cx + cy * width] = true;
+            }
+        }
+
+        float[] distance = new float[width * height];
+        Arrays.fill(distance, UNREACHABLE);
+        Heap heap = new Heap(width * height);
+        float[] zones = g.getZones();
+        for(int z = 0; z < g.zoneCount(); z++) {
+            int type = g.getZoneType(z);
+            if(type == MapGeometry.ZONE_OTHER)
+                continue;
+            float zx = zones[z * 3], zy = zones[z * 3 + 1], r = zones[z * 3 + 2];
+            for(int cy = (int) ((zy - r - minY) / cell); cy <= (int) ((zy + r - minY) / cell); cy++)
+                for(int cx = (int) ((zx - r - minX) / cell); cx <= (int) ((zx + r - minX) / cell); cx++) {
+                    if(cx < 0 || cy < 0 || cx >= width || cy >= height)
+                        continue;
+                    if(Math.hypot(minX + (cx + 0.5f) * cell - zx, minY + (cy + 0.5f) * cell - zy) > r + cell / 2)
+                        continue;
+                    int c = cx + cy * width;
+                    if(type == MapGeometry.ZONE_DEATH) {
+                        blocked[c] = true;
+                    } else if(!blocked[c]) {
+                        distance[c] = 0;
+                        heap.push(c, 0);
+                    }
+                }
+        }
+
+        while(heap.size() > 0) {
+            int c = heap.pop();
+            float d = distance[c];
+            if(heap.popped() > d)
+                continue;
+            int cx = c % width, cy = c / width;
+            for(int gy = Math.max(cy - 1, 0); gy <= Math.min(cy + 1, height - 1); gy++)
+                for(int gx = Math.max(cx - 1, 0); gx <= Math.min(cx + 1, width - 1); gx++) {
+                    int n = gx + gy * width;
+                    if(blocked[n])
+                        continue;
+                    // walls are only 8 connected, a diagonal step must not slip between two wall cells
+                    if(gx != cx && gy != cy && (blocked[gx + cy * width] || blocked[cx + gy * width]))
+                        continue;
+                    float nd = d + ((gx != cx && gy != cy) ? DIAGONAL : 1) * cell;
+                    if(nd < distance[n]) {
+                        distance[n] = nd;
+                        heap.push(n, nd);
+                    }
+                }
+        }
+        return new DistanceField(minX, minY, cell, width, height, distance);
+    }
+
+    /**
+     * Writes the binary form
+     * @param out the stream
+     * @throws IOException
+     */
+    public void write(DataOutputStream out) throws IOException {
+        out.writeInt(VERSION);
+        out.writeFloat(minX);
+        out.writeFloat(minY);
+        out.writeFloat(cell);
+        out.writeInt(width);
+        out.writeInt(height);
+        for(float d: distance)
+            out.writeFloat(d);
+    }
+
+    /**
+     * Reads the binary form
+     * @param in the stream
+     * @return the field
+     * @throws IOException if unreadable or from another version
+     */
+    public static DistanceField read(DataInputStream in) throws IOException {
+        if(in.readInt() != VERSION)
+            throw new IOException("Distance field cache is from another version.");
+        float minX = in.readFloat();
+        float minY = in.readFloat();
+        float cell = in.readFloat();
+        int width = in.readInt();
+        int height = in.readInt();
+        float[] distance = new float[width * height];
+        for(int i = 0; i < distance.length; i++)
+            distance[i] = in.readFloat();
+        return new DistanceField(minX, minY, cell, width, height, distance);
+    }
+
+    /**
+     * A binary min heap of cells keyed by distance, stale
+     * entries are skipped when popped.
+     */
+    private static class Heap {
+
+        private int[] cells;
+        private float[] keys;
+        private int size;
+        private float popped;
+
+        public Heap(int capacity) {
+            cells = new int[Math.max(capacity, 16)];
+            keys = new float[cells.length];
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public void push(int c, float key) {
+            if(size == cells.length) {
+                cells = Arrays.copyOf(cells, size * 2);
+                keys = Arrays.copyOf(keys, size * 2);
+            }
+            int i = size++;
+            while(i > 0 && keys[(i - 1) / 2] > key) {
+                cells[i] = cells[(i - 1) / 2];
+                keys[i] = keys[(i - 1) / 2];
+                i = (i - 1) / 2;
+            }
+            cells[i] = c;
+            keys[i] = key;
+        }
+
+        /**
+         * The key of the cell last popped
+         */
+        public float popped() {
+            return popped;
+        }
+
+        public int pop() {
+            int top = cells[0];
+            popped = keys[0];
+            int lastCell = cells[--size];
+            float lastKey = keys[size];
+            int i = 0;
+            while(i * 2 + 1 < size) {
+                int child = i * 2 + 1;
+                if(child + 1 < size && keys[child + 1] < keys[child])
+                    child++;
+                if(keys[child] >= lastKey)
+                    break;
+                cells[i] = cells[child];
+                keys[i] = keys[child];
+                i = child;
+            }
+            cells[i] = lastCell;
+            keys[i] = lastKey;
+            return top;
+        }
+    }
+
+}
@@ -0,0 +1,344 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014. Tristan John Whitcher
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.tronner.servers.racing.maps.geometry;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Tronner - MapGeometry
+ *
+ * The spawns, walls and zones of a map as flat arrays, with a grid
+ * over them to answer which wall or zone is near a position.
+ *
+ * @author TJohnW
+ */
+public class MapGeometry {
+
+    /**
+     * Bumped when the binary layout changes
+     */
+    public static final int VERSION = 1;
+
+    /**
+     * Size of a grid cell in game units
+     */
+    public static final float CELL = 20f;
+
+    public static final int ZONE_OTHER = 0;
+    public static final int ZONE_TARGET = 1;
+    public static final int ZONE_DEATH = 2;
+
+    /**
+     * x, y, xdir, ydir of each spawn
+     */
+    private float[] spawns;
+
+    /**
+     * x1, y1, x2, y2 of each wall segment
+     */
+    private float[] walls;
+
+    /**
+     * x, y, radius of each zone, polygons are kept as
+     * the circle around their points
+     */
+    private float[] zones;
+
+    /**
+     * The ZONE_ type of each zone
+     */
+    private int[] zoneTypes;
+
+    private float minX;
+    private float minY;
+    private float maxX;
+    private float maxY;
+
+    private SpatialGrid wallGrid;
+    private SpatialGrid zoneGrid;
+
+    /**
+     * The hash of the map file this was read from
+     */
+    private String hash;
+
+    /**
+     * The distance field, once something has loaded it
+     */
+    private DistanceField distanceField;
+
+    public MapGeometry(float[] spawns, float[] walls, float[] zones, int[] zoneTypes) {
+        this.spawns = spawns;
+        this.walls = walls;
+        this.zones = zones;
+        this.zoneTypes = zoneTypes;
+        index();
+    }
+
+    /**
+     * Finds the bounds and buckets the walls and zones
+     */
+    private void index() {
+        minX = minY = Float.MAX_VALUE;
+        maxX = maxY = -Float.MAX_VALUE;
+        for(int i = 0; i < walls.length; i += 2)
+            include(walls[i], walls[i + 1]);
+        for(int i = 0; i < spawns.length; i += 4)
+            include(spawns[i], spawns[i + 1]);
+        for(int i = 0; i < zones.length; i += 3) {
+            include(zones[i] - zones[i + 2], zones[i + 1] - zones[i + 2]);
+            include(zones[i] + zones[i + 2], zones[i + 1] + zones[i + 2]);
+        }
+        if(minX > maxX) {
+            minX = minY = maxX = maxY = 0;
+        }
+
+        float[] boxes = new float[walls.length];
+        for(int i = 0; i < walls.length; i += 4) {
+            boxes[i] = Math.min(walls[i], walls[i + 2]);
+            boxes[i + 1] = Math.min(walls[i + 1], walls[i + 3]);
+            boxes[i + 2] = Math.max(walls[i], walls[i + 2]);
+            boxes[i + 3] = Math.max(walls[i + 1], walls[i + 3]);
+        }
+        wallGrid = new SpatialGrid(boxes, minX, minY, maxX, maxY, CELL);
+
+        boxes = new float[zoneTypes.length * 4];
+        for(int z = 0; z < zoneTypes.length; z++) {
+            float r = zones[z * 3 + 2];
+            boxes[z * 4] = zones[z * 3] - r;
+            boxes[z * 4 + 1] = zones[z * 3 + 1] - r;
+            boxes[z * 4 + 2] = zones[z * 3] + r;
+            boxes[z * 4 + 3] = zones[z * 3 + 1] + r;
+        }
+        zoneGrid = new SpatialGrid(boxes, minX, minY, maxX, maxY, CELL);
+    }
+
+    private void include(float x, float y) {
+        minX = Math.min(minX, x);
+        minY = Math.min(minY, y);
+        maxX = Math.max(maxX, x);
+        maxY = Math.max(maxY, y);
+    }
+
+    /**
+     * Finds the zone a position is in
+     * @param x the x position
+     * @param y the y position
+     * @return the zone or -1 if in none
+     */
+    public int zoneAt(float x, float y) {
+        int c = zoneGrid.cellAt(x, y);
+        for(int i = zoneGrid.from(c); i < zoneGrid.to(c); i++) {
+            int z = zoneGrid.item(i);
+            float dx = x - zones[z * 3];
+            float dy = y - zones[z * 3 + 1];
+            if(dx * dx + dy * dy <= zones[z * 3 + 2] * zones[z * 3 + 2])
+                return z;
+        }
+        return -1;
+    }
+
+    /**
+     * Finds the closest wall segment around a position, every wall
+     * within one cell of it is seen, further walls may not be.
+     * @param x the x position
+     * @param y the y position
+     * @return the segment or -1 if none is near
+     */
+    public int wallNear(float x, float y) {
+        int cx = wallGrid.cellX(x);
+        int cy = wallGrid.cellY(y);
+        int best = -1;
+        float bestDist = Float.MAX_VALUE;
+        for(int gy = Math.max(cy - 1, 0); gy <= Math.min(cy + 1, wallGrid.getHeight() - 1); gy++)
+            for(int gx = Math.max(cx - 1, 0); gx <= Math.min(cx + 1, wallGrid.getWidth() - 1); gx++) {
+                int c = gx + gy * wallGrid.getWidth();
+                for(int i = wallGrid.from(c); i < wallGrid.to(c); i++) {
+                    int w = wallGrid.item(i);
+                    float dist = distanceToWall(w, x, y);
+                    if(dist < bestDist) {
+                        bestDist = dist;
+                        best = w;
+                    }
+                }
+            }
+        return best;
+    }
+
+    /**
+     * Distance from a position to a wall segment
+     * @param w the segment
+     * @param x the x position
+     * @param y the y position
+     * @return the distance
+     */
+    public float distanceToWall(int w, float x, float y) {
+        float x1 = walls[w * 4], y1 = walls[w * 4 + 1];
+        float dx = walls[w * 4 + 2] - x1, dy = walls[w * 4 + 3] - y1;
+        float len = dx * dx + dy * dy;
+        float f = len == 0 ? 0 : Math.max(0, Math.min(1, ((x - x1) * dx + (y - y1) * dy) / len));
+        return (float) Math.hypot(x1 + f * dx - x, y1 + f * dy - y);
+    }
+
+    /**
+     * Does the segment between two positions cross a wall,
+     * only walls bucketed along the way are checked.
+     * @return true if a wall is in the way
+     */
+    public boolean crossesWall(float ax, float ay, float bx, float by) {
+        int c1 = wallGrid.cellX(Math.min(ax, bx)), c2 = wallGrid.cellX(Math.max(ax, bx));
+        int r1 = wallGrid.cellY(Math.min(ay, by)), r2 = wallGrid.cellY(Math.max(ay, by));
+        for(int gy = r1; gy <= r2; gy++)
+            for(int gx = c1; gx <= c2; gx++) {
+                int c = gx + gy * wallGrid.getWidth();
+                for(int i = wallGrid.from(c); i < wallGrid.to(c); i++)
+                    if(intersects(wallGrid.item(i), ax, ay, bx, by))
+                        return true;
+            }
+        return false;
+    }
+
+    private boolean intersects(int w, float ax, float ay, float bx, float by) {
+        float cx = walls[w * 4], cy = walls[w * 4 + 1], dx = walls[w * 4 + 2], dy = walls[w * 4 + 3];
+        float d1 = cross(cx, cy, dx, dy, ax, ay);
+        float d2 = cross(cx, cy, dx, dy, bx, by);
+        float d3 = cross(ax, ay, bx, by, cx, cy);
+        float d4 = cross(ax, ay, bx, by, dx, dy);
+        return ((d1 > 0) != (d2 > 0)) && ((d3 > 0) != (d4 > 0)) && d1 != 0 && d2 != 0 && d3 != 0 && d4 != 0;
+    }
+
+    private static float cross(float ox, float oy, float ax, float ay, float px, float py) {
+        return (ax - ox) * (py - oy) - (ay - oy) * (px - ox);
+    }
+
+    public int spawnCount() {
+        return spawns.length / 4;
+    }
+
+    public float[] getSpawns() {
+        return spawns;
+    }
+
+    public int wallCount() {
+        return walls.length / 4;
+    }
+
+    public float[] getWalls() {
+        return walls;
+    }
+
+    public int zoneCount() {
+        return zoneTypes.length;
+    }
+
+    public float[] getZones() {
+        return zones;
+    }
+
+    public int getZoneType(int zone) {
+        return zoneTypes[zone];
+    }
+
+    public String getHash() {
+        return hash;
+    }
+
+    public void setHash(String hash) {
+        this.hash = hash;
+    }
+
+    public DistanceField getDistanceField() {
+        return distanceField;
+    }
+
+    public void setDistanceField(DistanceField distanceField) {
+        this.distanceField = distanceField;
+    }
+
+    public float getMinX() {
+        return minX;
+    }
+
+    public float getMinY() {
+        return minY;
+    }
+
+    public float getMaxX() {
+        return maxX;
+    }
+
+    public float getMaxY() {
+        return maxY;
+    }
+
+    /**
+     * Writes the compact binary form
+     * @param out the stream
+     * @throws IOException
+     */
+    public void write(DataOutputStream out) throws IOException {
+        out.writeInt(VERSION);
+        writeFloats(out, spawns);
+        writeFloats(out, walls);
+        writeFloats(out, zones);
+        out.writeInt(zoneTypes.length);
+        for(int type: zoneTypes)
+            out.writeByte(type);
+    }
+
+    /**
+     * Reads the compact binary form
+     * @param in the stream
+     * @return the geometry
+     * @throws IOException if the data is not readable or from another version
+     */
+    public static MapGeometry read(DataInputStream in) throws IOException {
+        if(in.readInt() != VERSION)
+            throw new IOException("Geometry cache is from another version.");
+        float[] spawns = readFloats(in);
+        float[] walls = readFloats(in);
+        float[] zones = readFloats(in);
+        int[] zoneTypes = new int[in.readInt()];
+        for(int i = 0; i < zoneTypes.length; i++)
+            zoneTypes[i] = in.readByte();
+        return new MapGeometry(spawns, walls, zones, zoneTypes);
+    }
+
+    private static void writeFloats(DataOutputStream out, float[] values) throws IOException {
+        out.writeInt(values.length);
+        for(float v: values)
+            out.writeFloat(v);
+    }
+
+    private static float[] readFloats(DataInputStream in) throws IOException {
+        float[] values = new float[in.readInt()];
+        for(int i = 0; i < values.length; i++)
+            values[i] = in.readFloat();
+        return values;
+    }
+
+}
@@ -0,0 +1,288 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014. Tristan John Whitcher
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.tronner.servers.racing.maps.geometry;
+
+import com.tronner.Application;
+import com.tronner.servers.racing.maps.RacingMap;
+import com.tronner.util.JsonManager;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.*;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tronner - MapGeometryLoader
+ *
+ * Reads the geometry of a map out of its .aamap.xml. The result is
+ * cached in a compact binary file named by the hash of the xml, so a
+ * map is only parsed again when its file changes.
+ *
+ * @author TJohnW
+ */
+public class MapGeometryLoader {
+
+    public static final String PATH_CACHE = "data/geometry/";
+
+    private XMLInputFactory factory = XMLInputFactory.newInstance();
+    {
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    }
+
+    /**
+     * Loads the geometry of a map, from the cache if it is there
+     * @param map the map
+     * @return the geometry, or null if the map file can not be read
+     */
+    public MapGeometry load(RacingMap map) {
+        File xml = new File(JsonManager.PATH + Application.getConfig().resource_path + map.getPath());
+        try {
+            byte[] data = Files.readAllBytes(xml.toPath());
+            String hash = hash(data);
+            File cached = new File(JsonManager.PATH + PATH_CACHE + hash + ".bin");
+
+            if(cached.exists()) {
+                try(DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(cached)))) {
+                    MapGeometry geometry = MapGeometry.read(in);
+                    geometry.setHash(hash);
+                    return geometry;
+                } catch (IOException e) {
+                    System.out.println("# Geometry cache unreadable, parsing again: " + map.getName());
+                }
+            }
+
+            MapGeometry geometry = parse(new ByteArrayInputStream(data));
+            geometry.setHash(hash);
+            cached.getParentFile().mkdirs();
+            try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(cached)))) {
+                geometry.write(out);
+            }
+            return geometry;
+        } catch (IOException | XMLStreamException e) {
+            System.out.println("# Unable to load geometry for map: " + map.getName());
+            return null;
+        }
+    }
+
+    /**
+     * Loads the distance field of a map, building and
+     * caching it the first time the map is seen.
+     * @param geometry the geometry of the map
+     * @return the field
+     */
+    public DistanceField loadDistanceField(MapGeometry geometry) {
+        File cached = new File(JsonManager.PATH + PATH_CACHE + geometry.getHash() + ".dist");
+        if(geometry.getHash() != null && cached.exists()) {
+            try(DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(cached)))) {
+                return DistanceField.read(in);
+            } catch (IOException e) {
+                System.out.println("# Distance field cache unreadable, building it again.");
+            }
+        }
+
+        DistanceField field = DistanceField.build(geometry);
+        if(geometry.getHash() != null) {
+            cached.getParentFile().mkdirs();
+            try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(cached)))) {
+                field.write(out);
+            } catch (IOException e) {
+                System.out.println("# Unable to cache distance field.");
+            }
+        }
+        return field;
+    }
+
+    /**
+     * Stream parses the walls, spawns and zones of an aamap
+     * @param xml the map file
+     * @return the geometry
+     * @throws XMLStreamException if the xml is broken
+     */
+    public MapGeometry parse(InputStream xml) throws XMLStreamException {
+        FloatList spawns = new FloatList();
+        FloatList walls = new FloatList();
+        FloatList zones = new FloatList();
+        List<Integer> zoneTypes = new ArrayList<>();
+
+        // what we are inside of while reading points
+        boolean inWall = false;
+        boolean inZone = false;
+        int zoneType = MapGeometry.ZONE_OTHER;
+        float radius = 0;
+        FloatList points = new FloatList();
+
+        XMLStreamReader reader = factory.createXMLStreamReader(xml);
+        try {
+            while(reader.hasNext()) {
+                int event = reader.next();
+                if(event == XMLStreamReader.START_ELEMENT) {
+                    switch(reader.getLocalName()) {
+                        case "Spawn":
+                            float x = attr(reader, "x", 0);
+                            float y = attr(reader, "y", 0);
+                            float xDir = attr(reader, "xdir", Float.NaN);
+                            float yDir = attr(reader, "ydir", Float.NaN);
+                            if(Float.isNaN(xDir) || Float.isNaN(yDir)) {
+                                double angle = Math.toRadians(attr(reader, "angle", 0));
+                                xDir = (float) Math.cos(angle);
+                                yDir = (float) Math.sin(angle);
+                            }
+                            spawns.add(x, y, xDir, yDir);
+                            break;
+                        case "Wall":
+                            inWall = true;
+                            points.clear();
+                            break;
+                        case "Zone":
+                            inZone = true;
+                            zoneType = zoneType(reader.getAttributeValue(null, "effect"));
+                            radius = 0;
+                            points.clear();
+                            break;
+                        case "ShapeCircle":
+                            radius = attr(reader, "radius", 0);
+                            break;
+                        case "Point":
+                            if(inWall || inZone)
+                                points.add(attr(reader, "x", 0), attr(reader, "y", 0));
+                            break;
+                    }
+                } else if(event == XMLStreamReader.END_ELEMENT) {
+                    switch(reader.getLocalName()) {
+                        case "Wall":
+                            for(int i = 2; i < points.size(); i += 2)
+                                walls.add(points.get(i - 2), points.get(i - 1), points.get(i), points.get(i + 1));
+                            inWall = false;
+                            break;
+                        case "Zone":
+                            addZone(zones, points, radius);
+                            zoneTypes.add(zoneType);
+                            inZone = false;
+                            break;
+                    }
+                }
+            }
+        } finally {
+            reader.close();
+        }
+
+        int[] types = new int[zoneTypes.size()];
+        for(int i = 0; i < types.length; i++)
+            types[i] = zoneTypes.get(i);
+        return new MapGeometry(spawns.toArray(), walls.toArray(), zones.toArray(), types);
+    }
+
+    /**
+     * Adds a zone as a circle, a single point is the center of a
+     * circle shape and more points are a polygon.
+     */
+    private void addZone(FloatList zones, FloatList points, float radius) {
+        int n = points.size() / 2;
+        float cx = 0, cy = 0;
+        for(int i = 0; i < n; i++) {
+            cx += points.get(i * 2) / n;
+            cy += points.get(i * 2 + 1) / n;
+        }
+        for(int i = 0; i < n && n > 1; i++)
+            radius = Math.max(radius, (float) Math.hypot(points.get(i * 2) - cx, points.get(i * 2 + 1) - cy));
+        zones.add(cx, cy, radius);
+    }
+
+    private int zoneType(String effect) {
+        if(effect == null)
+            return MapGeometry.ZONE_OTHER;
+        switch(effect.toLowerCase()) {
+            case "win":
+            case "target":
+                return MapGeometry.ZONE_TARGET;
+            case "death":
+                return MapGeometry.ZONE_DEATH;
+            default:
+                return MapGeometry.ZONE_OTHER;
+        }
+    }
+
+    private float attr(XMLStreamReader reader, String name, float fallback) {
+        String value = reader.getAttributeValue(null, name);
+        if(value == null)
+            return fallback;
+        try {
+            return Float.parseFloat(value);
+        } catch(NumberFormatException e) {
+            return fallback;
+        }
+    }
+
+    private String hash(byte[] data) {
+        try {
+            StringBuilder sb = new StringBuilder();
+            for(byte b: MessageDigest.getInstance("SHA-1").digest(data))
+                sb.append(String.format("%02x", b));
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            return Integer.toHexString(Arrays.hashCode(data));
+        }
+    }
+
+    /**
+     * A growable float array, keeps the parser from boxing every coordinate.
+     */
+    private static class FloatList {
+
+        private float[] values = new float[32];
+        private int size;
+
+        public void add(float... v) {
+            if(size + v.length > values.length)
+                values = Arrays.copyOf(values, Math.max(values.length * 2, size + v.length));
+            System.arraycopy(v, 0, values, size, v.length);
+            size += v.length;
+        }
+
+        public float get(int i) {
+            return values[i];
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public void clear() {
+            size = 0;
+        }
+
+        public float[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+
+}
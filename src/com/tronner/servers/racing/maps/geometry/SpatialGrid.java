@@ -0,0 +1,152 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014. Tristan John Whitcher
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.tronner.servers.racing.maps.geometry;
+
+/**
+ * Tronner - SpatialGrid
+ *
+ * A uniform grid that buckets items by the cells their bounding
+ * boxes cover, so finding the items near a position is one cell
+ * lookup. Built once and read only afterwards.
+ *
+ * @author TJohnW
+ */
+public class SpatialGrid {
+
+    private final float minX;
+    private final float minY;
+    private final float cell;
+    private final int width;
+    private final int height;
+
+    /**
+     * Cell c owns items[start[c]] up to items[start[c + 1]]
+     */
+    private final int[] start;
+    private final int[] items;
+
+    /**
+     * Buckets items given as bounding boxes, four floats each:
+     * minX, minY, maxX, maxY.
+     * @param boxes the bounding boxes
+     * @param minX the left of the area
+     * @param minY the bottom of the area
+     * @param maxX the right of the area
+     * @param maxY the top of the area
+     * @param cell the size of a cell
+     */
+    public SpatialGrid(float[] boxes, float minX, float minY, float maxX, float maxY, float cell) {
+        this.minX = minX;
+        this.minY = minY;
+        this.cell = cell;
+        width = Math.max(1, (int) Math.ceil((maxX - minX) / cell));
+        height = Math.max(1, (int) Math.ceil((maxY - minY) / cell));
+
+        int n = boxes.length / 4;
+        start = new int[width * height + 1];
+        for(int i = 0; i < n; i++)
+            for(int gy = cellY(boxes[i * 4 + 1]); gy <= cellY(boxes[i * 4 + 3]); gy++)
+                for(int gx = cellX(boxes[i * 4]); gx <= cellX(boxes[i * 4 + 2]); gx++)
+                    start[gx + gy * width + 1]++;
+        for(int c = 0; c < width * height; c++)
+            start[c + 1] += start[c];
+
+        items = new int[start[width * height]];
+        int[] fill = new int[width * height];
+        for(int i = 0; i < n; i++)
+            for(int gy = cellY(boxes[i * 4 + 1]); gy <= cellY(boxes[i * 4 + 3]); gy++)
+                for(int gx = cellX(boxes[i * 4]); gx <= cellX(boxes[i * 4 + 2]); gx++) {
+                    int c = gx + gy * width;
+                    items[start[c] + fill[c]++] = i;
+                }
+    }
+
+    public int cellX(float x) {
+        return Math.max(0, Math.min(width - 1, (int) ((x - minX) / cell)));
+    }
+
+    public int cellY(float y) {
+        return Math.max(0, Math.min(height - 1, (int) ((y - minY) / cell)));
+    }
+
+    /**
+     * The cell a position falls in, positions outside
+     * the area use the closest edge cell.
+     * @param x the x position
+     * @param y the y position
+     * @return the cell
+     */
+    public int cellAt(float x, float y) {
+        return cellX(x) + cellY(y) * width;
+    }
+
+    /**
+     * Where the items of a cell start in items()
+     * @param cell the cell
+     * @return the first index
+     */
+    public int from(int cell) {
+        return start[cell];
+    }
+
+    /**
+     * Where the items of a cell end in items(), exclusive
+     * @param cell the cell
+     * @return the end index
+     */
+    public int to(int cell) {
+        return start[cell + 1];
+    }
+
+    /**
+     * Gets an item bucketed in a cell
+     * @param i the index between from and to
+     * @return the item
+     */
+    public int item(int i) {
+        return items[i];
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public float getCell() {
+        return cell;
+    }
+
+    public float getMinX() {
+        return minX;
+    }
+
+    public float getMinY() {
+        return minY;
+    }
+
+}
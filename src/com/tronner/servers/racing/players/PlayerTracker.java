@@ -29,6 +29,7 @@ import com.tronner.parser.Parser;
 import com.tronner.parser.ServerEventListener;
 import com.tronner.servers.racing.lang.LRace;
 import com.tronner.servers.racing.logs.Logger;
+import com.tronner.servers.racing.logs.PlayerTime;
 
 import java.math.BigDecimal;
 import java.util.ArrayList;
@@ -129,7 +130,7 @@ public class PlayerTracker extends ServerEventListener {
             int totalRanks = logger.getCurrentLog().count();
             int rank = logger.getCurrentLog().getRank(p.getId());
             if(rank != -1) {
-                BigDecimal time = logger.getCurrentLog().getTime(p.getId());
+                BigDecimal time = PlayerTime.toSeconds(logger.getCurrentLog().getTime(p.getId()));
                 LRace.PLAYER_DATA.parseOutPlayer(p.getId(), logger.getCurrentLog().getMapName(), time, rank, totalRanks);
             } else {
                 LRace.PLAYER_DATA_UNRANKED.parseOutPlayer(p.getId(), logger.getCurrentLog().getMapName(), totalRanks);
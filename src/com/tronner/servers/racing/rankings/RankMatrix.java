@@ -0,0 +1,262 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014. Tristan John Whitcher
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.tronner.servers.racing.rankings;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tronner - RankMatrix
+ *
+ * Every player's rank on every map in one int array, a row per player.
+ * Players are given ids in the order they are first added and maps keep
+ * the order they were given in. A player's sum is then a sweep along
+ * their row, adding the map's unranked penalty where they have no rank.
+ * Not thread safe, Rankings guards it.
+ *
+ * @author TJohnW
+ */
+public class RankMatrix {
+
+    /**
+     * The rank stored for a player with no time on a map
+     */
+    public static final int UNRANKED = 0;
+
+    private final List<String> maps;
+
+    private final Map<String, Integer> mapIndex = new HashMap<>();
+
+    private final List<String> players = new ArrayList<>();
+
+    private final Map<String, Integer> playerIds = new HashMap<>();
+
+    /**
+     * What a player without a time on each map adds to their sum
+     */
+    private final int[] unranked;
+
+    /**
+     * Ranks by player id * maps + map index
+     */
+    private int[] ranks;
+
+    /**
+     * Creates an empty matrix, every map counts one for players until loaded
+     * @param maps the maps, in the order rows are kept
+     */
+    public RankMatrix(Collection<String> maps) {
+        this.maps = new ArrayList<>(maps);
+        for(int i = 0; i < this.maps.size(); i++)
+            mapIndex.put(this.maps.get(i), i);
+        unranked = new int[this.maps.size()];
+        Arrays.fill(unranked, 1);
+        ranks = new int[Math.max(1, this.maps.size()) * 64];
+    }
+
+    private RankMatrix(RankMatrix other) {
+        maps = other.maps;
+        mapIndex.putAll(other.mapIndex);
+        players.addAll(other.players);
+        playerIds.putAll(other.playerIds);
+        unranked = other.unranked.clone();
+        ranks = Arrays.copyOf(other.ranks, Math.max(1, players.size() * maps.size()));
+    }
+
+    /**
+     * Copies the matrix, to read while this one keeps changing
+     * @return the copy
+     */
+    public RankMatrix copy() {
+        return new RankMatrix(this);
+    }
+
+    /**
+     * Gets the id of a player, adding them if they are new
+     * @param player the player
+     * @return the id
+     */
+    public int player(String player) {
+        Integer id = playerIds.get(player);
+        if(id != null)
+            return id;
+        id = players.size();
+        if((id + 1) * maps.size() > ranks.length)
+            ranks = Arrays.copyOf(ranks, ranks.length * 2);
+        players.add(player);
+        playerIds.put(player, id);
+        return id;
+    }
+
+    /**
+     * Gets the index of a map
+     * @param map the map
+     * @return the index, or -1 if the matrix does not have it
+     */
+    public int map(String map) {
+        Integer index = mapIndex.get(map);
+        return index == null ? -1 : index;
+    }
+
+    /**
+     * Sets every rank on a map from its players, first to last
+     * @param map the map index
+     * @param ranked the players, or null if the map has no log
+     */
+    public void loadMap(int map, List<String> ranked) {
+        for(int id = 0; id < players.size(); id++)
+            ranks[id * maps.size() + map] = UNRANKED;
+        if(ranked == null) {
+            unranked[map] = 1;
+            return;
+        }
+        unranked[map] = ranked.size();
+        int rank = 0;
+        for(String player: ranked) {
+            int id = player(player); // may grow ranks
+            ranks[id * maps.size() + map] = ++rank;
+        }
+    }
+
+    /**
+     * Sets one rank, for records changing
+     * @param player the player id
+     * @param map the map index
+     * @param rank the rank
+     */
+    public void set(int player, int map, int rank) {
+        ranks[player * maps.size() + map] = rank;
+    }
+
+    /**
+     * Sets how many records a map has
+     * @param map the map index
+     * @param count the record count
+     */
+    public void setCount(int map, int count) {
+        unranked[map] = count;
+    }
+
+    public int get(int player, int map) {
+        return ranks[player * maps.size() + map];
+    }
+
+    /**
+     * Gets what a player with no times at all would have as a sum
+     * @return the sum of every map's unranked penalty
+     */
+    public int total() {
+        int total = 0;
+        for(int u: unranked)
+            total += u;
+        return total;
+    }
+
+    /**
+     * Sums the rows of a range of players
+     * @param from the first player id
+     * @param to one past the last player id
+     * @param sums filled by player id
+     * @param onAny set true by player id if they have any rank
+     */
+    public void sums(int from, int to, int[] sums, boolean[] onAny) {
+        int width = maps.size();
+        for(int id = from; id < to; id++) {
+            int sum = 0;
+            boolean any = false;
+            int row = id * width;
+            for(int m = 0; m < width; m++) {
+                int rank = ranks[row + m];
+                if(rank == UNRANKED) {
+                    sum += unranked[m];
+                } else {
+                    sum += rank;
+                    any = true;
+                }
+            }
+            sums[id] = sum;
+            onAny[id] = any;
+        }
+    }
+
+    /**
+     * Scores the rows of a range of players by every formula, in one
+     * pass over each row
+     * @param formulas the formulas
+     * @param from the first player id
+     * @param to one past the last player id
+     * @param scores filled from player id * formulas in formula order
+     */
+    public void evaluate(RankingFormulas formulas, int from, int to, double[] scores) {
+        int width = maps.size();
+        double[] slots = formulas.newSlots(width);
+        for(int id = from; id < to; id++) {
+            formulas.begin(slots);
+            int row = id * width;
+            for(int m = 0; m < width; m++)
+                formulas.map(slots, ranks[row + m], unranked[m]);
+            formulas.end(slots, scores, id * formulas.size());
+        }
+    }
+
+    /**
+     * Gets the id of a player without adding them
+     * @param player the player
+     * @return the id, or -1 if they are not in the matrix
+     */
+    public int find(String player) {
+        Integer id = playerIds.get(player);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * Copies a player's ranks, in the order of getMaps
+     * @param player the player
+     * @return the ranks, UNRANKED where they have none, or null if unknown
+     */
+    public int[] row(String player) {
+        Integer id = playerIds.get(player);
+        if(id == null)
+            return null;
+        return Arrays.copyOfRange(ranks, id * maps.size(), (id + 1) * maps.size());
+    }
+
+    public List<String> getMaps() {
+        return maps;
+    }
+
+    public String getPlayer(int id) {
+        return players.get(id);
+    }
+
+    public int playerCount() {
+        return players.size();
+    }
+
+}
@@ -24,6 +24,15 @@
 
 package com.tronner.servers.racing.rankings;
 
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 /**
  * Tronner - RankedPlayer
  *
@@ -31,6 +40,69 @@ package com.tronner.servers.racing.rankings;
  */
 public class RankedPlayer {
 
+    /**
+     * Reads and writes RankedPlayers without reflection
+     */
+    public static final TypeAdapter<RankedPlayer> ADAPTER = new TypeAdapter<RankedPlayer>() {
+
+        @Override
+        public void write(JsonWriter out, RankedPlayer rp) throws IOException {
+            if(rp == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            out.name("rank").value(rp.rank);
+            out.name("sum").value(rp.sum);
+            out.name("average").value(rp.average);
+            out.name("name").value(rp.name);
+            if(rp.scores != null) {
+                out.name("scores").beginObject();
+                for(Map.Entry<String, Double> e: rp.scores.entrySet())
+                    if(!e.getValue().isNaN() && !e.getValue().isInfinite()) // json has neither
+                        out.name(e.getKey()).value(e.getValue());
+                out.endObject();
+            }
+            out.endObject();
+        }
+
+        @Override
+        public RankedPlayer read(JsonReader in) throws IOException {
+            if(in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            RankedPlayer rp = new RankedPlayer("");
+            in.beginObject();
+            while(in.hasNext()) {
+                String name = in.nextName();
+                if(name.equals("rank"))
+                    rp.rank = in.nextInt();
+                else if(name.equals("sum"))
+                    rp.sum = in.nextInt();
+                else if(name.equals("average"))
+                    rp.average = in.nextDouble();
+                else if(name.equals("name"))
+                    rp.name = in.nextString();
+                else if(name.equals("scores"))
+                    rp.scores = readScores(in);
+                else
+                    in.skipValue();
+            }
+            in.endObject();
+            return rp;
+        }
+    };
+
+    private static Map<String, Double> readScores(JsonReader in) throws IOException {
+        Map<String, Double> scores = new LinkedHashMap<>();
+        in.beginObject();
+        while(in.hasNext())
+            scores.put(in.nextName(), in.nextDouble());
+        in.endObject();
+        return scores;
+    }
+
     private int rank = -1;
 
     private int sum = -1;
@@ -39,10 +111,27 @@ public class RankedPlayer {
 
     private String name = "";
 
+    /**
+     * Scores by ranking formula, null when none are configured
+     */
+    private Map<String, Double> scores;
+
     public RankedPlayer(String name) {
         this.name = name;
     }
 
+    /**
+     * Copies a RankedPlayer
+     * @param other the player to copy
+     */
+    public RankedPlayer(RankedPlayer other) {
+        rank = other.rank;
+        sum = other.sum;
+        average = other.average;
+        name = other.name;
+        scores = other.scores;
+    }
+
     public int getRank() {
         return rank;
     }
@@ -74,4 +163,12 @@ public class RankedPlayer {
     public void setName(String name) {
         this.name = name;
     }
+
+    public Map<String, Double> getScores() {
+        return scores;
+    }
+
+    public void setScores(Map<String, Double> scores) {
+        this.scores = scores;
+    }
 }
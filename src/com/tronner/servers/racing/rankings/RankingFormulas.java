@@ -0,0 +1,527 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014. Tristan John Whitcher
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.tronner.servers.racing.rankings;
+
+import java.util.*;
+
+/**
+ * Tronner - RankingFormulas
+ *
+ * Ranking formulas compiled once into trees of nodes and scored together,
+ * every aggregate of every formula taken in the same pass over a player's
+ * row of the RankMatrix.
+ *
+ * A formula is an expression over aggregates of the maps, the sum of
+ * ranks the rankings use is sum(ranked ? rank : count). Inside an
+ * aggregate a player's map is described by
+ *   rank    their rank on the map, 0 where they have none
+ *   ranked  1 if they have a rank on the map, else 0
+ *   count   the records on the map, 1 when it has none
+ * and anywhere
+ *   maps    how many maps are ranked
+ * Aggregates are sum, avg, lowest and highest of an expression over
+ * every map. Expressions have numbers, + - * / % ^, comparisons,
+ * && || !, cond ? a : b and the functions min, max, abs, log and sqrt.
+ *
+ * @author TJohnW
+ */
+public class RankingFormulas {
+
+    private static final int RANK = 0;
+    private static final int RANKED = 1;
+    private static final int COUNT = 2;
+    private static final int MAPS = 3;
+
+    /**
+     * Variable slots before the aggregates' results
+     */
+    private static final int SLOTS = 4;
+
+    private static final int SUM = 0;
+    private static final int AVG = 1;
+    private static final int LOWEST = 2;
+    private static final int HIGHEST = 3;
+
+    private static final List<String> AGGREGATES = Arrays.asList("sum", "avg", "lowest", "highest");
+
+    private static final List<String> FUNCTIONS = Arrays.asList("min", "max", "abs", "log", "sqrt");
+
+    /**
+     * Operations by the code their nodes switch on, unary ones last
+     */
+    private static final List<String> OPERATIONS = Arrays.asList(
+            "+", "-", "*", "/", "%", "^", "<", "<=", ">", ">=", "==", "!=", "&&", "||", "neg", "!");
+
+    /**
+     * A compiled expression, reading its variables from slots
+     */
+    private static abstract class Node {
+
+        abstract double eval(double[] slots);
+
+        boolean constant() {
+            return false;
+        }
+    }
+
+    private static class Constant extends Node {
+
+        private final double value;
+
+        public Constant(double value) {
+            this.value = value;
+        }
+
+        @Override
+        double eval(double[] slots) {
+            return value;
+        }
+
+        @Override
+        boolean constant() {
+            return true;
+        }
+    }
+
+    private static class Variable extends Node {
+
+        private final int slot;
+
+        public Variable(int slot) {
+            this.slot = slot;
+        }
+
+        @Override
+        double eval(double[] slots) {
+            return slots[slot];
+        }
+    }
+
+    private static class Operation extends Node {
+
+        private final int op;
+        private final Node left;
+        private final Node right; // null for unary operations
+
+        public Operation(String op, Node left, Node right) {
+            this.op = OPERATIONS.indexOf(op);
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        double eval(double[] slots) {
+            double a = left.eval(slots);
+            switch(op) {
+                case 0: return a + right.eval(slots);
+                case 1: return a - right.eval(slots);
+                case 2: return a * right.eval(slots);
+                case 3: return a / right.eval(slots);
+                case 4: return a % right.eval(slots);
+                case 5: return Math.pow(a, right.eval(slots));
+                case 6: return a < right.eval(slots) ? 1 : 0;
+                case 7: return a <= right.eval(slots) ? 1 : 0;
+                case 8: return a > right.eval(slots) ? 1 : 0;
+                case 9: return a >= right.eval(slots) ? 1 : 0;
+                case 10: return a == right.eval(slots) ? 1 : 0;
+                case 11: return a != right.eval(slots) ? 1 : 0;
+                case 12: return a != 0 && right.eval(slots) != 0 ? 1 : 0;
+                case 13: return a != 0 || right.eval(slots) != 0 ? 1 : 0;
+                case 14: return -a;
+                default: return a == 0 ? 1 : 0;
+            }
+        }
+
+        @Override
+        boolean constant() {
+            return left.constant() && (right == null || right.constant());
+        }
+    }
+
+    private static class Conditional extends Node {
+
+        private final Node test;
+        private final Node then;
+        private final Node otherwise;
+
+        public Conditional(Node test, Node then, Node otherwise) {
+            this.test = test;
+            this.then = then;
+            this.otherwise = otherwise;
+        }
+
+        @Override
+        double eval(double[] slots) {
+            return test.eval(slots) != 0 ? then.eval(slots) : otherwise.eval(slots);
+        }
+
+        @Override
+        boolean constant() {
+            return test.constant() && then.constant() && otherwise.constant();
+        }
+    }
+
+    private static class Function extends Node {
+
+        private final int function;
+        private final Node[] args;
+
+        public Function(String name, Node[] args) {
+            this.function = FUNCTIONS.indexOf(name);
+            this.args = args;
+        }
+
+        @Override
+        double eval(double[] slots) {
+            double a = args[0].eval(slots);
+            switch(function) {
+                case 0:
+                    for(int i = 1; i < args.length; i++)
+                        a = Math.min(a, args[i].eval(slots));
+                    return a;
+                case 1:
+                    for(int i = 1; i < args.length; i++)
+                        a = Math.max(a, args[i].eval(slots));
+                    return a;
+                case 2: return Math.abs(a);
+                case 3: return Math.log(a);
+                default: return Math.sqrt(a);
+            }
+        }
+
+        @Override
+        boolean constant() {
+            for(Node arg: args)
+                if(!arg.constant())
+                    return false;
+            return true;
+        }
+    }
+
+    /**
+     * An aggregate over the maps, its result goes in a slot
+     */
+    private static class Aggregate {
+
+        private final int kind;
+        private final Node term;
+        private final int slot;
+
+        public Aggregate(int kind, Node term, int slot) {
+            this.kind = kind;
+            this.term = term;
+            this.slot = slot;
+        }
+    }
+
+    private final List<String> names = new ArrayList<>();
+
+    private final List<Node> formulas = new ArrayList<>();
+
+    private final List<Aggregate> aggregates = new ArrayList<>();
+
+    /**
+     * Compiles formulas by name, a formula that does not compile is left out
+     * @param sources the formulas by name
+     * @return the compiled formulas, in the order given
+     */
+    public static RankingFormulas compile(Map<String, String> sources) {
+        RankingFormulas compiled = new RankingFormulas();
+        for(Map.Entry<String, String> e: sources.entrySet()) {
+            try {
+                compiled.add(e.getKey(), e.getValue());
+            } catch (IllegalArgumentException ex) {
+                System.out.println("# Ranking formula " + e.getKey() + " left out, " + ex.getMessage());
+            }
+        }
+        return compiled;
+    }
+
+    /**
+     * Compiles a formula and adds it to the set
+     * @param name the name scores are saved under
+     * @param source the formula
+     * @throws IllegalArgumentException if it does not compile
+     */
+    public void add(String name, String source) {
+        int compiled = aggregates.size();
+        try {
+            Node formula = new Compiler(source).compile();
+            names.add(name);
+            formulas.add(formula);
+        } catch (IllegalArgumentException e) {
+            aggregates.subList(compiled, aggregates.size()).clear();
+            throw e;
+        }
+    }
+
+    public int size() {
+        return names.size();
+    }
+
+    public String getName(int formula) {
+        return names.get(formula);
+    }
+
+    /**
+     * Gets the index of a formula
+     * @param name the formula's name
+     * @return the index, or -1 if there is none by that name
+     */
+    public int indexOf(String name) {
+        return names.indexOf(name);
+    }
+
+    /**
+     * Makes the slots a pass over rows evaluates in
+     * @param maps how many maps are in a row
+     * @return the slots
+     */
+    double[] newSlots(int maps) {
+        double[] slots = new double[SLOTS + aggregates.size()];
+        slots[MAPS] = maps;
+        return slots;
+    }
+
+    /**
+     * Starts a player's row
+     * @param slots the pass's slots
+     */
+    void begin(double[] slots) {
+        for(Aggregate aggregate: aggregates) {
+            switch(aggregate.kind) {
+                case LOWEST: slots[aggregate.slot] = Double.POSITIVE_INFINITY; break;
+                case HIGHEST: slots[aggregate.slot] = Double.NEGATIVE_INFINITY; break;
+                default: slots[aggregate.slot] = 0; break;
+            }
+        }
+    }
+
+    /**
+     * Adds one map of a player's row to every aggregate
+     * @param slots the pass's slots
+     * @param rank the player's rank, RankMatrix.UNRANKED for none
+     * @param count the records on the map
+     */
+    void map(double[] slots, int rank, int count) {
+        slots[RANK] = rank;
+        slots[RANKED] = rank == RankMatrix.UNRANKED ? 0 : 1;
+        slots[COUNT] = count;
+        for(Aggregate aggregate: aggregates) {
+            double value = aggregate.term.eval(slots);
+            switch(aggregate.kind) {
+                case LOWEST: slots[aggregate.slot] = Math.min(slots[aggregate.slot], value); break;
+                case HIGHEST: slots[aggregate.slot] = Math.max(slots[aggregate.slot], value); break;
+                default: slots[aggregate.slot] += value; break;
+            }
+        }
+    }
+
+    /**
+     * Finishes a player's row and scores every formula
+     * @param slots the pass's slots
+     * @param scores filled from offset in the order of the formulas
+     * @param offset where the player's scores start
+     */
+    void end(double[] slots, double[] scores, int offset) {
+        for(Aggregate aggregate: aggregates)
+            if(aggregate.kind == AVG)
+                slots[aggregate.slot] /= slots[MAPS];
+        for(int f = 0; f < formulas.size(); f++)
+            scores[offset + f] = formulas.get(f).eval(slots);
+    }
+
+    /**
+     * Reads one formula into nodes, a recursive descent from the
+     * conditional down to numbers, names and brackets
+     */
+    private class Compiler {
+
+        private final String source;
+        private int at;
+        private boolean inAggregate;
+
+        public Compiler(String source) {
+            this.source = source;
+        }
+
+        public Node compile() {
+            Node node = conditional();
+            skipSpace();
+            if(at < source.length())
+                throw error("unexpected " + source.charAt(at));
+            return node;
+        }
+
+        private Node conditional() {
+            Node test = binary(0);
+            if(!take("?"))
+                return test;
+            Node then = conditional();
+            expect(":");
+            return fold(new Conditional(test, then, conditional()));
+        }
+
+        /**
+         * Operators by precedence, loosest first
+         */
+        private final String[][] levels = {
+                { "||" }, { "&&" }, { "==", "!=" }, { "<=", ">=", "<", ">" }, { "+", "-" }, { "*", "/", "%" }
+        };
+
+        private Node binary(int level) {
+            if(level == levels.length)
+                return unary();
+            Node left = binary(level + 1);
+            String op;
+            while((op = takeAny(levels[level])) != null)
+                left = fold(new Operation(op, left, binary(level + 1)));
+            return left;
+        }
+
+        private Node unary() {
+            if(take("-"))
+                return fold(new Operation("neg", unary(), null));
+            if(take("!"))
+                return fold(new Operation("!", unary(), null));
+            Node base = atom();
+            if(take("^"))
+                return fold(new Operation("^", base, unary()));
+            return base;
+        }
+
+        private Node atom() {
+            skipSpace();
+            if(at == source.length())
+                throw error("unexpected end");
+            char c = source.charAt(at);
+            if(take("(")) {
+                Node node = conditional();
+                expect(")");
+                return node;
+            }
+            if(Character.isDigit(c) || c == '.') {
+                int start = at;
+                while(at < source.length() && (Character.isDigit(source.charAt(at)) || source.charAt(at) == '.'))
+                    at++;
+                try {
+                    return new Constant(Double.parseDouble(source.substring(start, at)));
+                } catch (NumberFormatException e) {
+                    throw error("bad number " + source.substring(start, at));
+                }
+            }
+            if(!Character.isLetter(c))
+                throw error("unexpected " + c);
+            int start = at;
+            while(at < source.length() && Character.isLetterOrDigit(source.charAt(at)))
+                at++;
+            String name = source.substring(start, at);
+            if(AGGREGATES.contains(name))
+                return aggregate(name);
+            if(FUNCTIONS.contains(name))
+                return function(name);
+            switch(name) {
+                case "maps": return new Variable(MAPS);
+                case "rank": return mapVariable(name, RANK);
+                case "ranked": return mapVariable(name, RANKED);
+                case "count": return mapVariable(name, COUNT);
+                default: throw error("unknown name " + name);
+            }
+        }
+
+        private Node mapVariable(String name, int slot) {
+            if(!inAggregate)
+                throw error(name + " is only known inside sum, avg, lowest or highest");
+            return new Variable(slot);
+        }
+
+        private Node aggregate(String name) {
+            if(inAggregate)
+                throw error(name + " inside another aggregate");
+            expect("(");
+            inAggregate = true;
+            Node term = conditional();
+            inAggregate = false;
+            expect(")");
+            Aggregate aggregate = new Aggregate(AGGREGATES.indexOf(name), term, SLOTS + aggregates.size());
+            aggregates.add(aggregate);
+            return new Variable(aggregate.slot);
+        }
+
+        private Node function(String name) {
+            expect("(");
+            List<Node> args = new ArrayList<>();
+            do {
+                args.add(conditional());
+            } while(take(","));
+            expect(")");
+            boolean pair = name.equals("min") || name.equals("max");
+            if(pair ? args.size() < 2 : args.size() != 1)
+                throw error(name + " takes " + (pair ? "two or more values" : "one value"));
+            return fold(new Function(name, args.toArray(new Node[args.size()])));
+        }
+
+        /**
+         * Works out nodes that read no variables now instead of for every player
+         */
+        private Node fold(Node node) {
+            return node.constant() ? new Constant(node.eval(null)) : node;
+        }
+
+        private void skipSpace() {
+            while(at < source.length() && Character.isWhitespace(source.charAt(at)))
+                at++;
+        }
+
+        private boolean take(String token) {
+            skipSpace();
+            if(!source.startsWith(token, at))
+                return false;
+            // keep a comparison from being read as its first character
+            if(token.length() == 1 && at + 1 < source.length() && source.charAt(at + 1) == '='
+                    && "<>!=".indexOf(token.charAt(0)) != -1)
+                return false;
+            at += token.length();
+            return true;
+        }
+
+        private String takeAny(String[] tokens) {
+            for(String token: tokens)
+                if(take(token))
+                    return token;
+            return null;
+        }
+
+        private void expect(String token) {
+            if(!take(token))
+                throw error("expected " + token);
+        }
+
+        private IllegalArgumentException error(String message) {
+            return new IllegalArgumentException(message + " at " + (at + 1) + " of \"" + source + "\"");
+        }
+    }
+
+}
@@ -24,154 +24,754 @@
 
 package com.tronner.servers.racing.rankings;
 
-import com.google.gson.reflect.TypeToken;
+import com.tronner.Application;
 import com.tronner.dispatcher.Commands;
 import com.tronner.servers.racing.logs.Logger;
 import com.tronner.servers.racing.logs.MapLog;
 import com.tronner.servers.racing.logs.PlayerTime;
+import com.tronner.servers.racing.logs.RecordJournal;
+import com.tronner.servers.racing.logs.RecordListener;
+import com.tronner.servers.racing.logs.TimesDatabase;
 import com.tronner.servers.racing.maps.MapManager;
 import com.tronner.servers.racing.maps.RacingMap;
 import com.tronner.servers.racing.players.PlayerTracker;
-import com.tronner.util.JsonManager;
+import com.tronner.util.OrderStatisticList;
+import com.tronner.util.ParallelSort;
+import com.tronner.util.PersistenceService;
 
 import java.io.IOException;
-import java.lang.reflect.Type;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Tronner - RankingsManager
  *
+ * A player's sum is their rank on every map they have a time on, plus the
+ * number of records on every map they do not. That is kept as the sum a
+ * player with no times would have, shared by everyone, plus an offset per
+ * player of their rank minus the record count on each of their maps. A new
+ * or faster record then only changes the offsets of the players it moves
+ * past, and the players are kept in order by offset in an
+ * OrderStatisticList so only those players move. Every rank is also kept
+ * in a RankMatrix, a full recache sums its rows. A record a recache
+ * already read, known by its map's record sequence in the journal or the
+ * times database, is not counted again.
+ * Records are queued without locking on the thread that logs them and
+ * applied before the rankings are next read. Recaches read the maps and
+ * publishing scores the formulas outside the lock, on one RankingsWorker,
+ * and readers take the last published RankingsSnapshot without locking. The configured
+ * RankingFormulas are scored from the matrix when publishing, and the
+ * published rankings can be ordered by one of them instead of the sums.
+ *
  * @author Tristan on 8/29/2014.
  */
-public class Rankings {
+public class Rankings extends RecordListener {
+
+    /**
+     * A player in the rankings, their sum is total plus offset
+     */
+    private static class Standing {
+
+        private final String name;
+        private int offset;
+
+        public Standing(String name, int offset) {
+            this.name = name;
+            this.offset = offset;
+        }
+    }
+
+    /**
+     * Offsets and record counts summed over a run of maps, players in the
+     * order they were first found so merging runs in order gives the same
+     * order as summing every map in turn
+     */
+    private static class Partial {
+
+        private Map<String, int[]> offsets = new LinkedHashMap<>();
+        private int total;
+
+        public void merge(Partial next) {
+            total += next.total;
+            for(Map.Entry<String, int[]> e: next.offsets.entrySet()) {
+                int[] offset = offsets.get(e.getKey());
+                if(offset == null)
+                    offsets.put(e.getKey(), e.getValue());
+                else
+                    offset[0] += e.getValue()[0];
+            }
+        }
+    }
+
+    /**
+     * Sums a run of maps, splitting it in half until it is short
+     */
+    @SuppressWarnings("serial")
+    private class SumMaps extends RecursiveTask<Partial> {
+
+        private final List<String> maps;
+        private final List<List<String>> ranked;
+        private final Map<String, MapLog> logs;
+        private final Map<String, Integer> sequences;
+        private final int from;
+        private final int to;
+
+        public SumMaps(List<String> maps, List<List<String>> ranked, Map<String, MapLog> logs,
+                       Map<String, Integer> sequences, int from, int to) {
+            this.maps = maps;
+            this.ranked = ranked;
+            this.logs = logs;
+            this.sequences = sequences;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Partial compute() {
+            if(to - from > MAPS_PER_TASK) {
+                int middle = (from + to) >>> 1;
+                SumMaps left = new SumMaps(maps, ranked, logs, sequences, from, middle);
+                left.fork();
+                Partial right = new SumMaps(maps, ranked, logs, sequences, middle, to).compute();
+                Partial partial = left.join();
+                partial.merge(right);
+                return partial;
+            }
+            Partial partial = new Partial();
+            for(int m = from; m < to; m++) {
+                List<String> players = readRankedPlayers(maps.get(m), logs, sequences);
+                ranked.set(m, players);
+                if(players == null) {
+                    partial.total++;
+                    continue;
+                }
+                partial.total += players.size();
+                int rank = 0;
+                for(String player: players) {
+                    int[] offset = partial.offsets.get(player);
+                    if(offset == null) {
+                        offset = new int[1];
+                        partial.offsets.put(player, offset);
+                    }
+                    offset[0] += ++rank - players.size();
+                }
+            }
+            return partial;
+        }
+    }
+
+    /**
+     * Loads a run of maps into the matrix, every player must be in it already
+     */
+    @SuppressWarnings("serial")
+    private static class FillMatrix extends RecursiveAction {
+
+        private final RankMatrix matrix;
+        private final List<List<String>> ranked;
+        private final int from;
+        private final int to;
+
+        public FillMatrix(RankMatrix matrix, List<List<String>> ranked, int from, int to) {
+            this.matrix = matrix;
+            this.ranked = ranked;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if(to - from > MAPS_PER_TASK) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new FillMatrix(matrix, ranked, from, middle), new FillMatrix(matrix, ranked, middle, to));
+                return;
+            }
+            for(int m = from; m < to; m++)
+                matrix.loadMap(m, ranked.get(m));
+        }
+    }
+
+    /**
+     * The offsets and ranks a record changed, queued to apply before the
+     * rankings are next read
+     */
+    private static class Delta {
+
+        private int total;
+        private List<String> players = new ArrayList<>();
+        private List<Integer> changes = new ArrayList<>();
+
+        private String map;
+        private int sequence;
+        private int count;
+        private int fromRank;
+        private List<String> ranked = new ArrayList<>();
+
+        public void add(String player, int change) {
+            players.add(player);
+            changes.add(change);
+        }
+    }
+
+    /**
+     * Maps one task of a parallel recache sums
+     */
+    private static final int MAPS_PER_TASK = 8;
 
     private Logger logger; // This is only for reading rankings!
 
     private MapManager mapManager;
 
-    private Map<String, RankedPlayer> rankedPlayerMap = new HashMap<>();
-    private List<RankedPlayer> rankedPlayerList = new ArrayList<>();
+    private TimesDatabase database; // read instead of the times files when there is one
 
-    private Comparator<RankedPlayer> rankedPlayerComparator = new Comparator<RankedPlayer>() {
+    private RecordJournal journal;
+
+    /**
+     * The record sequence of each map when the last recache read it,
+     * records up to it are in the rankings already
+     */
+    private Map<String, Integer> readSequences = new ConcurrentHashMap<>();
+
+    /**
+     * The sum of a player with no times, every map's record count plus one
+     * for each map without a log
+     */
+    private int total;
+
+    private Map<String, OrderStatisticList.Entry<Standing>> standings = new HashMap<>();
+
+    private OrderStatisticList<Standing> ordered;
+
+    private RankMatrix matrix;
+
+    /**
+     * Records not applied yet, added without locking
+     */
+    private final Queue<Delta> deltas = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Records applied while a recache reads the maps, applied again to what
+     * it read, null when no recache is running
+     */
+    private List<Delta> replay;
+
+    private boolean ready;
+
+    /**
+     * Held by a recache from reading the maps to publishing, so two never overlap
+     */
+    private final Object recacheLock = new Object();
+
+    /**
+     * Held while publishing, so snapshots are published in order
+     */
+    private final Object publishLock = new Object();
+
+    /**
+     * The rankings last published, read without locking
+     */
+    private final AtomicReference<RankingsSnapshot> published = new AtomicReference<>(RankingsSnapshot.EMPTY);
+
+    private final RankingsWorker worker = new RankingsWorker(this);
+
+    private volatile RankingsHistory history;
+
+    private RankingFormulas formulas;
+
+    /**
+     * The formula published rankings are ordered by, -1 for the sums
+     */
+    private int order = -1;
+
+    private Comparator<Standing> standingComparator = new Comparator<Standing>() {
 
         @Override
-        public int compare(RankedPlayer o1, RankedPlayer o2) {
-            return o1.getSum() - o2.getSum();
+        public int compare(Standing o1, Standing o2) {
+            return Integer.compare(o1.offset, o2.offset);
         }
     };
 
-    public Rankings(PlayerTracker playerTracker, MapManager mapManager) {
+    public Rankings(PlayerTracker playerTracker, MapManager mapManager, RecordJournal journal,
+                    TimesDatabase database) {
         logger = new Logger(playerTracker);
+        logger.setJournal(journal);
+        this.journal = journal;
+        this.database = database;
         this.mapManager = mapManager;
-        updateAll();
+        ordered = new OrderStatisticList<>(standingComparator);
+        matrix = new RankMatrix(mapManager.getMaps().keySet());
+        formulas = RankingFormulas.compile(Application.getConfig().ranking_formulas);
+        String by = Application.getConfig().ranking_order;
+        if(by != null && !by.isEmpty()) {
+            order = formulas.indexOf(by);
+            if(order == -1)
+                System.out.println("# No ranking formula " + by + ", ranking by sums.");
+        }
     }
 
     /**
-     * Starts a new thread to run the rankings update from.
+     * Recaches everything on the rankings worker
      */
     public void threadedUpdate() {
-        new Thread(new Runnable() {
+        worker.recache();
 
-            @Override
-            public void run() {
-                updateAll();
-            }
+        Commands.CONSOLE_MESSAGE("Caching player rankings. Website updating.");
+    }
 
-        }).start();
+    /**
+     * Publishes and saves the rankings on the rankings worker after records changed them
+     */
+    public void publish() {
+        worker.publish();
 
-        Commands.CONSOLE_MESSAGE("Caching player rankings. Website updating.");
+        Commands.CONSOLE_MESSAGE("Player rankings changed. Website updating.");
     }
 
-    public void addRankedPlayer(RankedPlayer player) {
-        rankedPlayerList.add(player);
-        rankedPlayerMap.put(player.getName(), player);
+    @Override
+    public void recordImproved(MapLog log, PlayerTime record, int oldRank, int newRank) {
+        updateBecauseOf(log, record.getPlayer(), oldRank, newRank);
     }
 
-    public void updateBecauseOf(String map, String player) {
-        // TO DO
+    /**
+     * Updates the rankings for a player's new or faster time on a map,
+     * called after the log has the time on the thread that changes it.
+     * The change is queued without locking.
+     * @param log the MapLog the time is on
+     * @param player the player
+     * @param oldRank their rank before, -1 if they had no time
+     * @param newRank their rank now
+     */
+    public void updateBecauseOf(MapLog log, String player, int oldRank, int newRank) {
+        Delta delta = new Delta();
+        int lastRank;
+        if(oldRank == -1) {
+            // one more record on the map, everyone without a time there is one further back
+            delta.total = 1;
+            for(int rank = 1; rank < newRank; rank++)
+                delta.add(log.getPlayerFromRank(rank).getPlayer(), -1);
+            delta.add(player, newRank - log.count());
+            lastRank = log.count();
+        } else if(newRank < oldRank) {
+            for(int rank = newRank + 1; rank <= oldRank; rank++)
+                delta.add(log.getPlayerFromRank(rank).getPlayer(), 1);
+            delta.add(player, newRank - oldRank);
+            lastRank = oldRank;
+        } else {
+            return;
+        }
+        // the ranks that moved on the map
+        delta.map = log.getMapName();
+        delta.sequence = sequence(delta.map);
+        delta.count = log.count();
+        delta.fromRank = newRank;
+        for(int rank = newRank; rank <= lastRank; rank++)
+            delta.ranked.add(log.getPlayerFromRank(rank).getPlayer());
+        deltas.add(delta);
+    }
+
+    /**
+     * Applies the queued records, once the rankings are first cached
+     */
+    private synchronized void drain() {
+        if(!ready)
+            return;
+        Delta delta;
+        while((delta = deltas.poll()) != null) {
+            apply(delta);
+            if(replay != null)
+                replay.add(delta);
+        }
+    }
+
+    /**
+     * Gets the sequence of the last record on a map, from where the
+     * recache reads the map
+     * @return the sequence, or -1 if nothing keeps one
+     */
+    private int sequence(String map) {
+        if(database != null)
+            return database.getSequence(map);
+        return journal == null ? -1 : journal.getSequence(map);
+    }
+
+    /**
+     * Notes the sequence a map was read at for a recache
+     */
+    private static void read(Map<String, Integer> sequences, String map, int sequence) {
+        if(sequence != -1)
+            sequences.put(map, sequence);
+    }
+
+    private void apply(Delta delta) {
+        // records that were in the maps a recache read are counted already
+        Integer read = readSequences.get(delta.map);
+        if(delta.sequence != -1 && read != null && delta.sequence <= read)
+            return;
+        int map = matrix.map(delta.map);
+        if(map != -1) {
+            matrix.setCount(map, delta.count);
+            for(int i = 0; i < delta.ranked.size(); i++)
+                matrix.set(matrix.player(delta.ranked.get(i)), map, delta.fromRank + i);
+        }
+        total += delta.total;
+        for(int i = 0; i < delta.players.size(); i++) {
+            String player = delta.players.get(i);
+            OrderStatisticList.Entry<Standing> entry = standings.get(player);
+            Standing standing;
+            if(entry == null) {
+                standing = new Standing(player, 0);
+            } else {
+                standing = entry.getValue();
+                ordered.remove(entry);
+            }
+            standing.offset += delta.changes.get(i);
+            standings.put(player, ordered.insert(standing));
+        }
     }
 
     /**
      * This should only be called when a total recache needs to be performed
      */
     public void updateAll() {
+        updateAll(null);
+    }
 
-        int countOfRecs = 0;
-        for(RacingMap rm: mapManager.getMaps().values()) {
-            System.out.println("Trying to load: " + rm.getName());
-            countOfRecs += logger.getLog(rm.getName()).count();
+    /**
+     * Recaches everything from logs that were already loaded
+     * @param logs map logs by map, others are read as needed, may be null
+     */
+    public void updateAll(Map<String, MapLog> logs) {
+        synchronized(recacheLock) {
+            begin();
+            int countOfRecs = 0;
+            for(RacingMap rm: mapManager.getMaps().values()) {
+                if(database != null) {
+                    countOfRecs += database.count(rm.getName());
+                    continue;
+                }
+                if(logs != null && logs.containsKey(rm.getName())) {
+                    countOfRecs += logs.get(rm.getName()).count();
+                    continue;
+                }
+                System.out.println("Trying to load: " + rm.getName());
+                countOfRecs += logger.getLog(rm.getName()).count();
+            }
+
+            System.out.println("Total Recs: " + countOfRecs);
+
+            // start from scratch here
+            // maps without a log count one for every player, they have no winners yet but we weigh them still
+            Map<String, Integer> sequences = new ConcurrentHashMap<>();
+            RankMatrix fresh = new RankMatrix(mapManager.getMaps().keySet());
+            for(RacingMap rm: mapManager.getMaps().values())
+                fresh.loadMap(fresh.map(rm.getName()), rankedPlayers(rm.getName(), logs, sequences));
+
+            swap(fresh, sequences, sumMatrix(fresh), fresh.total());
+            saveRankings();
         }
+    }
 
-        System.out.println("Total Recs: " + countOfRecs);
+    /**
+     * Recaches everything on a fork join pool, the maps are split between
+     * tasks and their sums merged in order, so the rankings come out the
+     * same as updateAll
+     * @param logs map logs by map, others are read as needed, may be null
+     * @param pool the pool to recache on
+     */
+    public void updateAll(Map<String, MapLog> logs, ForkJoinPool pool) {
+        synchronized(recacheLock) {
+            begin();
+            List<String> maps = new ArrayList<>(mapManager.getMaps().keySet());
+            List<List<String>> ranked = new ArrayList<>(Collections.<List<String>>nCopies(maps.size(), null));
+            Map<String, Integer> sequences = new ConcurrentHashMap<>();
+
+            Partial all = pool.invoke(new SumMaps(maps, ranked, logs, sequences, 0, maps.size()));
+            System.out.println("Total Recs: " + all.total);
+
+            RankMatrix fresh = new RankMatrix(maps);
+            Standing[] sorted = new Standing[all.offsets.size()];
+            int i = 0;
+            for(Map.Entry<String, int[]> e: all.offsets.entrySet()) {
+                fresh.player(e.getKey());
+                sorted[i++] = new Standing(e.getKey(), e.getValue()[0]);
+            }
+            pool.invoke(new FillMatrix(fresh, ranked, 0, maps.size()));
+            ParallelSort.sort(pool, sorted, standingComparator);
 
-        // clear the data structures, lets start from scratch here
+            swap(fresh, sequences, Arrays.asList(sorted), all.total);
+            saveRankings();
+        }
+    }
 
-        rankedPlayerMap = new HashMap<>();
-        rankedPlayerList = new ArrayList<>();
+    /**
+     * Starts keeping the records applied while a recache reads the maps
+     */
+    private synchronized void begin() {
+        replay = new ArrayList<>();
+    }
 
-        int emptyMaps = 0; // the number to add for every player at the end, (these maps have no winners yet. but we weigh them still).
-        int numMaps = mapManager.getMaps().size();
+    /**
+     * Puts what a recache read in place, then applies the records it
+     * may not have seen, those that came before the first cache too
+     */
+    private synchronized void swap(RankMatrix fresh, Map<String, Integer> sequences, List<Standing> sorted, int total) {
+        List<Delta> again = replay == null ? Collections.<Delta>emptyList() : replay;
+        replay = null;
+        readSequences = sequences;
+        matrix = fresh;
+        build(sorted, total);
+        for(Delta delta: again)
+            apply(delta);
+        ready = true;
+        drain();
+    }
 
-        int sumForFirstNotFound = 0;
+    /**
+     * Sums every player's row of a matrix
+     * @param matrix the matrix
+     * @return the players with any rank, in order
+     */
+    private List<Standing> sumMatrix(RankMatrix matrix) {
+        int players = matrix.playerCount();
+        int[] sums = new int[players];
+        boolean[] onAny = new boolean[players];
+        matrix.sums(0, players, sums, onAny);
+        int total = matrix.total();
+        List<Standing> sorted = new ArrayList<>(players);
+        for(int id = 0; id < players; id++) {
+            if(onAny[id])
+                sorted.add(new Standing(matrix.getPlayer(id), sums[id] - total));
+        }
+        Collections.sort(sorted, standingComparator);
+        return sorted;
+    }
 
-        // allocate ranks for each map and the finished players
-        for(RacingMap rm: mapManager.getMaps().values()) {
-            MapLog ml = logger.getLog(rm.getName());
-            if(ml == null) {
-                emptyMaps++;
-            } else {
+    private void build(List<Standing> sorted, int total) {
+        this.total = total;
+        standings = new HashMap<>();
+        ordered = new OrderStatisticList<>(standingComparator);
+        for(Standing standing: sorted)
+            standings.put(standing.name, ordered.insert(standing));
+    }
 
-                for(RankedPlayer rp: rankedPlayerList) {
-                    if(ml.getRank(rp.getName()) == -1) {
-                        rp.setSum(rp.getSum() + ml.count());
-                    }
-                }
+    /**
+     * Gets the players on a map from first to last, read from
+     * the times database when there is one
+     * @param map the map
+     * @param logs map logs already loaded, may be null
+     * @param sequences where the sequence the map was read at goes
+     * @return the players, or null if the map has no log
+     */
+    private List<String> rankedPlayers(String map, Map<String, MapLog> logs, Map<String, Integer> sequences) {
+        List<String> ranked = new ArrayList<>();
+        if(database != null) {
+            // the ranks and the sequence as one read, records wait for the database
+            synchronized(database) {
+                for(int rank = 1; rank <= database.count(map); rank++)
+                    ranked.add(database.getPlayerAt(map, rank));
+                read(sequences, map, database.getSequence(map));
+            }
+            return ranked;
+        }
+        boolean loaded = logs != null && logs.containsKey(map);
+        MapLog ml = loaded ? logs.get(map) : logger.getLog(map);
+        if(ml == null)
+            return null;
+        read(sequences, map, ml.getSequence());
+        for(PlayerTime pt: ml.getRecords())
+            ranked.add(pt.getPlayer());
+        if(!loaded)
+            logger.unloadMapLog(map, false);
+        return ranked;
+    }
 
-                // we have a map log to handle now. lets add all of the ranked players we find into the list!
-                for(PlayerTime pt: ml.getRecords()) {
-                    if(!rankedPlayerMap.containsKey(pt.getPlayer())) {
-                        RankedPlayer newPlayer = new RankedPlayer(pt.getPlayer());
-                        newPlayer.setSum(sumForFirstNotFound);
-                        addRankedPlayer(newPlayer);
-                    }
-                    RankedPlayer rp = rankedPlayerMap.get(pt.getPlayer());
-                    rp.setSum(rp.getSum() + pt.getRank());
+    /**
+     * Gets the players on a map from first to last without caching
+     * anything, safe from any thread
+     * @param map the map
+     * @param logs map logs already loaded, may be null
+     * @param sequences where the sequence the map was read at goes
+     * @return the players, none if the map has no times file
+     */
+    private List<String> readRankedPlayers(String map, Map<String, MapLog> logs, Map<String, Integer> sequences) {
+        if(database != null || (logs != null && logs.containsKey(map)))
+            return rankedPlayers(map, logs, sequences);
+        List<String> ranked = new ArrayList<>();
+        try {
+            MapLog ml = logger.readMapLog(map);
+            for(PlayerTime pt: ml.getRecords())
+                ranked.add(pt.getPlayer());
+            read(sequences, map, ml.getSequence());
+        } catch (IOException e) {
+            // no times yet, nobody is ranked on it
+        }
+        return ranked;
+    }
+
+    /**
+     * Does updateAll need every map log, or does it read the times database
+     * @return true if it reads map logs
+     */
+    public boolean readsMapLogs() {
+        return database == null;
+    }
+
+    /**
+     * Publishes the rankings as they are now and saves them for the website
+     */
+    public void saveRankings() {
+        synchronized(publishLock) {
+            RankingsSnapshot snapshot = publishSnapshot();
+            PersistenceService.getInstance().save("data/rankings.JSON", snapshot.getPlayers(), true);
+            if(history != null) {
+                try {
+                    history.record(snapshot);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    System.out.println("# Unable to write the rankings history.");
                 }
+            }
+        }
+    }
 
-                sumForFirstNotFound += ml.count();
-                logger.unloadMapLog(rm.getName(), false);
+    /**
+     * Copies the rankings under the lock and scores the copy without it
+     */
+    private RankingsSnapshot publishSnapshot() {
+        synchronized(publishLock) {
+            List<RankedPlayer> players;
+            RankMatrix scored = null;
+            int total;
+            synchronized(this) {
+                players = snapshot();
+                total = this.total;
+                if(formulas.size() > 0)
+                    scored = matrix.copy();
             }
+            if(scored != null)
+                score(players, scored);
+            RankingsSnapshot snapshot = new RankingsSnapshot(players, total,
+                    order == -1 ? null : formulas.getName(order), System.currentTimeMillis());
+            published.set(snapshot);
+            return snapshot;
         }
+    }
 
-        for(RankedPlayer rp: rankedPlayerList) {
-            rp.setSum(rp.getSum() + emptyMaps);
-            rp.setAverage((double) rp.getSum() / numMaps);
+    /**
+     * Scores players by every formula in one pass over the matrix, then
+     * ranks them by the formula they are ordered by, if there is one
+     * @param players the players best first by sum, ranked again in place
+     * @param matrix a copy of the matrix the players were taken with
+     */
+    private void score(List<RankedPlayer> players, RankMatrix matrix) {
+        int count = formulas.size();
+        double[] scores = new double[matrix.playerCount() * count];
+        matrix.evaluate(formulas, 0, matrix.playerCount(), scores);
+        for(RankedPlayer rp: players) {
+            int id = matrix.find(rp.getName());
+            Map<String, Double> byName = new LinkedHashMap<>();
+            for(int f = 0; f < count; f++)
+                byName.put(formulas.getName(f), id == -1 ? Double.NaN : scores[id * count + f]);
+            rp.setScores(byName);
         }
+        if(order == -1)
+            return;
+        final String by = formulas.getName(order);
+        // stable, so players on the same score stay in order of their sums
+        Collections.sort(players, new Comparator<RankedPlayer>() {
+            @Override
+            public int compare(RankedPlayer o1, RankedPlayer o2) {
+                return Double.compare(o1.getScores().get(by), o2.getScores().get(by));
+            }
+        });
+        int rank = 1;
+        for(RankedPlayer rp: players)
+            rp.setRank(rank++);
+    }
 
-        Collections.sort(rankedPlayerList, rankedPlayerComparator);
+    /**
+     * Keeps every save of the rankings in a history
+     * @param history the history, or null for none
+     */
+    public void setHistory(RankingsHistory history) {
+        this.history = history;
+    }
 
-        int i = 1;
-        for(RankedPlayer rp: rankedPlayerList)
-            rp.setRank(i++);
+    public RankingsHistory getHistory() {
+        return history;
+    }
 
-        saveRankings();
+    /**
+     * Gets the rankings last published, safe from any thread without
+     * waiting on an update
+     * @return the snapshot, empty before the rankings are first cached
+     */
+    public RankingsSnapshot getSnapshot() {
+        return published.get();
     }
 
-    @SuppressWarnings("unchecked")
-    public void loadRankings() {
-        try {
-            Type listType = new TypeToken<ArrayList<RankedPlayer>>() {}.getType();
-            rankedPlayerList = JsonManager.loadFromJson("data/rankings.JSON", listType);
-        } catch (IOException e) {
-            System.out.println("Unable to load rankings log.");
+    /**
+     * Copies the rankings, safe from any thread
+     * @return copies of the ranked players, best first
+     */
+    public synchronized List<RankedPlayer> snapshot() {
+        drain();
+        int numMaps = mapManager.getMaps().size();
+        List<RankedPlayer> snapshot = new ArrayList<>(ordered.size());
+        int rank = 1;
+        for(Standing standing: ordered) {
+            RankedPlayer rp = new RankedPlayer(standing.name);
+            rp.setRank(rank++);
+            rp.setSum(total + standing.offset);
+            rp.setAverage((double) rp.getSum() / numMaps);
+            snapshot.add(rp);
         }
+        return snapshot;
     }
 
-    public void saveRankings() {
-        try {
-            JsonManager.saveAsJson("data/rankings.JSON", rankedPlayerList, true);
-        } catch (IOException e) {
-            System.out.println("Unable to save rankings log.");
+    /**
+     * Gets a player's rank on every map, safe from any thread
+     * @param player the player
+     * @return the ranks in the order of getRankedMaps, RankMatrix.UNRANKED
+     * where they have none, or null if they have never been ranked
+     */
+    public synchronized int[] getRanks(String player) {
+        drain();
+        return matrix.row(player);
+    }
+
+    /**
+     * Gets the maps in the order getRanks gives them
+     * @return the map names
+     */
+    public synchronized List<String> getRankedMaps() {
+        drain();
+        return Collections.unmodifiableList(matrix.getMaps());
+    }
+
+    /**
+     * Takes rankings from a checkpoint instead of recaching them
+     * @param players the ranked players, best first
+     * @param ranked the players on each map first to last, missing maps have no times
+     */
+    public void restore(List<RankedPlayer> players, Map<String, List<String>> ranked) {
+        synchronized(recacheLock) {
+            begin();
+            RankMatrix fresh = new RankMatrix(mapManager.getMaps().keySet());
+            for(String map: mapManager.getMaps().keySet()) {
+                List<String> onMap = ranked.get(map);
+                fresh.loadMap(fresh.map(map), onMap == null ? new ArrayList<String>() : onMap);
+            }
+            int total = fresh.total();
+            List<Standing> sorted = new ArrayList<>(players.size());
+            for(RankedPlayer rp: players)
+                sorted.add(new Standing(rp.getName(), rp.getSum() - total));
+            swap(fresh, new ConcurrentHashMap<String, Integer>(), sorted, total);
+            publishSnapshot();
         }
     }
 
@@ -0,0 +1,202 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014. Tristan John Whitcher
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.tronner.servers.racing.rankings;
+
+import com.tronner.Application;
+import com.tronner.parser.Parser;
+import com.tronner.parser.ServerEventListener;
+import com.tronner.servers.racing.RaceTimer;
+import com.tronner.servers.racing.RoundClock;
+import com.tronner.servers.racing.logs.Logger;
+import com.tronner.servers.racing.logs.MapLog;
+import com.tronner.servers.racing.logs.PlayerTime;
+import com.tronner.servers.racing.maps.MapManager;
+import com.tronner.servers.racing.players.PlayerTracker;
+import com.tronner.util.JsonManager;
+import com.tronner.util.PersistenceService;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Tronner - RankingsBenchmark
+ *
+ * Times a full recache one map after another against the fork join
+ * recache on a few pool sizes, and checks every one of them gives the
+ * same names, ranks and sums as the old recache below. Players on the
+ * same sum keep the order they are first seen in, maps in the map
+ * manager's order then records in rank order, same as the old one.
+ * The rankings file is only compared by sum, it keeps whatever map
+ * order the server had when it was written. Saves go to a temp folder.
+ *
+ * @author TJohnW
+ */
+public class RankingsBenchmark {
+
+    private static final int RUNS = 5;
+
+    private static byte[] json(Rankings rankings) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JsonManager.json(rankings.snapshot(), true).writeTo(out);
+        return out.toByteArray();
+    }
+
+    /**
+     * The recache the way it was before the rank matrix, kept to check against
+     * @param maps the maps in the map manager's order
+     * @param logs the log for every map
+     * @return the players in rank order
+     */
+    private static List<RankedPlayer> baseline(Collection<String> maps, Map<String, MapLog> logs) {
+        Map<String, RankedPlayer> players = new HashMap<>();
+        List<RankedPlayer> list = new ArrayList<>();
+        int sumForFirstNotFound = 0;
+        for(String map: maps) {
+            MapLog ml = logs.get(map);
+            for(RankedPlayer rp: list)
+                if(ml.getRank(rp.getName()) == -1)
+                    rp.setSum(rp.getSum() + ml.count());
+            int rank = 0;
+            for(PlayerTime pt: ml.getRecords()) {
+                rank++;
+                RankedPlayer rp = players.get(pt.getPlayer());
+                if(rp == null) {
+                    rp = new RankedPlayer(pt.getPlayer());
+                    rp.setSum(sumForFirstNotFound);
+                    players.put(rp.getName(), rp);
+                    list.add(rp);
+                }
+                rp.setSum(rp.getSum() + rank);
+            }
+            sumForFirstNotFound += ml.count();
+        }
+        Collections.sort(list, new Comparator<RankedPlayer>() {
+            @Override
+            public int compare(RankedPlayer o1, RankedPlayer o2) {
+                return o1.getSum() - o2.getSum();
+            }
+        });
+        int i = 1;
+        for(RankedPlayer rp: list)
+            rp.setRank(i++);
+        return list;
+    }
+
+    /**
+     * Counts the players that differ from the old recache in name, rank or sum
+     */
+    private static int differences(List<RankedPlayer> expected, List<RankedPlayer> actual) {
+        int differences = Math.abs(expected.size() - actual.size());
+        for(int i = 0; i < Math.min(expected.size(), actual.size()); i++) {
+            RankedPlayer e = expected.get(i), a = actual.get(i);
+            if(!e.getName().equals(a.getName()) || e.getRank() != a.getRank() || e.getSum() != a.getSum())
+                differences++;
+        }
+        return differences;
+    }
+
+    public static void main(String[] args) throws IOException {
+        Application.getConfig(); // sets the default path
+        if(args.length > 0)
+            JsonManager.PATH = args[0];
+        RankedPlayer[] existing = null;
+        try {
+            existing = JsonManager.loadFromJson("data/rankings.JSON", RankedPlayer[].class);
+        } catch (IOException e) {
+            System.out.println("No rankings file to compare with");
+        }
+
+        Parser.getInstance(ServerEventListener.class);
+        PlayerTracker playerTracker = new PlayerTracker();
+        Logger logger = new Logger(playerTracker);
+        RoundClock clock = new RoundClock();
+        MapManager mapManager = new MapManager(playerTracker, logger, new RaceTimer(playerTracker, clock), clock);
+        Map<String, MapLog> logs = new HashMap<>();
+        for(String map: mapManager.getMaps().keySet()) {
+            try {
+                logs.put(map, logger.readMapLog(map));
+            } catch (IOException e) {
+                logs.put(map, new MapLog(map));
+            }
+        }
+
+        // everything is read, the saves below go somewhere else
+        JsonManager.PATH = Files.createTempDirectory("rankings").toString() + "/";
+        List<RankedPlayer> expected = baseline(mapManager.getMaps().keySet(), logs);
+
+        Rankings sequential = new Rankings(playerTracker, mapManager, null, null);
+        long best = Long.MAX_VALUE;
+        for(int run = 0; run < RUNS; run++) {
+            long start = System.nanoTime();
+            sequential.updateAll(logs);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        byte[] json = json(sequential);
+        int differences = differences(expected, sequential.snapshot());
+        int mismatches = differences == 0 ? 0 : 1;
+        System.out.println("Players: " + expected.size() + ", maps: " + logs.size());
+        System.out.println("One map after another: " + best / 1000 + " us" + (differences == 0 ? "" : ", " + differences + " differ"));
+
+        Set<Integer> sizes = new TreeSet<>(Arrays.asList(1, 2, 4, Runtime.getRuntime().availableProcessors()));
+        for(int size: sizes) {
+            ForkJoinPool pool = new ForkJoinPool(size);
+            Rankings parallel = new Rankings(playerTracker, mapManager, null, null);
+            best = Long.MAX_VALUE;
+            for(int run = 0; run < RUNS; run++) {
+                long start = System.nanoTime();
+                parallel.updateAll(logs, pool);
+                best = Math.min(best, System.nanoTime() - start);
+            }
+            pool.shutdown();
+            differences = differences(expected, parallel.snapshot());
+            if(!Arrays.equals(json, json(parallel)))
+                differences++;
+            for(RankedPlayer rp: expected)
+                if(!Arrays.equals(parallel.getRanks(rp.getName()), sequential.getRanks(rp.getName())))
+                    differences++;
+            if(differences > 0)
+                mismatches++;
+            System.out.println("Fork join, " + size + " threads: " + best / 1000 + " us" + (differences == 0 ? "" : ", " + differences + " differ"));
+        }
+
+        System.out.println("Mismatches: " + mismatches);
+        if(existing != null) {
+            Map<String, Integer> sums = new HashMap<>();
+            for(RankedPlayer rp: existing)
+                sums.put(rp.getName(), rp.getSum());
+            boolean same = expected.size() == existing.length;
+            for(int i = 0; same && i < existing.length; i++)
+                same = expected.get(i).getSum() == existing[i].getSum()
+                        && Integer.valueOf(expected.get(i).getSum()).equals(sums.get(expected.get(i).getName()));
+            System.out.println("Same sums as the rankings file: " + same);
+        }
+        PersistenceService.getInstance().flush();
+        System.exit(mismatches == 0 ? 0 : 1);
+    }
+
+}
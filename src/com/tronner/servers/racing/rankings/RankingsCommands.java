@@ -0,0 +1,128 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014. Tristan John Whitcher
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.tronner.servers.racing.rankings;
+
+import com.tronner.dispatcher.Commands;
+import com.tronner.parser.Parser;
+import com.tronner.parser.ServerEventListener;
+import com.tronner.servers.racing.lang.LRace;
+
+import java.util.List;
+
+/**
+ * Tronner - RankingsCommands
+ *
+ * Answers /rank and /top in game from the last published rankings,
+ * so a command never waits on or recaches the rankings.
+ *
+ * @author TJohnW
+ */
+public class RankingsCommands extends ServerEventListener {
+
+    /**
+     * Players shown on each side of the player /rank is for
+     */
+    private static final int NEIGHBORS = 2;
+
+    /**
+     * Players on each page of /top
+     */
+    private static final int PAGE_SIZE = 10;
+
+    private Rankings rankings;
+
+    public RankingsCommands(Rankings rankings) {
+        this.rankings = rankings;
+        Parser.getInstance().reflectListeners(this);
+    }
+
+    @Override
+    public void INVALID_COMMAND(String... args) {
+        //[/rank, TJohnW@forums, 76.185.188.37, -2, someone@forums]
+        if(args.length < 2)
+            return;
+        String player = args[1];
+        switch(args[0]) {
+            case "/rank":
+                rank(player, args.length > 4 ? args[4] : player);
+                break;
+            case "/top":
+                int page = 1;
+                if(args.length > 4) {
+                    try {
+                        page = Integer.parseInt(args[4]);
+                    } catch(NumberFormatException nfe) {
+                        // first page
+                    }
+                }
+                top(player, page);
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Tells a player where someone is ranked and who is around them
+     * @param player the player who asked
+     * @param of who they asked about
+     */
+    private void rank(String player, String of) {
+        RankingsSnapshot snapshot = rankings.getSnapshot();
+        RankedPlayer rp = snapshot.getPlayer(of);
+        if(rp == null) {
+            LRace.RANK_UNRANKED.parseOutPlayer(player, of);
+            return;
+        }
+        String out = LRace.RANK_PLAYER.parse(of, rp.getRank(), snapshot.size(), rp.getSum(),
+                Math.round(snapshot.getPercentile(of)));
+        out += lines(snapshot.getNeighbors(of, NEIGHBORS));
+        Commands.PLAYER_MESSAGE(player, out);
+    }
+
+    /**
+     * Shows a player a page of the rankings
+     * @param player the player who asked
+     * @param page the page from 1
+     */
+    private void top(String player, int page) {
+        RankingsSnapshot snapshot = rankings.getSnapshot();
+        List<RankedPlayer> shown = snapshot.getPage(page, PAGE_SIZE);
+        if(shown.isEmpty())
+            return;
+        String out = LRace.RANK_TOP.parse(shown.get(0).getRank(), shown.get(shown.size() - 1).getRank(),
+                snapshot.size());
+        out += lines(shown);
+        Commands.PLAYER_MESSAGE(player, out);
+    }
+
+    private String lines(List<RankedPlayer> players) {
+        String out = "";
+        for(RankedPlayer rp: players)
+            out += "\\n" + LRace.RANK_LINE.parse(rp.getRank(), rp.getName(), rp.getSum());
+        return out;
+    }
+
+}
@@ -0,0 +1,404 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014. Tristan John Whitcher
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.tronner.servers.racing.rankings;
+
+import com.tronner.util.JsonManager;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * Tronner - RankingsHistory
+ *
+ * Every save of the rankings, appended to one file. Most versions are
+ * written as a delta holding only the players whose rank or offset
+ * changed since the version before, and every KEYFRAME_INTERVAL
+ * versions the whole rankings are written again, so rebuilding any
+ * version reads one keyframe and fewer than KEYFRAME_INTERVAL deltas.
+ * Sums are kept as the sum of a player with no times plus an offset
+ * per player, like in Rankings, so a new record only changes the
+ * offsets of the players it moved past.
+ *
+ * Each version is a length, a CRC32 of the rest, its type, the time it
+ * was saved, the sum of a player with no times, then for a delta the
+ * players no longer ranked, and the players written as name, rank and
+ * offset. The file position of every version is kept in memory.
+ *
+ * @author TJohnW
+ */
+public class RankingsHistory {
+
+    /**
+     * Versions between whole copies of the rankings
+     */
+    public static final int KEYFRAME_INTERVAL = 32;
+
+    private static final byte KEYFRAME = 1;
+
+    private static final byte DELTA = 2;
+
+    /**
+     * Length, checksum, type and time
+     */
+    private static final int HEADER_SIZE = 4 + 4 + 1 + 8;
+
+    /**
+     * A player's place in one version of the rankings
+     */
+    public static final class Place {
+
+        private final String player;
+        private final int rank;
+        private final int sum;
+
+        public Place(String player, int rank, int sum) {
+            this.player = player;
+            this.rank = rank;
+            this.sum = sum;
+        }
+
+        public String getPlayer() {
+            return player;
+        }
+
+        public int getRank() {
+            return rank;
+        }
+
+        public int getSum() {
+            return sum;
+        }
+    }
+
+    /**
+     * How far a player moved between two versions
+     */
+    public static final class Movement {
+
+        private final String player;
+        private final int from;
+        private final int to;
+
+        public Movement(String player, int from, int to) {
+            this.player = player;
+            this.from = from;
+            this.to = to;
+        }
+
+        public String getPlayer() {
+            return player;
+        }
+
+        /**
+         * @return the rank before, -1 if they were not ranked
+         */
+        public int getFrom() {
+            return from;
+        }
+
+        /**
+         * @return the rank after, -1 if they are not ranked
+         */
+        public int getTo() {
+            return to;
+        }
+    }
+
+    private static class Version {
+
+        private final long time;
+        private final long offset;
+        private final boolean keyframe;
+
+        public Version(long time, long offset, boolean keyframe) {
+            this.time = time;
+            this.offset = offset;
+            this.keyframe = keyframe;
+        }
+    }
+
+    /**
+     * A rebuilt version, rank and offset by player
+     */
+    private static class State {
+
+        private int total;
+        private Map<String, int[]> places = new HashMap<>();
+    }
+
+    private final FileChannel channel;
+
+    private final List<Version> versions = new ArrayList<>();
+
+    /**
+     * The newest version, the next delta is against it
+     */
+    private State last = new State();
+
+    /**
+     * Opens a history, dropping everything from the first version that
+     * was cut short by a crash or fails its CRC
+     * @param file the path under JsonManager.PATH
+     * @throws IOException if it cant be opened
+     */
+    public RankingsHistory(String file) throws IOException {
+        Path path = Paths.get(JsonManager.PATH + file);
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        long position = 0;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        while(position + HEADER_SIZE <= channel.size()) {
+            header.clear();
+            channel.read(header, position);
+            int length = header.getInt(0);
+            if(length < HEADER_SIZE || position + length > channel.size())
+                break;
+            byte type = header.get(8);
+            if((type != KEYFRAME && type != DELTA) || read(position, length) == null)
+                break;
+            versions.add(new Version(header.getLong(9), position, type == KEYFRAME));
+            position += length;
+        }
+        if(channel.size() != position) {
+            System.out.println("# Dropping torn or damaged rankings history after version " + versions.size());
+            channel.truncate(position);
+        }
+        if(!versions.isEmpty())
+            last = rebuild(versions.size() - 1);
+        System.out.println("# Rankings history opened, versions: " + versions.size());
+    }
+
+    /**
+     * Appends the rankings as a new version, unless nothing changed
+     * @param snapshot the rankings
+     * @throws IOException if it cant be written
+     */
+    public synchronized void record(RankingsSnapshot snapshot) throws IOException {
+        State next = new State();
+        next.total = snapshot.getTotal();
+        for(RankedPlayer rp: snapshot.getPlayers())
+            next.places.put(rp.getName(), new int[] { rp.getRank(), rp.getSum() - next.total });
+
+        boolean keyframe = versions.size() % KEYFRAME_INTERVAL == 0;
+        List<String> removed = new ArrayList<>();
+        Map<String, int[]> changed = next.places;
+        if(!keyframe) {
+            for(String player: last.places.keySet())
+                if(!next.places.containsKey(player))
+                    removed.add(player);
+            changed = new HashMap<>();
+            for(Map.Entry<String, int[]> e: next.places.entrySet())
+                if(!Arrays.equals(e.getValue(), last.places.get(e.getKey())))
+                    changed.put(e.getKey(), e.getValue());
+            if(removed.isEmpty() && changed.isEmpty() && next.total == last.total)
+                return;
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0);
+        out.writeInt(0);
+        out.writeByte(keyframe ? KEYFRAME : DELTA);
+        out.writeLong(snapshot.getPublished());
+        out.writeInt(next.total);
+        if(!keyframe) {
+            out.writeInt(removed.size());
+            for(String player: removed)
+                out.writeUTF(player);
+        }
+        out.writeInt(changed.size());
+        for(Map.Entry<String, int[]> e: changed.entrySet()) {
+            out.writeUTF(e.getKey());
+            out.writeInt(e.getValue()[0]);
+            out.writeInt(e.getValue()[1]);
+        }
+        out.flush();
+
+        ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 8, buffer.limit() - 8);
+        buffer.putInt(0, buffer.limit());
+        buffer.putInt(4, (int) crc.getValue());
+
+        long position = channel.size();
+        while(buffer.hasRemaining())
+            channel.write(buffer, position + buffer.position());
+        versions.add(new Version(snapshot.getPublished(), position, keyframe));
+        last = next;
+    }
+
+    /**
+     * Rebuilds a version from the keyframe before it
+     */
+    private State rebuild(int index) throws IOException {
+        int from = index;
+        while(!versions.get(from).keyframe)
+            from--;
+        State state = new State();
+        for(int i = from; i <= index; i++)
+            apply(versions.get(i), state);
+        return state;
+    }
+
+    /**
+     * Reads a whole version and checks it against its CRC
+     * @return the version, or null if it is cut short or does not match
+     */
+    private ByteBuffer read(long offset, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while(buffer.hasRemaining())
+            if(channel.read(buffer, offset + buffer.position()) < 0)
+                return null;
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 8, length - 8);
+        return (int) crc.getValue() == buffer.getInt(4) ? buffer : null;
+    }
+
+    private void apply(Version version, State state) throws IOException {
+        ByteBuffer length = ByteBuffer.allocate(4);
+        channel.read(length, version.offset);
+        ByteBuffer buffer = read(version.offset, length.getInt(0));
+        if(buffer == null)
+            throw new IOException("Rankings history checksum does not match at " + version.offset);
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(buffer.array(), HEADER_SIZE,
+                buffer.limit() - HEADER_SIZE));
+        state.total = in.readInt();
+        if(version.keyframe) {
+            state.places.clear();
+        } else {
+            int removed = in.readInt();
+            for(int i = 0; i < removed; i++)
+                state.places.remove(in.readUTF());
+        }
+        int changed = in.readInt();
+        for(int i = 0; i < changed; i++)
+            state.places.put(in.readUTF(), new int[] { in.readInt(), in.readInt() });
+    }
+
+    /**
+     * Finds the newest version saved at or before a time
+     * @return its index, or -1 if there is none
+     */
+    private int versionAt(long time) {
+        int low = 0;
+        int high = versions.size();
+        while(low < high) {
+            int middle = (low + high) >>> 1;
+            if(versions.get(middle).time <= time)
+                low = middle + 1;
+            else
+                high = middle;
+        }
+        return low - 1;
+    }
+
+    /**
+     * @return how many versions there are
+     */
+    public synchronized int size() {
+        return versions.size();
+    }
+
+    /**
+     * Gets the rankings as they were at a time
+     * @param time the time in milliseconds
+     * @return the places best first, empty before the first version
+     * @throws IOException if the history cant be read
+     */
+    public synchronized List<Place> getRankings(long time) throws IOException {
+        int index = versionAt(time);
+        if(index == -1)
+            return new ArrayList<>();
+        State state = rebuild(index);
+        Place[] places = new Place[state.places.size()];
+        int i = 0;
+        for(Map.Entry<String, int[]> e: state.places.entrySet())
+            places[i++] = new Place(e.getKey(), e.getValue()[0], state.total + e.getValue()[1]);
+        Arrays.sort(places, new Comparator<Place>() {
+            @Override
+            public int compare(Place o1, Place o2) {
+                return Integer.compare(o1.rank, o2.rank);
+            }
+        });
+        return Arrays.asList(places);
+    }
+
+    /**
+     * Gets every player whose rank changed between two times
+     * @param from the earlier time in milliseconds
+     * @param to the later time in milliseconds
+     * @return the players that moved, in no order
+     * @throws IOException if the history cant be read
+     */
+    public synchronized List<Movement> diff(long from, long to) throws IOException {
+        int a = versionAt(from);
+        int b = versionAt(to);
+        Map<String, int[]> before = a == -1 ? new HashMap<String, int[]>() : rebuild(a).places;
+        Map<String, int[]> after = b == -1 ? new HashMap<String, int[]>() : rebuild(b).places;
+        List<Movement> moved = new ArrayList<>();
+        for(Map.Entry<String, int[]> e: after.entrySet()) {
+            int[] was = before.get(e.getKey());
+            if(was == null || was[0] != e.getValue()[0])
+                moved.add(new Movement(e.getKey(), was == null ? -1 : was[0], e.getValue()[0]));
+        }
+        for(String player: before.keySet())
+            if(!after.containsKey(player))
+                moved.add(new Movement(player, before.get(player)[0], -1));
+        return moved;
+    }
+
+    /**
+     * Gets how many places a player moved up since a time
+     * @param player the player
+     * @param since the time in milliseconds
+     * @return the places moved up, negative for down, 0 if they were
+     * not ranked at one of the two times
+     * @throws IOException if the history cant be read
+     */
+    public synchronized int getMovement(String player, long since) throws IOException {
+        int a = versionAt(since);
+        if(a == -1 || versions.isEmpty())
+            return 0;
+        int[] was = rebuild(a).places.get(player);
+        int[] now = last.places.get(player);
+        return was == null || now == null ? 0 : was[0] - now[0];
+    }
+
+    public void close() throws IOException {
+        channel.close();
+    }
+
+}
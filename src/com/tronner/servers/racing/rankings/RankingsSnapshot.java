@@ -0,0 +1,216 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014. Tristan John Whitcher
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.tronner.servers.racing.rankings;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tronner - RankingsSnapshot
+ *
+ * The rankings as they were when they were last published. Never
+ * changed once made, so any thread can read one without locking.
+ * The RankedPlayers in it must not be changed either. Players are
+ * indexed by name when it is made, so every query is a lookup or a
+ * binary search over the sums, or the scores of the formula they are
+ * ranked by.
+ *
+ * @author TJohnW
+ */
+public final class RankingsSnapshot {
+
+    /**
+     * Before the rankings are first cached
+     */
+    public static final RankingsSnapshot EMPTY = new RankingsSnapshot(new ArrayList<RankedPlayer>(), 0, 0);
+
+    private final List<RankedPlayer> players;
+
+    private final int total;
+
+    private final long published;
+
+    /**
+     * The formula players are ranked by, null for their sums
+     */
+    private final String order;
+
+    /**
+     * Each player's index in players
+     */
+    private final Map<String, Integer> positions;
+
+    /**
+     * @param players the ranked players best first, not changed after
+     * @param total the sum of a player with no times
+     * @param published when the rankings were published
+     */
+    public RankingsSnapshot(List<RankedPlayer> players, int total, long published) {
+        this(players, total, null, published);
+    }
+
+    /**
+     * @param players the ranked players best first, not changed after
+     * @param total the sum of a player with no times
+     * @param order the formula the players are ranked by, null for their sums
+     * @param published when the rankings were published
+     */
+    public RankingsSnapshot(List<RankedPlayer> players, int total, String order, long published) {
+        this.players = Collections.unmodifiableList(players);
+        this.total = total;
+        this.order = order;
+        this.published = published;
+        positions = new HashMap<>(players.size() * 2);
+        for(int i = 0; i < players.size(); i++)
+            positions.put(players.get(i).getName(), i);
+    }
+
+    /**
+     * @return how many players are ranked
+     */
+    public int size() {
+        return players.size();
+    }
+
+    /**
+     * Gets a player's place in the rankings
+     * @param player the player
+     * @return the rank from 1, or -1 if they are not ranked
+     */
+    public int getRank(String player) {
+        Integer position = positions.get(player);
+        return position == null ? -1 : position + 1;
+    }
+
+    /**
+     * Gets a ranked player by name
+     * @param player the player
+     * @return the RankedPlayer, or null if they are not ranked
+     */
+    public RankedPlayer getPlayer(String player) {
+        Integer position = positions.get(player);
+        return position == null ? null : players.get(position);
+    }
+
+    /**
+     * Gets the player at a rank
+     * @param rank the rank from 1
+     * @return the player, or null if nobody has that rank
+     */
+    public RankedPlayer getPlayerAt(int rank) {
+        if(rank < 1 || rank > players.size())
+            return null;
+        return players.get(rank - 1);
+    }
+
+    /**
+     * Gets the players ranked around a player, them included
+     * @param player the player
+     * @param k how many on each side
+     * @return the players best first, empty if they are not ranked
+     */
+    public List<RankedPlayer> getNeighbors(String player, int k) {
+        Integer position = positions.get(player);
+        if(position == null)
+            return Collections.emptyList();
+        return players.subList(Math.max(0, position - k), Math.min(players.size(), position + k + 1));
+    }
+
+    /**
+     * Gets the percentage of the other ranked players with a worse sum
+     * than a player, so players on the same sum share a percentile.
+     * Ranked by a formula it is their score instead of their sum
+     * @param player the player
+     * @return the percentile from 0 to 100, or -1 if they are not ranked
+     */
+    public double getPercentile(String player) {
+        RankedPlayer rp = getPlayer(player);
+        if(rp == null)
+            return -1;
+        if(players.size() == 1)
+            return 100;
+        // the first with a higher sum
+        double key = key(rp);
+        int low = 0;
+        int high = players.size();
+        while(low < high) {
+            int middle = (low + high) >>> 1;
+            if(Double.compare(key(players.get(middle)), key) <= 0)
+                low = middle + 1;
+            else
+                high = middle;
+        }
+        return 100.0 * (players.size() - low) / (players.size() - 1);
+    }
+
+    private double key(RankedPlayer rp) {
+        return order == null ? rp.getSum() : rp.getScores().get(order);
+    }
+
+    /**
+     * Gets a page of the rankings
+     * @param page the page from 1
+     * @param size players on a page
+     * @return the players on it best first, empty past the last page
+     */
+    public List<RankedPlayer> getPage(int page, int size) {
+        long from = (page - 1L) * size; // a big page number would overflow an int
+        if(page < 1 || size < 1 || from >= players.size())
+            return Collections.emptyList();
+        return players.subList((int) from, (int) Math.min(players.size(), from + size));
+    }
+
+    /**
+     * @return the ranked players, best first
+     */
+    public List<RankedPlayer> getPlayers() {
+        return players;
+    }
+
+    /**
+     * @return the sum of a player with no times
+     */
+    public int getTotal() {
+        return total;
+    }
+
+    /**
+     * @return the formula players are ranked by, null for their sums
+     */
+    public String getOrder() {
+        return order;
+    }
+
+    /**
+     * @return when it was published, in milliseconds
+     */
+    public long getPublished() {
+        return published;
+    }
+
+}
@@ -0,0 +1,114 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014. Tristan John Whitcher
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.tronner.servers.racing.rankings;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Tronner - RankingsWorker
+ *
+ * The one thread full recaches and publishing run on, so two never
+ * overlap. Requests that come in while one is still waiting are
+ * coalesced into it, and a waiting recache takes the place of a
+ * waiting publish since it publishes too.
+ *
+ * @author TJohnW
+ */
+class RankingsWorker {
+
+    private final Rankings rankings;
+
+    private final ExecutorService executor;
+
+    /**
+     * Recaches run on this, made the first time one is needed
+     */
+    private ForkJoinPool pool;
+
+    private final AtomicBoolean recacheWaiting = new AtomicBoolean();
+
+    private final AtomicBoolean publishWaiting = new AtomicBoolean();
+
+    public RankingsWorker(Rankings rankings) {
+        this.rankings = rankings;
+        executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "Rankings");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * Recaches everything unless a recache is already waiting
+     */
+    public void recache() {
+        if(!recacheWaiting.compareAndSet(false, true))
+            return;
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                recacheWaiting.set(false);
+                publishWaiting.set(false);
+                if(pool == null)
+                    pool = new ForkJoinPool();
+                try {
+                    rankings.updateAll(null, pool);
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                    System.out.println("# Rankings update failed: " + e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Publishes and saves the rankings unless that is already waiting
+     */
+    public void publish() {
+        if(recacheWaiting.get() || !publishWaiting.compareAndSet(false, true))
+            return;
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if(!publishWaiting.getAndSet(false))
+                    return; // a recache published them
+                try {
+                    rankings.saveRankings();
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                    System.out.println("# Rankings update failed: " + e);
+                }
+            }
+        });
+    }
+
+}
@@ -0,0 +1,114 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014. Tristan John Whitcher
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.tronner.servers.racing.ratings;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+
+/**
+ * Tronner - PlayerRating
+ *
+ * @author TJohnW
+ */
+public class PlayerRating {
+
+    /**
+     * Reads and writes PlayerRating without reflection
+     */
+    public static final TypeAdapter<PlayerRating> ADAPTER = new TypeAdapter<PlayerRating>() {
+
+        @Override
+        public void write(JsonWriter out, PlayerRating p) throws IOException {
+            if(p == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            out.name("name").value(p.name);
+            out.name("rating").value(p.rating);
+            out.name("races").value(p.races);
+            out.endObject();
+        }
+
+        @Override
+        public PlayerRating read(JsonReader in) throws IOException {
+            if(in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            PlayerRating p = new PlayerRating(null, Ratings.INITIAL, 0);
+            in.beginObject();
+            while(in.hasNext()) {
+                String name = in.nextName();
+                if(name.equals("name"))
+                    p.name = in.nextString();
+                else if(name.equals("rating"))
+                    p.rating = in.nextDouble();
+                else if(name.equals("races"))
+                    p.races = in.nextInt();
+                else
+                    in.skipValue();
+            }
+            in.endObject();
+            return p;
+        }
+    };
+
+    private String name;
+
+    private double rating;
+
+    private int races;
+
+    public PlayerRating(String name, double rating, int races) {
+        this.name = name;
+        this.rating = rating;
+        this.races = races;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public double getRating() {
+        return rating;
+    }
+
+    public void setRating(double rating) {
+        this.rating = rating;
+    }
+
+    public int getRaces() {
+        return races;
+    }
+
+    public void setRaces(int races) {
+        this.races = races;
+    }
+}
@@ -0,0 +1,228 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014. Tristan John Whitcher
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.tronner.servers.racing.ratings;
+
+import com.google.gson.reflect.TypeToken;
+import com.tronner.servers.racing.Racing;
+import com.tronner.servers.racing.logs.MapLog;
+import com.tronner.servers.racing.logs.PlayerTime;
+import com.tronner.servers.racing.maps.RacingMap;
+import com.tronner.util.JsonManager;
+import com.tronner.util.OrderStatisticList;
+import com.tronner.util.PersistenceService;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.util.*;
+
+/**
+ * Tronner - Ratings
+ *
+ * Elo ratings from the order racers finish a round in. Every racer is
+ * scored by the share of the field they beat, a tie counting half, and
+ * expected to score against the average rating of the rest of the field,
+ * so a round of k racers is rated in O(k) once they are in order. Players
+ * are kept in an OrderStatisticList by rating for their rank.
+ * Not thread safe, only used from the dispatch thread.
+ *
+ * @author TJohnW
+ */
+public class Ratings {
+
+    /**
+     * The rating of a player before their first race
+     */
+    public static final double INITIAL = 1500;
+
+    /**
+     * How far one race moves a rating, more while the rating is new
+     */
+    private static final double K_NEW = 32;
+    private static final double K = 16;
+
+    /**
+     * Races a rating is new for
+     */
+    private static final int NEW_RACES = 20;
+
+    private static final Comparator<PlayerRating> ratingComparator = new Comparator<PlayerRating>() {
+
+        @Override
+        public int compare(PlayerRating o1, PlayerRating o2) {
+            return Double.compare(o2.getRating(), o1.getRating());
+        }
+    };
+
+    private Map<String, OrderStatisticList.Entry<PlayerRating>> ratings = new HashMap<>();
+
+    private OrderStatisticList<PlayerRating> ordered = new OrderStatisticList<>(ratingComparator);
+
+    /**
+     * Loads the saved ratings
+     */
+    public void loadRatings() {
+        try {
+            Type listType = new TypeToken<ArrayList<PlayerRating>>() {}.getType();
+            List<PlayerRating> loaded = JsonManager.loadFromJson("data/ratings.JSON", listType);
+            ratings.clear();
+            ordered = new OrderStatisticList<>(ratingComparator);
+            for(PlayerRating pr: loaded)
+                ratings.put(pr.getName(), ordered.insert(pr));
+        } catch (IOException e) {
+            System.out.println("# No ratings yet, run Ratings to rate the times files.");
+        }
+    }
+
+    public void saveRatings() {
+        List<PlayerRating> snapshot = new ArrayList<>(ordered.size());
+        for(PlayerRating pr: ordered)
+            snapshot.add(new PlayerRating(pr.getName(), pr.getRating(), pr.getRaces()));
+        PersistenceService.getInstance().save("data/ratings.JSON", snapshot, true);
+    }
+
+    /**
+     * Rates a race
+     * @param players the racers from first to last
+     * @param places each racer's place, equal for a tie, never lower than the one before
+     */
+    public void rate(List<String> players, List<Integer> places) {
+        int k = players.size();
+        if(k < 2)
+            return;
+
+        double[] before = new double[k];
+        double sum = 0;
+        for(int i = 0; i < k; i++) {
+            OrderStatisticList.Entry<PlayerRating> entry = ratings.get(players.get(i));
+            before[i] = entry == null ? INITIAL : entry.getValue().getRating();
+            sum += before[i];
+        }
+
+        int groupStart = 0;
+        for(int i = 0; i < k; i++) {
+            if(i > 0 && !places.get(i).equals(places.get(i - 1)))
+                groupStart = i;
+            int groupEnd = i + 1;
+            while(groupEnd < k && places.get(groupEnd).equals(places.get(i)))
+                groupEnd++;
+
+            double score = ((k - groupEnd) + 0.5 * (groupEnd - groupStart - 1)) / (k - 1);
+            double field = (sum - before[i]) / (k - 1);
+            double expected = 1 / (1 + Math.pow(10, (field - before[i]) / 400));
+            update(players.get(i), before[i], score - expected);
+        }
+    }
+
+    private void update(String player, double rating, double change) {
+        OrderStatisticList.Entry<PlayerRating> entry = ratings.get(player);
+        PlayerRating pr;
+        if(entry == null) {
+            pr = new PlayerRating(player, INITIAL, 0);
+        } else {
+            pr = entry.getValue();
+            ordered.remove(entry);
+        }
+        pr.setRating(rating + (pr.getRaces() < NEW_RACES ? K_NEW : K) * change);
+        pr.setRaces(pr.getRaces() + 1);
+        ratings.put(player, ordered.insert(pr));
+    }
+
+    /**
+     * Gets a player's rating
+     * @param player the player
+     * @return the rating, or null if they have never been rated
+     */
+    public PlayerRating getRating(String player) {
+        OrderStatisticList.Entry<PlayerRating> entry = ratings.get(player);
+        return entry == null ? null : entry.getValue();
+    }
+
+    /**
+     * Gets a player's place by rating
+     * @param player the player
+     * @return the rank from 1, or -1 if they have never been rated
+     */
+    public int getRank(String player) {
+        OrderStatisticList.Entry<PlayerRating> entry = ratings.get(player);
+        return entry == null ? -1 : ordered.indexOf(entry) + 1;
+    }
+
+    public int size() {
+        return ordered.size();
+    }
+
+    /**
+     * Rates every map's times as one race between everyone on it, in
+     * the order the maps are given. Nothing older than the best times
+     * is kept, so this is what a backfill can replay.
+     * @param logs the map logs
+     * @return the races rated
+     */
+    public int replay(Collection<MapLog> logs) {
+        int races = 0;
+        for(MapLog log: logs) {
+            List<String> players = new ArrayList<>(log.count());
+            List<Integer> places = new ArrayList<>(log.count());
+            for(PlayerTime pt: log.getRecords()) {
+                players.add(pt.getPlayer());
+                places.add(places.size() + 1);
+            }
+            if(players.size() > 1)
+                races++;
+            rate(players, places);
+        }
+        return races;
+    }
+
+    /**
+     * Backfills data/ratings.JSON from the times files
+     * @param args the data path, optional
+     */
+    public static void main(String[] args) throws IOException {
+        if(args.length > 0)
+            JsonManager.PATH = args[0];
+        List<String> maps = JsonManager.loadFromJson("data/maps.JSON", new TypeToken<ArrayList<String>>() {}.getType());
+        List<MapLog> logs = new ArrayList<>(maps.size());
+        for(String path: maps) {
+            String map = new RacingMap(path).getName();
+            try {
+                MapLog log = JsonManager.loadFromJson("data/" + Racing.PATH_TIMES + map + ".JSON", MapLog.class);
+                log.sort();
+                logs.add(log);
+            } catch (IOException e) {
+                // never raced
+            }
+        }
+
+        Ratings ratings = new Ratings();
+        long start = System.nanoTime();
+        int races = ratings.replay(logs);
+        long nanos = System.nanoTime() - start;
+        System.out.println("Rated " + races + " races for " + ratings.size() + " players in " + nanos / 1000000 + " ms");
+        ratings.saveRatings();
+        PersistenceService.getInstance().flush();
+    }
+
+}
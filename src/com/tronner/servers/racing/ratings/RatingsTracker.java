@@ -0,0 +1,166 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014. Tristan John Whitcher
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.tronner.servers.racing.ratings;
+
+import com.tronner.parser.Parser;
+import com.tronner.parser.ServerEventListener;
+import com.tronner.servers.racing.lang.LRace;
+
+import java.util.*;
+
+/**
+ * Tronner - RatingsTracker
+ *
+ * Follows each round for Ratings. Finishers place in the order they
+ * reach the zone, racers still alive at the end tie behind them, and
+ * racers that died place behind those, the last to die first. The
+ * round is rated when the next one commences. Also answers /rating.
+ *
+ * @author TJohnW
+ */
+public class RatingsTracker extends ServerEventListener {
+
+    private Ratings ratings;
+
+    /**
+     * Everyone who spawned this round
+     */
+    private Set<String> racers = new LinkedHashSet<>();
+
+    private List<String> finished = new ArrayList<>();
+
+    private List<String> died = new ArrayList<>();
+
+    /**
+     * Racers that finished or died
+     */
+    private Set<String> placed = new HashSet<>();
+
+    public RatingsTracker(Ratings ratings) {
+        this.ratings = ratings;
+        Parser.getInstance().reflectListeners(this);
+    }
+
+    @Override
+    public void ROUND_COMMENCING() {
+        if(!finished.isEmpty())
+            rateRound();
+        racers.clear();
+        finished.clear();
+        died.clear();
+        placed.clear();
+    }
+
+    private void rateRound() {
+        List<String> players = new ArrayList<>(racers.size());
+        List<Integer> places = new ArrayList<>(racers.size());
+        for(String player: finished) {
+            players.add(player);
+            places.add(players.size());
+        }
+        int alive = players.size() + 1;
+        for(String player: racers) {
+            if(!placed.contains(player)) {
+                players.add(player);
+                places.add(alive);
+            }
+        }
+        for(int i = died.size() - 1; i >= 0; i--) {
+            players.add(died.get(i));
+            places.add(players.size());
+        }
+        if(players.size() < 2)
+            return;
+        ratings.rate(players, places);
+        ratings.saveRatings();
+    }
+
+    @Override
+    public void CYCLE_CREATED(String playerId, float xPosition, float yPosition, float xDir, float yDir) {
+        racers.add(playerId);
+    }
+
+    @Override
+    public void TARGETZONE_PLAYER_ENTER(int globalID, float zoneX, float zoneY,
+                                        String playerId, float playerX, float playerY, float playerXDir,
+                                        float playerYDir, float time) {
+        if(racers.contains(playerId) && placed.add(playerId))
+            finished.add(playerId);
+    }
+
+    /**
+     * Places a racer that died before finishing
+     */
+    private void death(String player) {
+        if(racers.contains(player) && placed.add(player))
+            died.add(player);
+    }
+
+    @Override
+    public void DEATH_SUICIDE(String player) {
+        death(player);
+    }
+
+    @Override
+    public void DEATH_FRAG(String playerKilled, String killer) {
+        death(playerKilled);
+    }
+
+    @Override
+    public void DEATH_DEATHZONE(String player) {
+        death(player);
+    }
+
+    @Override
+    public void DEATH_RUBBERZONE(String player) {
+        death(player);
+    }
+
+    @Override
+    public void PLAYER_KILLED(String player, String ip, float x, float y, float xDir, float yDir) {
+        death(player);
+    }
+
+    @Override
+    public void PLAYER_LEFT(String player, String ip) {
+        death(player);
+    }
+
+    @Override
+    public void INVALID_COMMAND(String... args) {
+        //[/rating, TJohnW@forums, 76.185.188.37, -2, someone@forums]
+        if(args.length < 2 || !"/rating".equals(args[0]))
+            return;
+        String player = args[1];
+        String of = args.length > 4 ? args[4] : player;
+        PlayerRating pr = ratings.getRating(of);
+        if(pr == null)
+            LRace.RATING_UNRATED.parseOutPlayer(player, of);
+        else
+            LRace.RATING_PLAYER.parseOutPlayer(player, of, Math.round(pr.getRating()), pr.getRaces(),
+                    ratings.getRank(of), ratings.size());
+    }
+
+}
@@ -26,25 +26,116 @@ package com.tronner.util;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import com.tronner.servers.racing.logs.MapLog;
+import com.tronner.servers.racing.logs.PlayerTime;
+import com.tronner.servers.racing.logs.PlayerXP;
+import com.tronner.servers.racing.rankings.RankedPlayer;
+import com.tronner.servers.racing.ratings.PlayerRating;
 
 import java.io.BufferedWriter;
-import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.lang.reflect.Type;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
  * Tronner - JsonManager
  *
+ * Files are streamed through a JsonReader or JsonWriter instead of being
+ * held whole as a String, and the Gson instances are built once and shared
+ * between threads until another type adapter is registered. The adapters
+ * of the data files are registered here, so no file is ever read before
+ * they are.
+ *
  * @author TJohnW
  */
 public class JsonManager {
 
     public static String PATH = "";
 
+    /**
+     * Characters buffered between the JSON and the file
+     */
+    private static final int BUFFER = 64 * 1024;
+
+    /**
+     * Type adapters used for every save and load
+     */
+    private static Map<Type, Object> typeAdapters = new LinkedHashMap<>();
+
+    private static volatile Gson gson;
+
+    private static volatile Gson prettyGson;
+
+    static {
+        registerTypeAdapter(PlayerTime.class, PlayerTime.ADAPTER);
+        registerTypeAdapter(MapLog.class, MapLog.ADAPTER);
+        registerTypeAdapter(RankedPlayer.class, RankedPlayer.ADAPTER);
+        registerTypeAdapter(PlayerRating.class, PlayerRating.ADAPTER);
+        registerTypeAdapter(PlayerXP.class, PlayerXP.ADAPTER);
+    }
+
+    /**
+     * Registers a type adapter for every save and load
+     * @param type the type it handles
+     * @param typeAdapter a Gson TypeAdapter, serializer or deserializer
+     */
+    public static synchronized void registerTypeAdapter(Type type, Object typeAdapter) {
+        typeAdapters.put(type, typeAdapter);
+        gson = null;
+        prettyGson = null;
+    }
+
+    /**
+     * Gets the shared Gson with the registered type adapters
+     * @param pretty print pretty json?
+     * @return the Gson
+     */
+    public static Gson gson(boolean pretty) {
+        Gson g = pretty ? prettyGson : gson;
+        if(g != null)
+            return g;
+        synchronized(JsonManager.class) {
+            GsonBuilder builder = new GsonBuilder();
+            if(pretty) builder.setPrettyPrinting();
+            for(Map.Entry<Type, Object> adapter: typeAdapters.entrySet())
+                builder.registerTypeAdapter(adapter.getKey(), adapter.getValue());
+            g = builder.create();
+            if(pretty)
+                prettyGson = g;
+            else
+                gson = g;
+            return g;
+        }
+    }
+
+    /**
+     * Streams an object as JSON, for StorageWriter
+     * @param toJson the object to encode
+     * @param pretty print pretty json?
+     * @return the content
+     */
+    public static StorageWriter.Content json(final Object toJson, final boolean pretty) {
+        return new StorageWriter.Content() {
+            @Override
+            public void writeTo(OutputStream out) throws IOException {
+                Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), BUFFER);
+                JsonWriter json = new JsonWriter(writer);
+                if(pretty) json.setIndent("  ");
+                gson(pretty).toJson(toJson, toJson == null ? Object.class : toJson.getClass(), json);
+                json.flush();
+            }
+        };
+    }
+
     /**
      * Used to save an object as JSON to a file path.
      * Always prints ugly JSON
@@ -57,30 +148,24 @@ public class JsonManager {
     }
 
     /**
-     * Used to save an object as JSON to a file path
+     * Used to save an object as JSON to a file path.
+     * The file is replaced atomically, a crash leaves the old one.
      * @param path the path to save, including the filetype
      * @param toJson the object to encode
      * @param pretty print pretty json?
      * @throws IOException
      */
     public static void saveAsJson(String path, Object toJson, boolean pretty) throws IOException {
-        BufferedWriter output = new BufferedWriter(new FileWriter(new File(PATH+path)));
-        Gson g;
-        if(pretty) g = new GsonBuilder().setPrettyPrinting().create();
-        else g = new Gson();
-        output.write(g.toJson(toJson));
-        output.close();
+        StorageWriter.write(PATH+path, json(toJson, pretty));
     }
 
     public static <T> T loadFromJson(String path, Class<T> clazz) throws IOException {
-        byte[] encoded = Files.readAllBytes(Paths.get(PATH+path));
-        Gson g = new Gson();
-        return g.fromJson(new String(encoded, StandardCharsets.UTF_8), clazz);
+        return clazz.cast(loadFromJson(path, (Type) clazz));
     }
 
     public static <T> T loadFromJson(String path, Type listType) throws IOException {
-        byte[] encoded = Files.readAllBytes(Paths.get(PATH+path));
-        Gson g = new Gson();
-        return g.fromJson(new String(encoded, StandardCharsets.UTF_8), listType);
+        try(JsonReader reader = new JsonReader(Files.newBufferedReader(Paths.get(PATH+path), StandardCharsets.UTF_8))) {
+            return gson(false).fromJson(reader, listType);
+        }
     }
 }
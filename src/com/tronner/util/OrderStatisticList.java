@@ -0,0 +1,291 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014. Tristan John Whitcher
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.tronner.util;
+
+import java.util.AbstractList;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+/**
+ * Tronner - OrderStatisticList
+ *
+ * A list kept sorted by a comparator, with equal elements kept in the
+ * order they were added. Backed by a treap that counts its subtrees, so
+ * adding, removing, get(index) and finding the index of an entry are all
+ * O(log n). Elements must not change how they compare while in the list,
+ * remove them, change them, then add them again.
+ *
+ * @author TJohnW
+ */
+public class OrderStatisticList<E> extends AbstractList<E> {
+
+    /**
+     * A handle to an element in the list
+     */
+    public static final class Entry<E> {
+
+        private final E value;
+
+        private long seq;
+
+        private int priority;
+
+        private int size = 1;
+
+        private Entry<E> left, right;
+
+        private Entry(E value) {
+            this.value = value;
+        }
+
+        public E getValue() {
+            return value;
+        }
+    }
+
+    private final Comparator<? super E> comparator;
+
+    private final Random random = new Random();
+
+    private Entry<E> root;
+
+    private long nextSeq;
+
+    public OrderStatisticList(Comparator<? super E> comparator) {
+        this.comparator = comparator;
+    }
+
+    /**
+     * Creates the list from a collection, equal elements keep their order
+     * @param comparator the order
+     * @param from the elements to add
+     */
+    public OrderStatisticList(Comparator<? super E> comparator, Collection<? extends E> from) {
+        this(comparator);
+        List<E> sorted = new ArrayList<>(from);
+        Collections.sort(sorted, comparator);
+        for(E e: sorted)
+            insert(e);
+    }
+
+    private static int size(Entry<?> e) {
+        return e == null ? 0 : e.size;
+    }
+
+    private static void resize(Entry<?> e) {
+        e.size = 1 + size(e.left) + size(e.right);
+    }
+
+    private int compare(Entry<E> a, Entry<E> b) {
+        int c = comparator.compare(a.value, b.value);
+        return c != 0 ? c : Long.compare(a.seq, b.seq);
+    }
+
+    /**
+     * Splits a tree into the entries before key and the rest
+     */
+    @SuppressWarnings("unchecked")
+    private Entry<E>[] split(Entry<E> t, Entry<E> key) {
+        if(t == null)
+            return (Entry<E>[]) new Entry<?>[] { null, null };
+        if(compare(t, key) < 0) {
+            Entry<E>[] s = split(t.right, key);
+            t.right = s[0];
+            resize(t);
+            s[0] = t;
+            return s;
+        } else {
+            Entry<E>[] s = split(t.left, key);
+            t.left = s[1];
+            resize(t);
+            s[1] = t;
+            return s;
+        }
+    }
+
+    private Entry<E> merge(Entry<E> a, Entry<E> b) {
+        if(a == null) return b;
+        if(b == null) return a;
+        if(a.priority > b.priority) {
+            a.right = merge(a.right, b);
+            resize(a);
+            return a;
+        } else {
+            b.left = merge(a, b.left);
+            resize(b);
+            return b;
+        }
+    }
+
+    /**
+     * Adds an element after all elements equal to it
+     * @param value the element
+     * @return the handle to remove or find it later
+     */
+    public Entry<E> insert(E value) {
+        Entry<E> e = new Entry<>(value);
+        e.seq = nextSeq++;
+        e.priority = random.nextInt();
+        Entry<E>[] s = split(root, e);
+        root = merge(merge(s[0], e), s[1]);
+        modCount++;
+        return e;
+    }
+
+    /**
+     * Removes an entry from the list
+     * @param entry the entry returned by insert
+     * @return true if it was in the list
+     */
+    public boolean remove(Entry<E> entry) {
+        int before = size(root);
+        root = remove(root, entry);
+        modCount++;
+        return size(root) != before;
+    }
+
+    private Entry<E> remove(Entry<E> t, Entry<E> entry) {
+        if(t == null)
+            return null;
+        if(t == entry)
+            return merge(t.left, t.right);
+        if(compare(entry, t) < 0)
+            t.left = remove(t.left, entry);
+        else
+            t.right = remove(t.right, entry);
+        resize(t);
+        return t;
+    }
+
+    /**
+     * Gets the index of an entry
+     * @param entry the entry returned by insert
+     * @return the index, or -1 if not in the list
+     */
+    public int indexOf(Entry<E> entry) {
+        int index = 0;
+        Entry<E> t = root;
+        while(t != null) {
+            if(t == entry)
+                return index + size(t.left);
+            if(compare(entry, t) < 0) {
+                t = t.left;
+            } else {
+                index += size(t.left) + 1;
+                t = t.right;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Gets the entry at an index
+     * @param index the index
+     * @return the entry
+     */
+    public Entry<E> entry(int index) {
+        if(index < 0 || index >= size())
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+        Entry<E> t = root;
+        while(true) {
+            int left = size(t.left);
+            if(index < left) {
+                t = t.left;
+            } else if(index == left) {
+                return t;
+            } else {
+                index -= left + 1;
+                t = t.right;
+            }
+        }
+    }
+
+    @Override
+    public E get(int index) {
+        return entry(index).value;
+    }
+
+    @Override
+    public boolean add(E value) {
+        insert(value);
+        return true;
+    }
+
+    @Override
+    public int size() {
+        return size(root);
+    }
+
+    @Override
+    public void clear() {
+        root = null;
+        modCount++;
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        return new Iterator<E>() {
+
+            private Deque<Entry<E>> path = new ArrayDeque<>();
+
+            {
+                descend(root);
+            }
+
+            private void descend(Entry<E> t) {
+                for(; t != null; t = t.left)
+                    path.push(t);
+            }
+
+            @Override
+            public boolean hasNext() {
+                return !path.isEmpty();
+            }
+
+            @Override
+            public E next() {
+                if(path.isEmpty())
+                    throw new NoSuchElementException();
+                Entry<E> t = path.pop();
+                descend(t.right);
+                return t.value;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+}
@@ -0,0 +1,112 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014. Tristan John Whitcher
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.tronner.util;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Tronner - ParallelSort
+ *
+ * A stable merge sort that sorts the halves of an array on a fork join
+ * pool. Runs shorter than a threshold are sorted with Arrays.sort, which
+ * is stable for objects, so equal elements keep their order.
+ *
+ * @author TJohnW
+ */
+public class ParallelSort {
+
+    /**
+     * Runs this short are sorted on one thread
+     */
+    private static final int THRESHOLD = 2048;
+
+    @SuppressWarnings("serial")
+    private static class Sort<T> extends RecursiveAction {
+
+        private final T[] a;
+        private final T[] buffer;
+        private final int from;
+        private final int to;
+        private final Comparator<? super T> comparator;
+
+        public Sort(T[] a, T[] buffer, int from, int to, Comparator<? super T> comparator) {
+            this.a = a;
+            this.buffer = buffer;
+            this.from = from;
+            this.to = to;
+            this.comparator = comparator;
+        }
+
+        @Override
+        protected void compute() {
+            if(to - from <= THRESHOLD) {
+                Arrays.sort(a, from, to, comparator);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new Sort<>(a, buffer, from, middle, comparator),
+                    new Sort<>(a, buffer, middle, to, comparator));
+            merge(middle);
+        }
+
+        /**
+         * Merges the sorted halves, taking from the left on ties
+         */
+        private void merge(int middle) {
+            if(comparator.compare(a[middle - 1], a[middle]) <= 0)
+                return;
+            System.arraycopy(a, from, buffer, from, middle - from);
+            int left = from;
+            int right = middle;
+            int out = from;
+            while(left < middle && right < to) {
+                if(comparator.compare(a[right], buffer[left]) < 0)
+                    a[out++] = a[right++];
+                else
+                    a[out++] = buffer[left++];
+            }
+            while(left < middle)
+                a[out++] = buffer[left++];
+        }
+    }
+
+    /**
+     * Sorts an array on a pool, equal elements keep their order
+     * @param pool the pool to sort on
+     * @param a the array
+     * @param comparator the order
+     */
+    public static <T> void sort(ForkJoinPool pool, T[] a, Comparator<? super T> comparator) {
+        if(a.length <= THRESHOLD) {
+            Arrays.sort(a, comparator);
+            return;
+        }
+        pool.invoke(new Sort<>(a, Arrays.copyOf(a, a.length), 0, a.length, comparator));
+    }
+
+}
@@ -0,0 +1,226 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014. Tristan John Whitcher
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.tronner.util;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tronner - PersistenceService
+ *
+ * Does the disk work for the server on one background thread so the
+ * dispatch thread never waits on a file. Saves are given a snapshot of
+ * the data that nothing else changes, and saves of the same file that
+ * are still waiting are coalesced so only the newest is written. Files
+ * are replaced atomically through a StorageWriter.
+ * Everything waiting is flushed when the VM shuts down.
+ *
+ * @author TJohnW
+ */
+public class PersistenceService {
+
+    private static PersistenceService instance;
+
+    /**
+     * Gets the PersistenceService, starting it on first use
+     * @return the instance
+     */
+    public static synchronized PersistenceService getInstance() {
+        if(instance == null)
+            instance = new PersistenceService();
+        return instance;
+    }
+
+    private static class Snapshot {
+
+        private Object data;
+        private boolean pretty;
+
+        public Snapshot(Object data, boolean pretty) {
+            this.data = data;
+            this.pretty = pretty;
+        }
+    }
+
+    /**
+     * How long a save waits for others to commit with
+     */
+    private static final long GROUP_COMMIT_MILLIS = 50;
+
+    private final ScheduledExecutorService executor;
+
+    /**
+     * Snapshots waiting to be written, by path
+     */
+    private final Map<String, Snapshot> dirty = new HashMap<>();
+
+    /**
+     * Run at shutdown once everything else is on disk
+     */
+    private final List<Runnable> shutdownTasks = new CopyOnWriteArrayList<>();
+
+    private PersistenceService() {
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "Persistence");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                flush();
+                for(Runnable task: shutdownTasks)
+                    guard(task).run();
+            }
+        }));
+    }
+
+    /**
+     * Saves a snapshot as JSON in the background. The snapshot must
+     * not be changed after it is given here. Saves that come in within
+     * a short window are committed to disk together.
+     * @param path the path to save, including the filetype
+     * @param snapshot the object to encode
+     * @param pretty print pretty json?
+     */
+    public void save(String path, Object snapshot, boolean pretty) {
+        boolean waiting;
+        synchronized(dirty) {
+            waiting = !dirty.isEmpty();
+            dirty.put(path, new Snapshot(snapshot, pretty));
+        }
+        if(waiting)
+            return;
+        executor.schedule(guard(new Runnable() {
+            @Override
+            public void run() {
+                writeDirty();
+            }
+        }), GROUP_COMMIT_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Writes every waiting snapshot as one group commit
+     */
+    private void writeDirty() {
+        Map<String, Snapshot> batch;
+        synchronized(dirty) {
+            if(dirty.isEmpty())
+                return;
+            batch = new LinkedHashMap<>(dirty);
+            dirty.clear();
+        }
+        StorageWriter writer = new StorageWriter();
+        for(Map.Entry<String, Snapshot> e: batch.entrySet()) {
+            try {
+                Snapshot s = e.getValue();
+                writer.stage(JsonManager.PATH + e.getKey(), JsonManager.json(s.data, s.pretty));
+            } catch (IOException ex) {
+                ex.printStackTrace();
+                System.out.println("# Unable to save: " + e.getKey());
+            }
+        }
+        try {
+            writer.commit();
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.out.println("# Unable to commit saves: " + batch.keySet());
+        }
+    }
+
+    /**
+     * Runs a task on the persistence thread
+     * @param task the task
+     */
+    public void submit(Runnable task) {
+        executor.execute(guard(task));
+    }
+
+    /**
+     * Runs a task on the persistence thread over and over
+     * @param task the task
+     * @param period the time between the end of one run and the next
+     * @param unit the unit of period
+     */
+    public void schedule(Runnable task, long period, TimeUnit unit) {
+        executor.scheduleWithFixedDelay(guard(task), period, period, unit);
+    }
+
+    /**
+     * Runs a task when the VM shuts down, after every waiting save is written
+     * @param task the task
+     */
+    public void atShutdown(Runnable task) {
+        shutdownTasks.add(task);
+    }
+
+    /**
+     * Waits until everything submitted so far is done
+     */
+    public void flush() {
+        try {
+            executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    writeDirty();
+                }
+            }).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Keeps a failing task from stopping the thread or its schedule
+     */
+    private static Runnable guard(final Runnable task) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                    System.out.println("# Persistence task failed: " + e);
+                }
+            }
+        };
+    }
+
+}
@@ -0,0 +1,218 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014. Tristan John Whitcher
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.tronner.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Tronner - StorageWriter
+ *
+ * Replaces files so a crash leaves either the old or the new contents,
+ * never half of one. The data goes to a temp file beside the target,
+ * is forced to disk and then moved over the target. Files can be staged
+ * and committed together, each is still forced on its own but no target
+ * is replaced until all of them are, and each folder is forced once.
+ *
+ * @author TJohnW
+ */
+public class StorageWriter {
+
+    public static final String TEMP_SUFFIX = ".tmp";
+
+    /**
+     * Something to write to a file
+     */
+    public interface Content {
+
+        /**
+         * Writes the whole contents. The stream is closed after.
+         * @param out the stream to the file
+         * @throws IOException
+         */
+        void writeTo(OutputStream out) throws IOException;
+    }
+
+    /**
+     * Temp files written but not moved yet, by target
+     */
+    private Map<Path, Path> staged = new LinkedHashMap<>();
+
+    /**
+     * Replaces a file with the bytes given
+     * @param path the path of the file
+     * @param data the new contents
+     * @throws IOException
+     */
+    public static void write(String path, byte[] data) throws IOException {
+        write(path, bytes(data));
+    }
+
+    /**
+     * Replaces a file with the content given
+     * @param path the path of the file
+     * @param content the new contents
+     * @throws IOException
+     */
+    public static void write(String path, Content content) throws IOException {
+        StorageWriter writer = new StorageWriter();
+        writer.stage(path, content);
+        writer.commit();
+    }
+
+    /**
+     * Writes the bytes to a temp file for the next commit. Staging the
+     * same path again replaces what was staged.
+     * @param path the path of the file
+     * @param data the new contents
+     * @throws IOException
+     */
+    public void stage(String path, byte[] data) throws IOException {
+        stage(path, bytes(data));
+    }
+
+    /**
+     * Writes the content to a temp file for the next commit. Staging the
+     * same path again replaces what was staged.
+     * @param path the path of the file
+     * @param content the new contents
+     * @throws IOException
+     */
+    public void stage(String path, Content content) throws IOException {
+        Path target = Paths.get(path).toAbsolutePath();
+        Path temp = target.resolveSibling(target.getFileName() + TEMP_SUFFIX);
+        Path parent = target.getParent();
+        if(parent != null)
+            Files.createDirectories(parent);
+        try(OutputStream out = Channels.newOutputStream(FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))) {
+            content.writeTo(out);
+        }
+        staged.put(target, temp);
+    }
+
+    /**
+     * Forces every staged file to disk, then moves them over their targets.
+     * A file that could not be forced is dropped and its target kept.
+     * @return the number of files committed
+     * @throws IOException if any file could not be committed, the rest still are
+     */
+    public int commit() throws IOException {
+        IOException failed = null;
+        Map<Path, Path> batch = staged;
+        staged = new LinkedHashMap<>();
+
+        // all the data is on disk before any target is replaced
+        Map<Path, Path> forced = new LinkedHashMap<>();
+        for(Map.Entry<Path, Path> file: batch.entrySet()) {
+            try {
+                force(file.getValue(), false);
+                forced.put(file.getKey(), file.getValue());
+            } catch (IOException e) {
+                failed = e;
+                discard(file.getValue());
+            }
+        }
+
+        int count = 0;
+        Set<Path> directories = new LinkedHashSet<>();
+        for(Map.Entry<Path, Path> file: forced.entrySet()) {
+            try {
+                move(file.getValue(), file.getKey());
+                directories.add(file.getKey().getParent());
+                count++;
+            } catch (IOException e) {
+                failed = e;
+            }
+        }
+
+        // the moves themselves are only durable once their directories are
+        for(Path directory: directories) {
+            try {
+                force(directory, true);
+            } catch (IOException e) {
+                // not every platform can open a directory, the move is still atomic
+            }
+        }
+
+        if(failed != null)
+            throw failed;
+        return count;
+    }
+
+    /**
+     * Gets how many files are waiting for a commit
+     * @return the count
+     */
+    public int size() {
+        return staged.size();
+    }
+
+    private static Content bytes(final byte[] data) {
+        return new Content() {
+            @Override
+            public void writeTo(OutputStream out) throws IOException {
+                out.write(data);
+            }
+        };
+    }
+
+    private static void move(Path from, Path to) throws IOException {
+        try {
+            Files.move(from, to, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(from, to, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static void discard(Path temp) {
+        try {
+            Files.deleteIfExists(temp);
+        } catch (IOException e) {
+            // staging the same file again writes over it
+        }
+    }
+
+    private static void force(Path path, boolean directory) throws IOException {
+        if(path == null)
+            return;
+        try(FileChannel channel = FileChannel.open(path, directory ? StandardOpenOption.READ : StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+    }
+
+}
@@ -0,0 +1,215 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014. Tristan John Whitcher
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.tronner.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tronner - TimerWheel
+ *
+ * A hashed timing wheel. Timers are hashed into slots by the tick
+ * they are due, so advancing one tick only looks at the timers in
+ * one slot. Timers further away than one turn of the wheel wait in
+ * their slot until their tick comes around.
+ *
+ * Ticks mean whatever the owner advances them by, game seconds or
+ * slices of wall time. Not thread safe, advance it from one thread.
+ *
+ * @author TJohnW
+ */
+public class TimerWheel {
+
+    /**
+     * A scheduled task, can be cancelled until it runs.
+     */
+    public static class Timeout {
+
+        private final Runnable task;
+        private final long period;
+        private long deadline;
+        private boolean cancelled;
+
+        private Timeout prev;
+        private Timeout next;
+        private TimerWheel wheel;
+
+        private Timeout(Runnable task, long deadline, long period) {
+            this.task = task;
+            this.deadline = deadline;
+            this.period = period;
+        }
+
+        /**
+         * Stops the task from running again
+         */
+        public void cancel() {
+            cancelled = true;
+            if(wheel != null)
+                wheel.unlink(this);
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        public long getDeadline() {
+            return deadline;
+        }
+    }
+
+    private final Timeout[] slots;
+
+    private final int mask;
+
+    /**
+     * The last tick that was processed
+     */
+    private long tick;
+
+    private int size;
+
+    /**
+     * Reused while a slot is expired
+     */
+    private List<Timeout> expired = new ArrayList<>();
+
+    /**
+     * Creates a wheel
+     * @param slots the amount of slots, rounded up to a power of two
+     * @param tick the tick the wheel starts at
+     */
+    public TimerWheel(int slots, long tick) {
+        int n = Integer.highestOneBit(Math.max(slots, 1) - 1) << 1;
+        this.slots = new Timeout[Math.max(n, 1)];
+        this.mask = this.slots.length - 1;
+        this.tick = tick;
+    }
+
+    public long getTick() {
+        return tick;
+    }
+
+    /**
+     * The amount of timers waiting
+     * @return the size
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Schedules a task to run once
+     * @param deadline the tick to run at, overdue ticks run on the next advance
+     * @param task the task
+     * @return the Timeout to cancel it with
+     */
+    public Timeout at(long deadline, Runnable task) {
+        return link(new Timeout(task, Math.max(deadline, tick + 1), 0));
+    }
+
+    /**
+     * Schedules a task to run every period ticks
+     * @param first the first tick to run at
+     * @param period ticks between runs, at least 1
+     * @param task the task
+     * @return the Timeout to cancel it with
+     */
+    public Timeout every(long first, long period, Runnable task) {
+        return link(new Timeout(task, Math.max(first, tick + 1), Math.max(period, 1)));
+    }
+
+    /**
+     * Runs everything due up to and including the target tick
+     * @param target the tick to advance to
+     */
+    public void advanceTo(long target) {
+        while(tick < target) {
+            tick++;
+            if(size == 0) {
+                tick = target;
+                break;
+            }
+            int slot = (int) (tick & mask);
+            for(Timeout t = slots[slot]; t != null; t = t.next)
+                if(t.deadline <= tick)
+                    expired.add(t);
+
+            for(Timeout t: expired) {
+                unlink(t);
+                if(t.cancelled)
+                    continue;
+                if(t.period > 0) {
+                    t.deadline += t.period;
+                    link(t);
+                }
+                t.task.run();
+            }
+            expired.clear();
+        }
+    }
+
+    /**
+     * Drops every timer and starts over at a tick
+     * @param newTick the tick to start at
+     */
+    public void reset(long newTick) {
+        for(int i = 0; i < slots.length; i++) {
+            for(Timeout t = slots[i]; t != null; t = t.next)
+                t.wheel = null;
+            slots[i] = null;
+        }
+        size = 0;
+        tick = newTick;
+    }
+
+    private Timeout link(Timeout t) {
+        int slot = (int) (t.deadline & mask);
+        t.wheel = this;
+        t.prev = null;
+        t.next = slots[slot];
+        if(t.next != null)
+            t.next.prev = t;
+        slots[slot] = t;
+        size++;
+        return t;
+    }
+
+    private void unlink(Timeout t) {
+        if(t.wheel != this)
+            return;
+        if(t.prev != null)
+            t.prev.next = t.next;
+        else
+            slots[(int) (t.deadline & mask)] = t.next;
+        if(t.next != null)
+            t.next.prev = t.prev;
+        t.prev = null;
+        t.next = null;
+        t.wheel = null;
+        size--;
+    }
+
+}
@@ -0,0 +1,185 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014. Tristan John Whitcher
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.tronner.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Tronner - TopK
+ *
+ * The best K of a changing set of elements, kept in order as they change
+ * so a leaderboard can be shown without sorting everything. Leaderboards
+ * are short, so the K are kept in a sorted array. An element that got
+ * better is offered again. An element in the top that got worse may
+ * leave it, and since the next best is not kept here the top is then
+ * incomplete until rebuilt from every element.
+ *
+ * @author TJohnW
+ */
+public class TopK<E> {
+
+    private final Comparator<? super E> comparator;
+
+    private final Object[] top;
+
+    private int size;
+
+    private boolean complete = true;
+
+    /**
+     * @param k how many to keep
+     * @param comparator the order, best first
+     */
+    public TopK(int k, Comparator<? super E> comparator) {
+        if(k < 1)
+            throw new IllegalArgumentException("k must be at least 1");
+        this.comparator = comparator;
+        top = new Object[k];
+    }
+
+    @SuppressWarnings("unchecked")
+    private E at(int index) {
+        return (E) top[index];
+    }
+
+    private int indexOf(E e) {
+        for(int i = 0; i < size; i++)
+            if(top[i] == e)
+                return i;
+        return -1;
+    }
+
+    private void removeAt(int index) {
+        System.arraycopy(top, index + 1, top, index, size - index - 1);
+        top[--size] = null;
+    }
+
+    /**
+     * Puts an element after the elements equal to it, if it makes the top
+     */
+    private boolean insert(E e) {
+        if(size == top.length && comparator.compare(e, at(size - 1)) >= 0)
+            return false;
+        int low = 0;
+        int high = size;
+        while(low < high) {
+            int middle = (low + high) >>> 1;
+            if(comparator.compare(at(middle), e) <= 0)
+                low = middle + 1;
+            else
+                high = middle;
+        }
+        if(size == top.length)
+            size--;
+        System.arraycopy(top, low, top, low + 1, size - low);
+        top[low] = e;
+        size++;
+        return true;
+    }
+
+    /**
+     * Adds a new element or one that got better
+     * @param e the element
+     * @return true if it is in the top now
+     */
+    public boolean offer(E e) {
+        int index = indexOf(e);
+        if(index != -1)
+            removeAt(index);
+        return insert(e);
+    }
+
+    /**
+     * Tells the top an element got worse
+     * @param e the element
+     */
+    public void worsened(E e) {
+        int index = indexOf(e);
+        if(index == -1)
+            return;
+        removeAt(index);
+        boolean full = size + 1 == top.length;
+        // a full top has no room to know what is behind its last
+        if(full && (size == 0 || comparator.compare(e, at(size - 1)) > 0)) {
+            complete = false;
+            return;
+        }
+        insert(e);
+    }
+
+    /**
+     * Tells the top an element is gone
+     * @param e the element
+     */
+    public void remove(E e) {
+        int index = indexOf(e);
+        if(index == -1)
+            return;
+        removeAt(index);
+        if(size + 1 == top.length)
+            complete = false;
+    }
+
+    /**
+     * @return false if an element left the top and the one after it is unknown
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * Finds the top again from every element
+     * @param all every element
+     */
+    public void rebuild(Iterable<? extends E> all) {
+        Arrays.fill(top, 0, size, null);
+        size = 0;
+        for(E e: all)
+            insert(e);
+        complete = true;
+    }
+
+    /**
+     * @return how many are in the top
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the top, best first
+     */
+    public List<E> get() {
+        List<E> list = new ArrayList<>(size);
+        for(int i = 0; i < size; i++)
+            list.add(at(i));
+        return Collections.unmodifiableList(list);
+    }
+
+}